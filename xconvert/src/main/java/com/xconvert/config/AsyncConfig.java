@@ -1,11 +1,13 @@
 package com.xconvert.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
 @EnableAsync
@@ -21,4 +23,52 @@ public class AsyncConfig {
         executor.initialize();
         return executor;
     }
+    
+    /**
+     * Runs single-file conversions off the HTTP request threads. The queue is bounded and
+     * full queues reject new work immediately so the controller can answer 429.
+     */
+    @Bean(name = "conversionExecutor")
+    public ThreadPoolTaskExecutor conversionExecutor(
+            @Value("${xconvert.conversion.pool-size:4}") int poolSize,
+            @Value("${xconvert.conversion.queue-capacity:50}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("XconvertConvert-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+    
+    /**
+     * Runs batch job items. Each batch limits how many of its items are queued here at once,
+     * so the queue is left unbounded and never rejects an item of an accepted batch.
+     */
+    @Bean(name = "batchItemExecutor")
+    public ThreadPoolTaskExecutor batchItemExecutor(
+            @Value("${xconvert.batch.pool-size:4}") int poolSize) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setThreadNamePrefix("XconvertBatchItem-");
+        executor.initialize();
+        return executor;
+    }
+    
+    /**
+     * Writes streamed responses such as batch archives. Each download holds a thread for as
+     * long as the client reads, so downloads beyond the pool size wait in the queue.
+     */
+    @Bean(name = "downloadExecutor")
+    public ThreadPoolTaskExecutor downloadExecutor(
+            @Value("${xconvert.download.pool-size:8}") int poolSize) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setThreadNamePrefix("XconvertDownload-");
+        executor.initialize();
+        return executor;
+    }
 }
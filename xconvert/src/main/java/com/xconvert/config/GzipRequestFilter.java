@@ -0,0 +1,193 @@
+package com.xconvert.config;
+
+import com.xconvert.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decompresses request bodies sent with Content-Encoding: gzip as they are read.
+ *
+ * Multipart and form bodies are parsed by the container from the raw request before any
+ * filter sees them, so they cannot be decoded here and are refused with 415. Files in a
+ * multipart upload can be gzip-compressed individually instead; the upload services
+ * recognise and decompress them. Bodies that decompress to more than
+ * xconvert.upload.max-decompressed-size bytes fail to read.
+ */
+@Component
+public class GzipRequestFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(GzipRequestFilter.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long maxDecompressedSize;
+
+    public GzipRequestFilter(@Value("${xconvert.upload.max-decompressed-size:10737418240}") long maxDecompressedSize) {
+        this.maxDecompressedSize = maxDecompressedSize;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String encoding = request.getHeader(HttpHeaders.CONTENT_ENCODING);
+        if (encoding == null || encoding.trim().isEmpty() || "identity".equalsIgnoreCase(encoding.trim())) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        encoding = encoding.trim();
+        if (!"gzip".equalsIgnoreCase(encoding) && !"x-gzip".equalsIgnoreCase(encoding)) {
+            reject(response, "Unsupported content encoding: " + encoding);
+            return;
+        }
+        String contentType = request.getContentType();
+        if (contentType != null && (contentType.startsWith("multipart/")
+                || contentType.startsWith("application/x-www-form-urlencoded"))) {
+            reject(response, "Compress the uploaded files instead of the whole form");
+            return;
+        }
+
+        logger.debug("Decompressing gzip request body for {}", request.getRequestURI());
+        chain.doFilter(new GzipRequest(request, maxDecompressedSize), response);
+    }
+
+    private static void reject(HttpServletResponse response, String message) throws IOException {
+        // Tells the client which coding it can use
+        response.setHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, message);
+    }
+
+    /**
+     * Presents the decompressed body, without the headers that describe the compressed one.
+     */
+    private static class GzipRequest extends HttpServletRequestWrapper {
+
+        private final long maxSize;
+        private ServletInputStream inputStream;
+        private BufferedReader reader;
+
+        GzipRequest(HttpServletRequest request, long maxSize) {
+            super(request);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (reader != null) {
+                throw new IllegalStateException("getReader() has already been called");
+            }
+            if (inputStream == null) {
+                inputStream = new GzipInputStream(FileUtils.limitDecompressed(
+                        new GZIPInputStream(super.getInputStream(), BUFFER_SIZE), maxSize));
+            }
+            return inputStream;
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            if (reader == null) {
+                String encoding = getCharacterEncoding();
+                Charset charset = encoding != null ? Charset.forName(encoding) : StandardCharsets.ISO_8859_1;
+                reader = new BufferedReader(new InputStreamReader(getInputStream(), charset));
+            }
+            return reader;
+        }
+
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return -1;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return isCompressedBodyHeader(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            return isCompressedBodyHeader(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            List<String> names = Collections.list(super.getHeaderNames());
+            names.removeIf(GzipRequest::isCompressedBodyHeader);
+            return Collections.enumeration(names);
+        }
+
+        private static boolean isCompressedBodyHeader(String name) {
+            return HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name) || HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name);
+        }
+    }
+
+    private static class GzipInputStream extends ServletInputStream {
+
+        private final InputStream in;
+        private boolean finished;
+
+        GzipInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            finished = b < 0;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = in.read(buffer, offset, length);
+            finished = n < 0;
+            return n;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            throw new UnsupportedOperationException("Non-blocking reads of gzip request bodies are not supported");
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
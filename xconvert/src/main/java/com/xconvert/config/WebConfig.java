@@ -0,0 +1,25 @@
+package com.xconvert.config;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Runs streamed response bodies on the download pool instead of a new thread per request.
+ */
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+    
+    private final ThreadPoolTaskExecutor downloadExecutor;
+    
+    public WebConfig(@Qualifier("downloadExecutor") ThreadPoolTaskExecutor downloadExecutor) {
+        this.downloadExecutor = downloadExecutor;
+    }
+    
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(downloadExecutor);
+    }
+}
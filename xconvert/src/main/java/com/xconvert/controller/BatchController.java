@@ -2,26 +2,24 @@ package com.xconvert.controller;
 
 import com.xconvert.model.BatchJob;
 import com.xconvert.model.BatchJobItem;
+import com.xconvert.service.BatchArchiveService;
 import com.xconvert.service.BatchJobService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 @RestController
 @RequestMapping("/api/batch")
@@ -29,9 +27,14 @@ import java.util.zip.ZipOutputStream;
 public class BatchController {
     private static final Logger logger = LoggerFactory.getLogger(BatchController.class);
     
+    private static final int MAX_STATUS_ITEMS = 10000;
+    
     @Autowired
     private BatchJobService batchJobService;
     
+    @Autowired
+    private BatchArchiveService batchArchiveService;
+    
     @PostMapping("/create")
     public ResponseEntity<Map<String, String>> createBatchJob(@RequestParam("targetFormat") String targetFormat) {
         logger.info("Creating batch job with target format: {}", targetFormat);
@@ -94,9 +97,16 @@ public class BatchController {
         return ResponseEntity.ok(response);
     }
     
+    /**
+     * Returns the summary of a batch job and the items changed after version {@code since}, oldest
+     * change first and at most {@code limit} of them. Pass the returned {@code nextSince} as
+     * {@code since} to get the next page, or later the next changes; {@code since=0} lists every item.
+     */
     @GetMapping("/status/{batchJobId}")
-    public ResponseEntity<Map<String, Object>> getBatchJobStatus(@PathVariable String batchJobId) {
-        logger.info("Getting status for batch job: {}", batchJobId);
+    public ResponseEntity<Map<String, Object>> getBatchJobStatus(@PathVariable String batchJobId,
+                                                                 @RequestParam(value = "since", defaultValue = "0") long since,
+                                                                 @RequestParam(value = "limit", defaultValue = "1000") int limit) {
+        logger.debug("Getting status for batch job: {} since version {}", batchJobId, since);
         
         BatchJob batchJob = batchJobService.getBatchJob(batchJobId);
         if (batchJob == null) {
@@ -105,7 +115,10 @@ public class BatchController {
             return ResponseEntity.badRequest().body(response);
         }
         
-        batchJob.updateStatus();
+        batchJobService.updateStatus(batchJob);
+        
+        int pageSize = Math.max(1, Math.min(limit, MAX_STATUS_ITEMS));
+        BatchJob.ItemChanges changes = batchJob.getItemsChangedSince(since, pageSize);
         
         Map<String, Object> response = new HashMap<>();
         response.put("batchJobId", batchJob.getId());
@@ -115,13 +128,32 @@ public class BatchController {
         response.put("totalItems", batchJob.getTotalItems());
         response.put("completedItems", batchJob.getCompletedItems());
         response.put("failedItems", batchJob.getFailedItems());
-        response.put("items", batchJob.getItems());
+        response.put("totalBytes", batchJob.getTotalBytes());
+        response.put("processedBytes", batchJob.getProcessedBytes());
+        response.put("percent", batchJob.getProgress());
+        response.put("version", changes.getVersion());
+        response.put("items", changes.getItems());
+        response.put("nextSince", changes.getNextSince());
+        response.put("hasMore", changes.hasMore());
         
         return ResponseEntity.ok(response);
     }
     
+    /**
+     * Streams a batch job's progress as Server-Sent Events until all its items have finished,
+     * as an alternative to polling /status.
+     */
+    @GetMapping(value = "/events/{batchJobId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamBatchJobStatus(@PathVariable String batchJobId) {
+        BatchJob batchJob = batchJobService.getBatchJob(batchJobId);
+        if (batchJob == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(batchJobService.subscribe(batchJob));
+    }
+    
     @GetMapping("/download/{batchJobId}")
-    public ResponseEntity<Resource> downloadBatchResults(@PathVariable String batchJobId) {
+    public ResponseEntity<?> downloadBatchResults(@PathVariable String batchJobId) {
         logger.info("Downloading results for batch job: {}", batchJobId);
         
         BatchJob batchJob = batchJobService.getBatchJob(batchJobId);
@@ -133,40 +165,27 @@ public class BatchController {
             return ResponseEntity.badRequest().build();
         }
         
-        try {
-            // Create a ZIP file containing all converted files
-            Path tempDir = Paths.get("/mnt/d/Xconvert/temp");
-            Files.createDirectories(tempDir);
-            
-            String zipFilename = "batch_" + batchJobId + ".zip";
-            Path zipPath = tempDir.resolve(zipFilename);
-            
-            try (ZipOutputStream zipOut = new ZipOutputStream(Files.newOutputStream(zipPath))) {
-                Path convertedDir = Paths.get("/mnt/d/Xconvert/converted");
-                
-                for (BatchJobItem item : batchJob.getItems()) {
-                    if ("completed".equals(item.getStatus()) && item.getOutputFilename() != null) {
-                        Path filePath = convertedDir.resolve(item.getOutputFilename());
-                        
-                        if (Files.exists(filePath)) {
-                            ZipEntry zipEntry = new ZipEntry(item.getOriginalFilename().replace("." + item.getSourceFormat(), "." + batchJob.getTargetFormat()));
-                            zipOut.putNextEntry(zipEntry);
-                            Files.copy(filePath, zipOut);
-                            zipOut.closeEntry();
-                        }
-                    }
-                }
-            }
-            
-            Resource resource = new UrlResource(zipPath.toUri());
-            
-            return ResponseEntity.ok()
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + zipFilename + "\"")
-                    .body(resource);
-        } catch (IOException e) {
-            logger.error("Error creating ZIP file for batch job {}: {}", batchJobId, e.getMessage());
-            return ResponseEntity.internalServerError().build();
+        String zipFilename = "batch_" + batchJobId + ".zip";
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + zipFilename + "\"");
+        
+        // An archive built by an earlier download of the same results is sent as it is
+        Path cached = batchArchiveService.getCachedArchive(batchJob);
+        if (cached != null) {
+            logger.info("Sending kept archive for batch job {}", batchJobId);
+            return response.body(new FileSystemResource(cached));
         }
+        
+        // The archive is written straight to the response, so the first bytes go out immediately
+        StreamingResponseBody body = out -> {
+            try {
+                batchArchiveService.writeArchive(batchJob, out);
+            } catch (IOException e) {
+                logger.error("Error streaming ZIP file for batch job {}: {}", batchJobId, e.getMessage());
+                throw e;
+            }
+        };
+        return response.body(body);
     }
 }
@@ -1,8 +1,15 @@
 package com.xconvert.controller;
 
 import com.xconvert.model.ConversionRequest;
+import com.xconvert.model.ConversionTask;
+import com.xconvert.service.ConversionCache;
+import com.xconvert.service.ConversionQueueService;
 import com.xconvert.service.ConversionService;
+import com.xconvert.service.DownloadService;
+import com.xconvert.service.EngineSelector;
+import com.xconvert.service.StreamingUploadService;
 import com.xconvert.service.TaskService;
+import com.xconvert.util.FileUtils;
 import com.xconvert.util.JsonFixer;
 import org.apache.commons.io.FilenameUtils;
 import org.json.JSONArray;
@@ -10,23 +17,28 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/convert")
@@ -36,24 +48,40 @@ public class ConversionController {
     private static final Logger logger = LoggerFactory.getLogger(ConversionController.class);
     private final ConversionService conversionService;
     private final TaskService taskService;
+    private final ConversionQueueService conversionQueueService;
+    private final EngineSelector engineSelector;
+    private final ConversionCache conversionCache;
+    private final DownloadService downloadService;
+    private final StreamingUploadService streamingUploadService;
+    
+    @Value("${xconvert.conversion.retry-after-seconds:5}")
+    private int retryAfterSeconds;
 
     @Autowired
-    public ConversionController(ConversionService conversionService, TaskService taskService) {
+    public ConversionController(ConversionService conversionService, TaskService taskService,
+                                ConversionQueueService conversionQueueService, EngineSelector engineSelector,
+                                ConversionCache conversionCache, DownloadService downloadService,
+                                StreamingUploadService streamingUploadService) {
         this.conversionService = conversionService;
         this.taskService = taskService;
+        this.conversionQueueService = conversionQueueService;
+        this.engineSelector = engineSelector;
+        this.conversionCache = conversionCache;
+        this.downloadService = downloadService;
+        this.streamingUploadService = streamingUploadService;
     }
 
     @PostMapping("/upload")
-    public ResponseEntity<String> uploadFile(@RequestParam("file") MultipartFile file,
-                                            @RequestParam("sourceFormat") String sourceFormat,
-                                            @RequestParam("targetFormat") String targetFormat) {
+    public ResponseEntity<Map<String, Object>> uploadFile(@RequestParam("file") MultipartFile file,
+                                                          @RequestParam("sourceFormat") String sourceFormat,
+                                                          @RequestParam("targetFormat") String targetFormat) {
         logger.info("Received upload request: file={}, sourceFormat={}, targetFormat={}",
                 file.getOriginalFilename(), sourceFormat, targetFormat);
         
         try {
             // Auto-detect format if not provided
             if (sourceFormat == null || sourceFormat.isEmpty()) {
-                String extension = FilenameUtils.getExtension(file.getOriginalFilename()).toLowerCase();
+                String extension = FilenameUtils.getExtension(FileUtils.stripGzipExtension(file.getOriginalFilename())).toLowerCase();
                 sourceFormat = extension;
                 logger.info("Auto-detected source format: {}", sourceFormat);
             }
@@ -61,79 +89,162 @@ public class ConversionController {
             String fileName = conversionService.saveFile(file);
             logger.info("File saved successfully: {}", fileName);
             
-            // Generate a task ID
-            String taskId = UUID.randomUUID().toString();
-            taskService.setStatus(taskId, "uploaded");
+            ConversionTask task = taskService.createTask(fileName, sourceFormat, targetFormat);
+            String taskId = task.getId();
             
-            // Start async conversion
-            processFileAsync(taskId, fileName, sourceFormat, targetFormat);
+            // Queue the conversion; the request thread returns straight away
+            try {
+                conversionQueueService.submit(taskId, fileName, sourceFormat, targetFormat);
+            } catch (TaskRejectedException e) {
+                logger.warn("Conversion queue full, rejecting task: {}", taskId);
+                conversionService.deleteUpload(fileName);
+                Map<String, Object> response = new HashMap<>();
+                response.put("error", "Conversion queue is full, please retry later");
+                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                        .body(response);
+            }
             
-            return ResponseEntity.ok().body("{\"taskId\": \"" + taskId + "\", \"fileName\": \"" + fileName + "\"}");
+            Map<String, Object> response = new HashMap<>();
+            response.put("taskId", taskId);
+            response.put("fileName", fileName);
+            return ResponseEntity.ok(response);
         } catch (IOException e) {
             logger.error("Error uploading file", e);
-            return ResponseEntity.badRequest().body("{\"error\": \"" + e.getMessage() + "\"}");
+            Map<String, Object> response = new HashMap<>();
+            response.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
         }
     }
-    
-    @Async("taskExecutor")
-    public void processFileAsync(String taskId, String fileName, String sourceFormat, String targetFormat) {
-        logger.info("Starting async processing for task: {}", taskId);
-        taskService.setStatus(taskId, "processing");
-        
+
+    /**
+     * Converts a file while it is being uploaded, instead of storing it and queueing the
+     * conversion. The multipart form fields (targetFormat, optionally sourceFormat and
+     * keepOriginal) must come before the file; the response follows the finished conversion.
+     */
+    @PostMapping("/upload/stream")
+    public ResponseEntity<Map<String, Object>> uploadAndConvert(HttpServletRequest request) {
         try {
-            String outputFileName = conversionService.convertFile(fileName, sourceFormat, targetFormat);
-            taskService.setCompleted(taskId, outputFileName);
-            logger.info("Async processing completed for task: {}", taskId);
-        } catch (Exception e) {
-            logger.error("Error in async processing for task: {}", taskId, e);
-            taskService.setError(taskId, e.getMessage());
+            return ResponseEntity.ok(streamingUploadService.convert(request.getInputStream(), request.getContentType()));
+        } catch (TaskRejectedException e) {
+            logger.warn("Streaming conversions at their limit, rejecting upload");
+            Map<String, Object> response = new HashMap<>();
+            response.put("error", "Too many conversions in progress, please retry later");
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .body(response);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error("Error converting uploaded stream: {}", e.getMessage());
+            Map<String, Object> response = new HashMap<>();
+            response.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * Converts the raw request body and sends the result as the response while the body is
+     * still arriving, in one round trip and without storing either. The body may be sent with
+     * Content-Encoding: gzip or be a gzip file.
+     *
+     * Errors found before any output has been sent are answered with 400 or 429. Once output
+     * has been sent the status cannot change, so the connection is dropped instead and the
+     * response never ends as if complete.
+     */
+    @PostMapping("/stream")
+    public void convertStream(@RequestParam("from") String sourceFormat, @RequestParam("to") String targetFormat,
+                              HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType(getContentType(targetFormat.toLowerCase()));
+        try {
+            long records = streamingUploadService.convert(request.getInputStream(), sourceFormat, targetFormat,
+                    response.getOutputStream());
+            logger.debug("Streamed {} converted records", records);
+        } catch (TaskRejectedException e) {
+            logger.warn("Streaming conversions at their limit, rejecting request");
+            response.reset();
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+            response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "Too many conversions in progress, please retry later");
+        } catch (IOException | RuntimeException e) {
+            if (response.isCommitted()) {
+                logger.error("Streaming conversion from {} to {} failed after sending output: {}", sourceFormat,
+                        targetFormat, e.getMessage());
+                throw e;
+            }
+            logger.error("Error converting request body: {}", e.getMessage());
+            response.reset();
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
         }
     }
 
     @GetMapping("/status/{taskId}")
-    public ResponseEntity<String> getStatus(@PathVariable String taskId) {
-        String status = taskService.getStatus(taskId);
-        logger.info("Status for task {}: {}", taskId, status);
+    public ResponseEntity<Map<String, Object>> getStatus(@PathVariable String taskId) {
+        Map<String, Object> progress = taskService.getProgress(taskId);
+        logger.debug("Status for task {}: {}", taskId, progress.get("status"));
         
-        if (status.startsWith("completed:")) {
-            String outputFileName = status.substring("completed:".length());
-            return ResponseEntity.ok().body("{\"status\": \"completed\", \"outputFileName\": \"" + outputFileName + "\"}");
-        } else if (status.startsWith("error:")) {
-            String error = status.substring("error:".length());
-            return ResponseEntity.ok().body("{\"status\": \"error\", \"error\": \"" + error + "\"}");
-        } else {
-            return ResponseEntity.ok().body("{\"status\": \"" + status + "\"}");
+        if (taskService.getTask(taskId) == null) {
+            // Never existed, or finished longer ago than xconvert.task.ttl-seconds
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(progress);
         }
+        return ResponseEntity.ok(progress);
     }
 
+    /**
+     * Streams a task's status and percent progress as Server-Sent Events until it completes or
+     * fails, as an alternative to polling /status.
+     */
+    @GetMapping(value = "/events/{taskId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamStatus(@PathVariable String taskId) {
+        if (taskService.getTask(taskId) == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(taskService.subscribe(taskId));
+    }
+
+    /**
+     * Returns the cost model of each engine and format pair and the most recent engine decisions.
+     */
+    @GetMapping("/engines")
+    public ResponseEntity<Map<String, Object>> getEngines() {
+        return ResponseEntity.ok(engineSelector.getSnapshot());
+    }
+
+    @GetMapping("/cache")
+    public ResponseEntity<Map<String, Object>> getCacheStats() {
+        return ResponseEntity.ok(conversionCache.getStats());
+    }
+
+    /**
+     * Sends a converted file. Supports byte ranges for resuming downloads, and ETag and
+     * Last-Modified validators that answer 304 for unchanged files.
+     */
     @GetMapping("/download/{fileName}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable String fileName) {
+    public void downloadFile(@PathVariable String fileName, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
         logger.info("Received download request for file: {}", fileName);
         
+        Path filePath;
         try {
-            Resource resource = conversionService.loadFileAsResource(fileName);
-            
-            // Determine content type
-            String contentType;
-            if (fileName.endsWith(".csv")) {
-                contentType = "text/csv";
-            } else if (fileName.endsWith(".json")) {
-                contentType = "application/json";
-            } else if (fileName.endsWith(".xml")) {
-                contentType = "application/xml";
-            } else {
-                contentType = "application/octet-stream";
-            }
-            
-            logger.info("File found, preparing download with content type: {}", contentType);
-            
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
-                    .body(resource);
+            filePath = conversionService.getOutputPath(fileName);
         } catch (Exception e) {
             logger.error("Error downloading file", e);
-            return ResponseEntity.notFound().build();
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        
+        String contentType = getContentType(FilenameUtils.getExtension(fileName));
+        logger.info("File found, preparing download with content type: {}", contentType);
+        downloadService.send(filePath, contentType, fileName, request, response);
+    }
+    
+    private static String getContentType(String format) {
+        switch (format) {
+            case "csv":
+                return "text/csv";
+            case "json":
+                return "application/json";
+            case "xml":
+                return "application/xml";
+            default:
+                return "application/octet-stream";
         }
     }
     
@@ -0,0 +1,214 @@
+package com.xconvert.controller;
+
+import com.xconvert.model.BatchJobItem;
+import com.xconvert.model.ChunkedUpload;
+import com.xconvert.model.ConversionTask;
+import com.xconvert.service.BatchJobService;
+import com.xconvert.service.ChunkedUploadService;
+import com.xconvert.service.ConversionQueueService;
+import com.xconvert.service.TaskService;
+import com.xconvert.util.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resumable uploads of large files in chunks, for files beyond the multipart upload limit
+ * or links that drop.
+ *
+ * A client creates an upload with the file's size, PUTs its chunks in any order and in
+ * parallel, asks which chunks have arrived after an interruption, and completes the upload
+ * either as a single-file conversion or as an item of a batch job.
+ */
+@RestController
+@RequestMapping("/api/uploads")
+@CrossOrigin(origins = "*")
+public class UploadController {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadController.class);
+
+    private final ChunkedUploadService chunkedUploadService;
+    private final ConversionQueueService conversionQueueService;
+    private final TaskService taskService;
+    private final BatchJobService batchJobService;
+
+    @Value("${xconvert.conversion.retry-after-seconds:5}")
+    private int retryAfterSeconds;
+
+    @Autowired
+    public UploadController(ChunkedUploadService chunkedUploadService, ConversionQueueService conversionQueueService,
+                            TaskService taskService, BatchJobService batchJobService) {
+        this.chunkedUploadService = chunkedUploadService;
+        this.conversionQueueService = conversionQueueService;
+        this.taskService = taskService;
+        this.batchJobService = batchJobService;
+    }
+
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> createUpload(@RequestParam("fileName") String fileName,
+                                                            @RequestParam("size") long size,
+                                                            @RequestParam(value = "chunkSize", defaultValue = "0") int chunkSize) {
+        try {
+            return ResponseEntity.ok(describe(chunkedUploadService.create(fileName, size, chunkSize)));
+        } catch (IllegalArgumentException | IOException e) {
+            logger.error("Could not start chunked upload of {}: {}", fileName, e.getMessage());
+            return error(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * Receives one chunk as the raw request body.
+     */
+    @PutMapping("/{uploadId}/chunks/{index}")
+    public ResponseEntity<Map<String, Object>> putChunk(@PathVariable String uploadId, @PathVariable int index,
+                                                        HttpServletRequest request) {
+        ChunkedUpload upload = chunkedUploadService.getUpload(uploadId);
+        if (upload == null) {
+            return error(HttpStatus.NOT_FOUND, "Upload not found: " + uploadId);
+        }
+        if (upload.getStoredFilename() != null) {
+            return error(HttpStatus.CONFLICT, "Upload " + uploadId + " has been completed");
+        }
+        try {
+            chunkedUploadService.writeChunk(uploadId, index, request.getInputStream());
+        } catch (IllegalStateException e) {
+            return error(HttpStatus.CONFLICT, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return error(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IOException e) {
+            logger.warn("Chunk {} of upload {} was not received: {}", index, uploadId, e.getMessage());
+            return error(HttpStatus.BAD_REQUEST, "Chunk " + index + " was not received: " + e.getMessage());
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("uploadId", uploadId);
+        response.put("index", index);
+        response.put("receivedChunks", upload.getReceivedChunkCount());
+        response.put("chunkCount", upload.getChunkCount());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Returns the upload's chunk layout and which chunks have arrived.
+     */
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<Map<String, Object>> getUpload(@PathVariable String uploadId) {
+        ChunkedUpload upload = chunkedUploadService.getUpload(uploadId);
+        if (upload == null) {
+            return error(HttpStatus.NOT_FOUND, "Upload not found: " + uploadId);
+        }
+        Map<String, Object> response = describe(upload);
+        response.put("received", upload.getReceivedChunks());
+        response.put("receivedBytes", upload.getReceivedBytes());
+        response.put("complete", upload.isComplete());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Stores the uploaded file and queues its conversion, or adds it to a batch job when
+     * batchJobId is given. Can be repeated until it succeeds, for instance after a full
+     * conversion queue, without sending the file again.
+     */
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<Map<String, Object>> completeUpload(@PathVariable String uploadId,
+                                                              @RequestParam(value = "targetFormat", required = false) String targetFormat,
+                                                              @RequestParam(value = "sourceFormat", required = false) String sourceFormat,
+                                                              @RequestParam(value = "batchJobId", required = false) String batchJobId) {
+        ChunkedUpload upload = chunkedUploadService.getUpload(uploadId);
+        if (upload == null) {
+            return error(HttpStatus.NOT_FOUND, "Upload not found: " + uploadId);
+        }
+        if (batchJobId != null && batchJobService.getBatchJob(batchJobId) == null) {
+            return error(HttpStatus.BAD_REQUEST, "Batch job not found: " + batchJobId);
+        }
+        if (batchJobId == null && (targetFormat == null || targetFormat.isEmpty())) {
+            return error(HttpStatus.BAD_REQUEST, "targetFormat or batchJobId is required");
+        }
+
+        String fileName;
+        try {
+            fileName = chunkedUploadService.complete(uploadId).getStoredFilename();
+        } catch (IllegalArgumentException e) {
+            return error(HttpStatus.NOT_FOUND, e.getMessage());
+        } catch (IllegalStateException e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("error", e.getMessage());
+            response.put("missing", upload.getMissingChunks());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        } catch (IOException e) {
+            logger.error("Could not complete chunked upload {}", uploadId, e);
+            return error(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        if (batchJobId != null) {
+            try {
+                BatchJobItem item = batchJobService.addStoredFileToBatchJob(batchJobId, upload.getFileName(), fileName);
+                chunkedUploadService.handOver(uploadId);
+                response.put("batchJobId", batchJobId);
+                response.put("itemId", item.getId());
+                response.put("filename", item.getOriginalFilename());
+                response.put("status", item.getStatus());
+                return ResponseEntity.ok(response);
+            } catch (IllegalArgumentException | IOException e) {
+                return error(HttpStatus.BAD_REQUEST, e.getMessage());
+            }
+        }
+
+        if (sourceFormat == null || sourceFormat.isEmpty()) {
+            sourceFormat = FilenameUtils.getExtension(FileUtils.stripGzipExtension(upload.getFileName())).toLowerCase();
+        }
+        ConversionTask task = taskService.createTask(fileName, sourceFormat, targetFormat);
+        try {
+            conversionQueueService.submit(task.getId(), fileName, sourceFormat, targetFormat);
+        } catch (TaskRejectedException e) {
+            // The file stays stored until the client completes the upload again
+            logger.warn("Conversion queue full, rejecting task: {}", task.getId());
+            response.put("error", "Conversion queue is full, please retry later");
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .body(response);
+        }
+        chunkedUploadService.handOver(uploadId);
+        response.put("taskId", task.getId());
+        response.put("fileName", fileName);
+        return ResponseEntity.ok(response);
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<Void> abortUpload(@PathVariable String uploadId) {
+        if (chunkedUploadService.getUpload(uploadId) == null) {
+            return ResponseEntity.notFound().build();
+        }
+        chunkedUploadService.abort(uploadId);
+        return ResponseEntity.noContent().build();
+    }
+
+    private static Map<String, Object> describe(ChunkedUpload upload) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("uploadId", upload.getId());
+        response.put("fileName", upload.getFileName());
+        response.put("size", upload.getSize());
+        response.put("chunkSize", upload.getChunkSize());
+        response.put("chunkCount", upload.getChunkCount());
+        return response;
+    }
+
+    private static ResponseEntity<Map<String, Object>> error(HttpStatus status, String message) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", message);
+        return ResponseEntity.status(status).body(response);
+    }
+}
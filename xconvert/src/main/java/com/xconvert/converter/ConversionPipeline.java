@@ -0,0 +1,107 @@
+package com.xconvert.converter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Streams records from a {@link RecordSource} to a {@link RecordSink}.
+ *
+ * This is the single conversion path for every (source, target) pair: the source and
+ * sink are looked up in the {@link ConverterRegistry} and one reused {@link Record}
+ * carries each record between them, so memory use does not depend on input size.
+ */
+@Component
+public class ConversionPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversionPipeline.class);
+
+    private final ConverterRegistry converterRegistry;
+
+    public ConversionPipeline(ConverterRegistry converterRegistry) {
+        this.converterRegistry = converterRegistry;
+    }
+
+    /**
+     * Converts a file. When the target needs its field names up front (e.g. a CSV header)
+     * and the source does not declare them, a first pass over the source collects them.
+     *
+     * @return the number of records converted
+     */
+    public long convert(Path sourcePath, String sourceFormat, Path targetPath, String targetFormat) throws IOException {
+        RecordFormat source = converterRegistry.getReadableFormat(sourceFormat);
+        RecordFormat target = converterRegistry.getWritableFormat(targetFormat);
+
+        try (RecordSource recordSource = source.openSource(sourcePath);
+             RecordSink recordSink = target.openSink(Files.newOutputStream(targetPath))) {
+            List<String> fieldNames = recordSource.getFieldNames();
+            if (fieldNames == null && recordSink.requiresFieldNames()) {
+                fieldNames = scanFieldNames(source, sourcePath);
+            }
+            return copy(recordSource, recordSink, fieldNames);
+        }
+    }
+
+    /**
+     * Converts a stream in a single pass. Targets that need field names up front take
+     * them from the first record when the source does not declare them, and fail on a later
+     * record with a field the first one lacked rather than drop its value.
+     *
+     * @return the number of records converted
+     */
+    public long convert(InputStream in, String sourceFormat, OutputStream out, String targetFormat) throws IOException {
+        RecordFormat source = converterRegistry.getReadableFormat(sourceFormat);
+        RecordFormat target = converterRegistry.getWritableFormat(targetFormat);
+
+        try (RecordSource recordSource = source.openSource(in);
+             RecordSink recordSink = target.openSink(out)) {
+            return copy(recordSource, recordSink, recordSource.getFieldNames());
+        }
+    }
+
+    private long copy(RecordSource recordSource, RecordSink recordSink, List<String> fieldNames) throws IOException {
+        Record record = new Record();
+        long count = 0;
+
+        recordSink.begin(fieldNames);
+        while (recordSource.next(record)) {
+            recordSink.write(record);
+            count++;
+        }
+        recordSink.end();
+
+        return count;
+    }
+
+    /**
+     * Collects the field names of every record in a file, in order of first appearance.
+     */
+    public List<String> scanFieldNames(String sourceFormat, Path sourcePath) throws IOException {
+        return scanFieldNames(converterRegistry.getReadableFormat(sourceFormat), sourcePath);
+    }
+
+    private List<String> scanFieldNames(RecordFormat source, Path sourcePath) throws IOException {
+        logger.debug("Scanning {} for field names", sourcePath);
+
+        Set<String> names = new LinkedHashSet<>();
+        Record record = new Record();
+        try (RecordSource recordSource = source.openSource(sourcePath)) {
+            while (recordSource.next(record)) {
+                for (int i = 0; i < record.size(); i++) {
+                    names.add(record.getName(i));
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+}
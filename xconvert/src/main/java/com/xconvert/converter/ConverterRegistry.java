@@ -0,0 +1,96 @@
+package com.xconvert.converter;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Registry of every {@link RecordFormat} bean, keyed by format name.
+ *
+ * Any readable format can be converted to any writable one, since all formats
+ * exchange data through the common {@link Record} model.
+ */
+@Component
+public class ConverterRegistry {
+
+    private final Map<String, RecordFormat> formats = new LinkedHashMap<>();
+    // What the sinks of the writable formats can do, asked once rather than on every conversion
+    private final Set<String> partFormats = new HashSet<>();
+    private final Set<String> fieldNameFormats = new HashSet<>();
+
+    public ConverterRegistry(List<RecordFormat> formats) {
+        for (RecordFormat format : formats) {
+            this.formats.put(format.getName(), format);
+            if (format.canWrite()) {
+                probeSink(format);
+            }
+        }
+    }
+
+    public RecordFormat getFormat(String name) {
+        return name == null ? null : formats.get(name.toLowerCase());
+    }
+
+    public boolean supports(String sourceFormat, String targetFormat) {
+        RecordFormat source = getFormat(sourceFormat);
+        RecordFormat target = getFormat(targetFormat);
+        return source != null && source.canRead() && target != null && target.canWrite();
+    }
+
+    /**
+     * Whether the target format can be written in parts that are joined afterwards,
+     * see {@link PartRecordSink}.
+     */
+    public boolean supportsParts(String targetFormat) {
+        return targetFormat != null && partFormats.contains(targetFormat.toLowerCase());
+    }
+
+    /**
+     * Whether the target format needs every field name before the first record,
+     * see {@link RecordSink#requiresFieldNames()}.
+     */
+    public boolean requiresFieldNames(String targetFormat) {
+        return targetFormat != null && fieldNameFormats.contains(targetFormat.toLowerCase());
+    }
+
+    public Set<String> getFormatNames() {
+        return Collections.unmodifiableSet(formats.keySet());
+    }
+
+    public RecordFormat getReadableFormat(String name) {
+        RecordFormat format = getFormat(name);
+        if (format == null || !format.canRead()) {
+            throw new IllegalArgumentException("Unsupported source format: " + name);
+        }
+        return format;
+    }
+
+    public RecordFormat getWritableFormat(String name) {
+        RecordFormat format = getFormat(name);
+        if (format == null || !format.canWrite()) {
+            throw new IllegalArgumentException("Unsupported target format: " + name);
+        }
+        return format;
+    }
+
+    private void probeSink(RecordFormat format) {
+        // Ask a sink over a discarding stream; opening one writes nothing
+        try (RecordSink sink = format.openSink(OutputStream.nullOutputStream())) {
+            if (sink instanceof PartRecordSink) {
+                partFormats.add(format.getName());
+            }
+            if (sink.requiresFieldNames()) {
+                fieldNameFormats.add(format.getName());
+            }
+        } catch (IOException e) {
+            // Neither, as far as can be told
+        }
+    }
+}
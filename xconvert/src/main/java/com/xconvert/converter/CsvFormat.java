@@ -0,0 +1,36 @@
+package com.xconvert.converter;
+
+import com.xconvert.util.MappedCsvFile;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+@Component
+public class CsvFormat implements RecordFormat {
+
+    @Override
+    public String getName() {
+        return "csv";
+    }
+
+    @Override
+    public RecordSource openSource(InputStream in) throws IOException {
+        return new CsvRecordSource(RecordStreams.reader(in));
+    }
+
+    /**
+     * Reads files through a memory mapping, decoding UTF-8 straight from mapped memory.
+     */
+    @Override
+    public RecordSource openSource(Path path) throws IOException {
+        return new CsvRecordSource(new MappedCsvFile(path).newReader());
+    }
+
+    @Override
+    public RecordSink openSink(OutputStream out) throws IOException {
+        return new CsvRecordWriter(RecordStreams.writer(out));
+    }
+}
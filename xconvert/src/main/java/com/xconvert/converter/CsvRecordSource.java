@@ -0,0 +1,74 @@
+package com.xconvert.converter;
+
+import com.xconvert.util.CsvTokenizer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads CSV records, using the first row as field names.
+ */
+public class CsvRecordSource implements RecordSource {
+
+    private final Reader reader;
+    private final CsvTokenizer tokenizer;
+    private String[] headers;
+    private List<String> fieldNames;
+
+    public CsvRecordSource(Reader reader) {
+        this.reader = reader;
+        this.tokenizer = new CsvTokenizer(reader);
+    }
+
+    /**
+     * Reads CSV without a header row, such as a later chunk of a larger file,
+     * using the given field names.
+     */
+    public CsvRecordSource(Reader reader, List<String> fieldNames) {
+        this(reader);
+        this.headers = fieldNames.toArray(new String[0]);
+        this.fieldNames = Collections.unmodifiableList(Arrays.asList(headers));
+    }
+
+    @Override
+    public List<String> getFieldNames() throws IOException {
+        readHeader();
+        return fieldNames;
+    }
+
+    @Override
+    public boolean next(Record record) throws IOException {
+        readHeader();
+        record.clear();
+
+        if (!tokenizer.next()) {
+            return false;
+        }
+
+        char[] buffer = tokenizer.getBuffer();
+        int fieldCount = Math.min(headers.length, tokenizer.getFieldCount());
+        for (int i = 0; i < fieldCount; i++) {
+            record.add(headers[i], buffer, tokenizer.getFieldStart(i), tokenizer.getFieldLength(i));
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void readHeader() throws IOException {
+        if (headers != null) {
+            return;
+        }
+        if (!tokenizer.next()) {
+            throw new IOException("Empty CSV file");
+        }
+        headers = tokenizer.getFields();
+        fieldNames = Collections.unmodifiableList(Arrays.asList(headers));
+    }
+}
@@ -0,0 +1,167 @@
+package com.xconvert.converter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes records as RFC 4180 CSV with a fixed header row.
+ *
+ * Fields are matched to columns by name; columns missing from a record are left empty. A
+ * field with no column fails the conversion rather than being dropped from the output.
+ */
+public class CsvRecordWriter implements PartRecordSink {
+
+    private final Writer out;
+    private final Map<String, Integer> columns = new HashMap<>();
+    // Maps each column to the index of the record field holding its value, or -1
+    private int[] row;
+    private boolean headerFromFirstRecord;
+    private long recordNumber;
+
+    public CsvRecordWriter(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public boolean requiresFieldNames() {
+        return true;
+    }
+
+    /**
+     * Writes the header row. When no field names are given, the header is taken
+     * from the first record instead.
+     */
+    @Override
+    public void begin(List<String> fieldNames) throws IOException {
+        if (fieldNames != null) {
+            writeHeader(fieldNames);
+        }
+    }
+
+    /**
+     * Only the first part writes the header row, so the field names must be known up front.
+     */
+    @Override
+    public void beginPart(List<String> fieldNames, long firstRecordNumber, boolean first, boolean last) throws IOException {
+        if (fieldNames == null) {
+            throw new IllegalArgumentException("Field names are required to write CSV in parts");
+        }
+        setColumns(fieldNames);
+        if (first) {
+            writeHeader(fieldNames);
+        }
+        recordNumber = firstRecordNumber - 1;
+    }
+
+    /**
+     * @throws IOException if the record has a field that is not a column of the header
+     */
+    @Override
+    public void write(Record record) throws IOException {
+        recordNumber++;
+        if (row == null) {
+            List<String> names = new ArrayList<>(record.size());
+            for (int i = 0; i < record.size(); i++) {
+                names.add(record.getName(i));
+            }
+            writeHeader(names);
+            headerFromFirstRecord = true;
+        }
+
+        Arrays.fill(row, -1);
+        for (int i = 0; i < record.size(); i++) {
+            Integer column = columns.get(record.getName(i));
+            if (column == null) {
+                throw unknownField(record.getName(i));
+            }
+            row[column] = i;
+        }
+
+        char[] buffer = record.getBuffer();
+        for (int column = 0; column < row.length; column++) {
+            if (column > 0) {
+                out.write(',');
+            }
+            int field = row[column];
+            if (field >= 0) {
+                writeValue(buffer, record.getValueStart(field), record.getValueLength(field));
+            }
+        }
+        out.write('\n');
+    }
+
+    @Override
+    public void end() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private IOException unknownField(String name) {
+        String message = "Record " + recordNumber + " has the field \"" + name + "\", which is not in the CSV header";
+        if (headerFromFirstRecord) {
+            // Only streamed conversions, which cannot read the source twice, take the header from a record
+            message += " taken from the first record; convert an uploaded file instead, whose fields are all"
+                    + " collected before the header is written";
+        }
+        return new IOException(message);
+    }
+
+    private void writeHeader(List<String> headers) throws IOException {
+        setColumns(headers);
+        for (int i = 0; i < headers.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            char[] name = headers.get(i).toCharArray();
+            writeValue(name, 0, name.length);
+        }
+        out.write('\n');
+    }
+
+    private void setColumns(List<String> headers) {
+        columns.clear();
+        for (int i = 0; i < headers.size(); i++) {
+            columns.putIfAbsent(headers.get(i), i);
+        }
+        row = new int[headers.size()];
+    }
+
+    private void writeValue(char[] value, int offset, int length) throws IOException {
+        int end = offset + length;
+        if (!needsQuoting(value, offset, end)) {
+            out.write(value, offset, length);
+            return;
+        }
+        out.write('"');
+        int runStart = offset;
+        for (int i = offset; i < end; i++) {
+            if (value[i] == '"') {
+                // Quotes inside a quoted field are doubled
+                out.write(value, runStart, i + 1 - runStart);
+                out.write('"');
+                runStart = i + 1;
+            }
+        }
+        out.write(value, runStart, end - runStart);
+        out.write('"');
+    }
+
+    private static boolean needsQuoting(char[] value, int offset, int end) {
+        for (int i = offset; i < end; i++) {
+            char c = value[i];
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
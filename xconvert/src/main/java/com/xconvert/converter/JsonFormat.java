@@ -0,0 +1,26 @@
+package com.xconvert.converter;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+@Component
+public class JsonFormat implements RecordFormat {
+
+    @Override
+    public String getName() {
+        return "json";
+    }
+
+    @Override
+    public RecordSource openSource(InputStream in) throws IOException {
+        return new JsonRecordReader(in);
+    }
+
+    @Override
+    public RecordSink openSink(OutputStream out) throws IOException {
+        return new JsonRecordWriter(RecordStreams.writer(out));
+    }
+}
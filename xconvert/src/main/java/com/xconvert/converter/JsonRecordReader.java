@@ -0,0 +1,209 @@
+package com.xconvert.converter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Reads flat records from JSON one object at a time using Jackson's streaming parser.
+ *
+ * Accepts the same inputs as {@link com.xconvert.util.JsonFixer}: an array of objects,
+ * one or more top-level objects (separated by commas or newlines), or plain text which
+ * becomes a single record with a "value" field. Nested objects and arrays are kept as
+ * compact JSON text. Only the current record is held in memory, which is why plain text,
+ * a single record however long, is limited to 16 MB.
+ */
+public class JsonRecordReader implements RecordSource {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int MAX_PLAIN_TEXT = 16 * 1024 * 1024;
+
+    private final JsonParser parser;
+    private final boolean inArray;
+    private String plainText;
+
+    private final StringWriter nestedBuffer = new StringWriter();
+    private long recordCount;
+    private boolean finished;
+
+    public JsonRecordReader(InputStream in) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, 1);
+        int first = skipWhitespace(pushback);
+
+        if (first == '[') {
+            pushback.unread(first);
+            this.parser = JSON_FACTORY.createParser(pushback);
+            this.parser.nextToken();
+            this.inArray = true;
+        } else if (first == '{') {
+            // Top-level objects may be separated by commas, which the parser would reject
+            pushback.unread(first);
+            this.parser = JSON_FACTORY.createParser(new RootCommaFilter(pushback));
+            this.inArray = false;
+        } else {
+            this.parser = null;
+            this.inArray = false;
+            if (first == -1) {
+                this.finished = true;
+            } else {
+                pushback.unread(first);
+                byte[] text = pushback.readNBytes(MAX_PLAIN_TEXT + 1);
+                if (text.length > MAX_PLAIN_TEXT) {
+                    throw new IOException("Input is neither a JSON object nor an array, and is longer than the "
+                            + MAX_PLAIN_TEXT + " bytes accepted as plain text");
+                }
+                this.plainText = new String(text, StandardCharsets.UTF_8).trim();
+            }
+        }
+    }
+
+    /**
+     * JSON records carry their own field names.
+     */
+    @Override
+    public List<String> getFieldNames() {
+        return null;
+    }
+
+    @Override
+    public boolean next(Record record) throws IOException {
+        record.clear();
+
+        if (finished) {
+            return false;
+        }
+
+        if (parser == null) {
+            record.add("value", plainText);
+            plainText = null;
+            finished = true;
+            recordCount++;
+            return true;
+        }
+
+        JsonToken token = parser.nextToken();
+        if (token == null || (inArray && token == JsonToken.END_ARRAY)) {
+            finished = true;
+            return false;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a JSON object for record " + (recordCount + 1) + " but found " + token);
+        }
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken valueToken = parser.nextToken();
+            if (valueToken == JsonToken.START_OBJECT || valueToken == JsonToken.START_ARRAY) {
+                record.add(name, readNested());
+            } else {
+                // Scalars are copied straight out of the parser's buffer
+                record.add(name, parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+            }
+        }
+
+        recordCount++;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (parser != null) {
+            parser.close();
+        }
+    }
+
+    private String readNested() throws IOException {
+        nestedBuffer.getBuffer().setLength(0);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(nestedBuffer)) {
+            generator.copyCurrentStructure(parser);
+        }
+        return nestedBuffer.toString();
+    }
+
+    private static int skipWhitespace(InputStream in) throws IOException {
+        int b = in.read();
+        // Skip a UTF-8 byte order mark
+        if (b == 0xEF) {
+            in.read();
+            in.read();
+            b = in.read();
+        }
+        while (b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+            b = in.read();
+        }
+        return b;
+    }
+
+    /**
+     * Replaces commas between top-level values with spaces so that comma-separated
+     * objects can be read as a root-level value sequence.
+     */
+    private static class RootCommaFilter extends FilterInputStream {
+
+        private int depth;
+        private boolean inString;
+        private boolean escaped;
+
+        RootCommaFilter(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            return b == -1 ? -1 : filter(b);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            for (int i = offset; i < offset + n; i++) {
+                buffer[i] = (byte) filter(buffer[i] & 0xFF);
+            }
+            return n;
+        }
+
+        private int filter(int b) {
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    inString = false;
+                }
+                return b;
+            }
+            switch (b) {
+                case '"':
+                    inString = true;
+                    break;
+                case '{':
+                case '[':
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    depth--;
+                    break;
+                case ',':
+                    if (depth == 0) {
+                        return ' ';
+                    }
+                    break;
+                default:
+                    break;
+            }
+            return b;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.xconvert.converter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes flat records as a pretty-printed JSON array of objects.
+ *
+ * Records are written to the underlying writer as soon as they are produced,
+ * so memory use stays constant regardless of how many records are converted.
+ */
+public class JsonRecordWriter implements PartRecordSink {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer out;
+    private boolean firstRecord = true;
+    private boolean writeEnd = true;
+
+    public JsonRecordWriter(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void begin(List<String> fieldNames) throws IOException {
+        out.write("[\n");
+    }
+
+    @Override
+    public void beginPart(List<String> fieldNames, long firstRecordNumber, boolean first, boolean last) throws IOException {
+        if (first) {
+            out.write("[\n");
+        }
+        firstRecord = firstRecordNumber == 1;
+        writeEnd = last;
+    }
+
+    @Override
+    public void write(Record record) throws IOException {
+        if (!firstRecord) {
+            out.write(",\n");
+        }
+        firstRecord = false;
+
+        if (record.size() == 0) {
+            out.write("  {\n  }");
+            return;
+        }
+
+        out.write("  {\n");
+        char[] buffer = record.getBuffer();
+        for (int i = 0; i < record.size(); i++) {
+            if (i > 0) {
+                out.write(",\n");
+            }
+            out.write("    ");
+            writeString(record.getName(i));
+            out.write(": ");
+            writeString(buffer, record.getValueStart(i), record.getValueLength(i));
+        }
+        out.write("\n  }");
+    }
+
+    @Override
+    public void end() throws IOException {
+        if (writeEnd) {
+            out.write("\n]");
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeString(String value) throws IOException {
+        out.write('"');
+        int length = value.length();
+        int runStart = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            // Flush the unescaped run before writing the escape sequence
+            if (i > runStart) {
+                out.write(value, runStart, i - runStart);
+            }
+            writeEscaped(c);
+            runStart = i + 1;
+        }
+        if (length > runStart) {
+            out.write(value, runStart, length - runStart);
+        }
+        out.write('"');
+    }
+
+    private void writeString(char[] value, int offset, int length) throws IOException {
+        out.write('"');
+        int end = offset + length;
+        int runStart = offset;
+        for (int i = offset; i < end; i++) {
+            char c = value[i];
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            if (i > runStart) {
+                out.write(value, runStart, i - runStart);
+            }
+            writeEscaped(c);
+            runStart = i + 1;
+        }
+        if (end > runStart) {
+            out.write(value, runStart, end - runStart);
+        }
+        out.write('"');
+    }
+
+    private void writeEscaped(char c) throws IOException {
+        switch (c) {
+            case '"':
+                out.write("\\\"");
+                break;
+            case '\\':
+                out.write("\\\\");
+                break;
+            case '\b':
+                out.write("\\b");
+                break;
+            case '\f':
+                out.write("\\f");
+                break;
+            case '\n':
+                out.write("\\n");
+                break;
+            case '\r':
+                out.write("\\r");
+                break;
+            case '\t':
+                out.write("\\t");
+                break;
+            default:
+                out.write("\\u00");
+                out.write(HEX[c >> 4]);
+                out.write(HEX[c & 0xF]);
+        }
+    }
+}
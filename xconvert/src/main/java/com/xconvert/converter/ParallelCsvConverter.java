@@ -0,0 +1,167 @@
+package com.xconvert.converter;
+
+import com.xconvert.util.MappedCsvFile;
+import com.xconvert.util.RecordRange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Converts a large CSV file by splitting it into chunks and converting them in parallel.
+ *
+ * The file is memory-mapped and split into byte ranges at records taken from its index
+ * ({@link MappedCsvFile}), each range is converted into its own part file on a
+ * {@link ForkJoinPool}, and the parts are joined in order into the target file. Targets
+ * write their parts through {@link PartRecordSink#beginPart}, so the joined output is
+ * identical to that of a sequential conversion.
+ */
+@Component
+public class ParallelCsvConverter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelCsvConverter.class);
+
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+
+    private final ConverterRegistry converterRegistry;
+    private final ForkJoinPool pool;
+
+    public ParallelCsvConverter(ConverterRegistry converterRegistry,
+                                @Value("${xconvert.parallel.parallelism:0}") int parallelism) {
+        this.converterRegistry = converterRegistry;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Whether CSV can be converted to the given target in parallel.
+     */
+    public boolean supports(String targetFormat) {
+        return converterRegistry.supportsParts(targetFormat);
+    }
+
+    /**
+     * Converts a CSV file to the target format using all workers of the pool.
+     *
+     * @return the number of records converted
+     * @throws IOException if a chunk fails or does not hold the expected records
+     * @throws IllegalArgumentException if the target cannot be written in parts
+     */
+    public long convert(Path sourcePath, Path targetPath, String targetFormat) throws IOException {
+        if (!supports(targetFormat)) {
+            throw new IllegalArgumentException(targetFormat + " cannot be written in parts");
+        }
+        RecordFormat target = converterRegistry.getWritableFormat(targetFormat);
+
+        MappedCsvFile file = new MappedCsvFile(sourcePath);
+        List<String> fieldNames;
+        try (RecordSource header = new CsvRecordSource(file.newReader())) {
+            fieldNames = header.getFieldNames();
+        }
+
+        long fileSize = file.size();
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, fileSize / (pool.getParallelism() * 4L));
+        List<RecordRange> chunks = file.splitRecords(chunkSize);
+        logger.info("Converting {} ({} bytes) in {} chunks on {} workers",
+                sourcePath.getFileName(), fileSize, chunks.size(), pool.getParallelism());
+
+        List<Path> parts = new ArrayList<>(chunks.size());
+        try {
+            List<Callable<Long>> tasks = new ArrayList<>(chunks.size());
+            for (int i = 0; i < chunks.size(); i++) {
+                RecordRange chunk = chunks.get(i);
+                Path part = Files.createTempFile(targetPath.getParent(), targetPath.getFileName() + ".", ".part");
+                parts.add(part);
+                boolean first = i == 0;
+                boolean last = i == chunks.size() - 1;
+                tasks.add(() -> convertChunk(file, chunk, fieldNames, target, part, first, last));
+            }
+
+            long records = 0;
+            List<Future<Long>> results = pool.invokeAll(tasks);
+            for (int i = 0; i < results.size(); i++) {
+                long converted = getResult(results.get(i));
+                long expected = chunks.get(i).getRecordCount();
+                if (converted != expected) {
+                    throw new IOException("Chunk " + i + " held " + converted + " records, expected " + expected);
+                }
+                records += converted;
+            }
+
+            joinParts(parts, targetPath);
+            return records;
+        } finally {
+            for (Path part : parts) {
+                Files.deleteIfExists(part);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private long convertChunk(MappedCsvFile file, RecordRange chunk, List<String> fieldNames, RecordFormat target,
+                              Path partPath, boolean first, boolean last) throws IOException {
+        // Chunks hold data records only; the header was read once up front
+        Reader reader = file.newReader(chunk.getStart(), chunk.getEnd());
+        try (RecordSource source = new CsvRecordSource(reader, fieldNames);
+             PartRecordSink sink = PartRecordSink.open(target, Files.newOutputStream(partPath))) {
+            Record record = new Record();
+            long count = 0;
+
+            sink.beginPart(fieldNames, chunk.getFirstRecord(), first, last);
+            while (source.next(record)) {
+                sink.write(record);
+                count++;
+            }
+            sink.end();
+
+            return count;
+        }
+    }
+
+    private static void joinParts(List<Path> parts, Path targetPath) throws IOException {
+        try (FileChannel out = FileChannel.open(targetPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Path part : parts) {
+                try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+                    long size = in.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                }
+            }
+        }
+    }
+
+    private static long getResult(Future<Long> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while converting chunks", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Error converting chunk: " + cause.getMessage(), cause);
+        }
+    }
+}
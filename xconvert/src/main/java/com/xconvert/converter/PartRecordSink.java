@@ -0,0 +1,40 @@
+package com.xconvert.converter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * A {@link RecordSink} that can also write a document in parts that are converted separately
+ * and joined in order.
+ */
+public interface PartRecordSink extends RecordSink {
+
+    /**
+     * Opens a sink of the given format for writing parts.
+     *
+     * @throws IllegalArgumentException if the format cannot write documents in parts
+     */
+    static PartRecordSink open(RecordFormat format, OutputStream out) throws IOException {
+        RecordSink sink = format.openSink(out);
+        if (!(sink instanceof PartRecordSink)) {
+            sink.close();
+            throw new IllegalArgumentException(format.getName() + " cannot be written in parts");
+        }
+        return (PartRecordSink) sink;
+    }
+
+    /**
+     * Starts one part of a document that is converted in several pieces and joined in order.
+     *
+     * Only the first part writes the start of the document and only the last part writes its
+     * end from {@link #end()}. Records are numbered and separated as if a single sink had
+     * written the whole document, so the concatenated parts are byte-identical to it.
+     *
+     * @param fieldNames        field names for all records, as for {@link #begin(List)}
+     * @param firstRecordNumber 1-based number of this part's first record within the whole document
+     * @param first             whether this is the first part
+     * @param last              whether this is the last part
+     */
+    void beginPart(List<String> fieldNames, long firstRecordNumber, boolean first, boolean last) throws IOException;
+}
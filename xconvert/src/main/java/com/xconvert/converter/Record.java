@@ -0,0 +1,91 @@
+package com.xconvert.converter;
+
+import java.util.Arrays;
+
+/**
+ * A flat record of named text fields passed from a {@link RecordSource} to a {@link RecordSink}.
+ *
+ * Instances are reused from one record to the next: field values are copied into a shared
+ * char array and exposed as views, so moving a record through the pipeline does not
+ * allocate once the buffers have grown to size.
+ */
+public class Record {
+
+    private String[] names = new String[16];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private char[] chars = new char[256];
+    private int charsLength;
+    private int size;
+
+    public void clear() {
+        size = 0;
+        charsLength = 0;
+    }
+
+    public void add(String name, String value) {
+        int length = value.length();
+        ensureChars(length);
+        value.getChars(0, length, chars, charsLength);
+        addField(name, length);
+    }
+
+    public void add(String name, StringBuilder value) {
+        int length = value.length();
+        ensureChars(length);
+        value.getChars(0, length, chars, charsLength);
+        addField(name, length);
+    }
+
+    public void add(String name, char[] value, int offset, int length) {
+        ensureChars(length);
+        System.arraycopy(value, offset, chars, charsLength, length);
+        addField(name, length);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * Returns the array backing all field values. Valid until the record is cleared.
+     */
+    public char[] getBuffer() {
+        return chars;
+    }
+
+    public int getValueStart(int index) {
+        return starts[index];
+    }
+
+    public int getValueLength(int index) {
+        return ends[index] - starts[index];
+    }
+
+    public String getValue(int index) {
+        return new String(chars, starts[index], ends[index] - starts[index]);
+    }
+
+    private void ensureChars(int length) {
+        if (charsLength + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charsLength + length));
+        }
+    }
+
+    private void addField(String name, int length) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        names[size] = name;
+        starts[size] = charsLength;
+        ends[size] = charsLength + length;
+        charsLength += length;
+        size++;
+    }
+}
@@ -0,0 +1,40 @@
+package com.xconvert.converter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A file format that records can be read from and/or written to.
+ *
+ * Implementations are Spring components and are picked up by {@link ConverterRegistry},
+ * so adding a format makes it available as both a source and a target for every other format.
+ */
+public interface RecordFormat {
+
+    /**
+     * Lower-case format name, matching the file extension (e.g. "csv").
+     */
+    String getName();
+
+    default boolean canRead() {
+        return true;
+    }
+
+    default boolean canWrite() {
+        return true;
+    }
+
+    RecordSource openSource(InputStream in) throws IOException;
+
+    /**
+     * Opens a source over a file. Formats that can read files faster than streams override this.
+     */
+    default RecordSource openSource(Path path) throws IOException {
+        return openSource(Files.newInputStream(path));
+    }
+
+    RecordSink openSink(OutputStream out) throws IOException;
+}
@@ -0,0 +1,33 @@
+package com.xconvert.converter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes records to an output in some format as they are produced.
+ */
+public interface RecordSink extends Closeable {
+
+    /**
+     * Whether {@link #begin(List)} needs the complete set of field names up front,
+     * for formats such as CSV that write a header before any record.
+     */
+    default boolean requiresFieldNames() {
+        return false;
+    }
+
+    /**
+     * Writes the start of the document.
+     *
+     * @param fieldNames field names for all records, or null when they are not known in advance
+     */
+    void begin(List<String> fieldNames) throws IOException;
+
+    void write(Record record) throws IOException;
+
+    /**
+     * Writes the end of the document and flushes the output.
+     */
+    void end() throws IOException;
+}
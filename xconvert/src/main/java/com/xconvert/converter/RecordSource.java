@@ -0,0 +1,24 @@
+package com.xconvert.converter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads records from an input in some format, one at a time.
+ */
+public interface RecordSource extends Closeable {
+
+    /**
+     * Returns the field names known before any record is read, such as a CSV header,
+     * or null when each record carries its own field names.
+     */
+    List<String> getFieldNames() throws IOException;
+
+    /**
+     * Clears the given record and fills it with the next record from the input.
+     *
+     * @return false once the input is exhausted
+     */
+    boolean next(Record record) throws IOException;
+}
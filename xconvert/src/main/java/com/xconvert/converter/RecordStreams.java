@@ -0,0 +1,38 @@
+package com.xconvert.converter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered UTF-8 readers and writers shared by the record formats.
+ */
+final class RecordStreams {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private RecordStreams() {
+    }
+
+    /**
+     * Unbuffered UTF-8 reader, for consumers such as {@link com.xconvert.util.CsvTokenizer}
+     * that read in large blocks themselves.
+     */
+    static Reader reader(InputStream in) {
+        return new InputStreamReader(in, StandardCharsets.UTF_8);
+    }
+
+    static BufferedReader bufferedReader(InputStream in) {
+        return new BufferedReader(reader(in), BUFFER_SIZE);
+    }
+
+    static Writer writer(OutputStream out) {
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,71 @@
+package com.xconvert.converter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads records from plain text in the layout written by {@link TextRecordWriter}.
+ *
+ * Records are blocks of lines separated by blank lines. "key: value" lines become fields,
+ * "Record n:" headings are skipped and any other line becomes a field named "value".
+ */
+public class TextRecordSource implements RecordSource {
+
+    private final BufferedReader reader;
+
+    public TextRecordSource(BufferedReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Text records carry their own field names.
+     */
+    @Override
+    public List<String> getFieldNames() {
+        return null;
+    }
+
+    @Override
+    public boolean next(Record record) throws IOException {
+        record.clear();
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                if (record.size() > 0) {
+                    return true;
+                }
+                continue;
+            }
+            if (isRecordHeading(line)) {
+                continue;
+            }
+
+            int separator = line.indexOf(": ");
+            if (separator > 0) {
+                record.add(line.substring(0, separator), line.substring(separator + 2));
+            } else {
+                record.add("value", line);
+            }
+        }
+        return record.size() > 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private static boolean isRecordHeading(String line) {
+        if (!line.startsWith("Record ") || !line.endsWith(":") || line.length() < 9) {
+            return false;
+        }
+        for (int i = 7; i < line.length() - 1; i++) {
+            if (!Character.isDigit(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
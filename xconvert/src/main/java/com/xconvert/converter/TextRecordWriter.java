@@ -0,0 +1,53 @@
+package com.xconvert.converter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes records as numbered blocks of "key: value" lines.
+ */
+public class TextRecordWriter implements PartRecordSink {
+
+    private final Writer out;
+    private long recordId = 1;
+
+    public TextRecordWriter(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void begin(List<String> fieldNames) {
+    }
+
+    @Override
+    public void beginPart(List<String> fieldNames, long firstRecordNumber, boolean first, boolean last) {
+        recordId = firstRecordNumber;
+    }
+
+    @Override
+    public void write(Record record) throws IOException {
+        out.write("Record ");
+        out.write(Long.toString(recordId++));
+        out.write(":\n");
+
+        char[] buffer = record.getBuffer();
+        for (int i = 0; i < record.size(); i++) {
+            out.write(record.getName(i));
+            out.write(": ");
+            out.write(buffer, record.getValueStart(i), record.getValueLength(i));
+            out.write('\n');
+        }
+        out.write('\n');
+    }
+
+    @Override
+    public void end() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
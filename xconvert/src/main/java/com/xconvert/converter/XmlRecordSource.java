@@ -0,0 +1,134 @@
+package com.xconvert.converter;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Reads records from XML using StAX.
+ *
+ * Every element directly under the document root is a record and each of its child
+ * elements is a field, which matches the layout written by {@link XmlRecordWriter}.
+ * A record element without children becomes a single field named after the element.
+ */
+public class XmlRecordSource implements RecordSource {
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private final InputStream in;
+    private final XMLStreamReader xml;
+    private final StringBuilder recordText = new StringBuilder();
+    private final StringBuilder fieldText = new StringBuilder();
+    private boolean finished;
+
+    public XmlRecordSource(InputStream in) throws IOException {
+        this.in = in;
+        try {
+            this.xml = INPUT_FACTORY.createXMLStreamReader(in);
+            // Position the reader on the root element
+            while (xml.hasNext() && xml.next() != XMLStreamConstants.START_ELEMENT) {
+                // Skip the prolog
+            }
+            finished = !xml.isStartElement();
+        } catch (XMLStreamException e) {
+            throw new IOException("Error parsing XML: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * XML records carry their own field names.
+     */
+    @Override
+    public List<String> getFieldNames() {
+        return null;
+    }
+
+    @Override
+    public boolean next(Record record) throws IOException {
+        record.clear();
+
+        if (finished) {
+            return false;
+        }
+
+        try {
+            // Find the next record element, or the end of the root element
+            int event = xml.next();
+            while (event != XMLStreamConstants.START_ELEMENT) {
+                if (event == XMLStreamConstants.END_ELEMENT || event == XMLStreamConstants.END_DOCUMENT) {
+                    finished = true;
+                    return false;
+                }
+                event = xml.next();
+            }
+
+            String recordName = xml.getLocalName();
+            recordText.setLength(0);
+
+            while ((event = xml.next()) != XMLStreamConstants.END_ELEMENT) {
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String fieldName = xml.getLocalName();
+                    readElementText();
+                    record.add(fieldName, fieldText);
+                } else if (isText(event)) {
+                    recordText.append(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+                }
+            }
+
+            if (record.size() == 0) {
+                String text = recordText.toString().trim();
+                if (!text.isEmpty()) {
+                    record.add(recordName, text);
+                }
+            }
+            return true;
+        } catch (XMLStreamException e) {
+            throw new IOException("Error parsing XML: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Error closing XML reader: " + e.getMessage(), e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Collects the text of the current element, including that of any nested elements.
+     */
+    private void readElementText() throws XMLStreamException {
+        fieldText.setLength(0);
+        int depth = 1;
+        while (depth > 0) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (isText(event)) {
+                fieldText.append(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+            }
+        }
+    }
+
+    private static boolean isText(int event) {
+        return event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // Uploaded files are untrusted: never resolve DTDs or external entities
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
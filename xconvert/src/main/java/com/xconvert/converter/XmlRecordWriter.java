@@ -0,0 +1,172 @@
+package com.xconvert.converter;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams records as an indented XML document using StAX.
+ *
+ * Each record becomes a {@code <record id="n">} element whose children are named after
+ * the field names. Element names are sanitised once per distinct field name and cached.
+ */
+public class XmlRecordWriter implements PartRecordSink {
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = createOutputFactory();
+
+    // Bounds the name cache for inputs with unusually many distinct keys
+    private static final int MAX_CACHED_NAMES = 4096;
+
+    private final Writer out;
+    private final XMLStreamWriter xml;
+    private final Map<String, String> elementNames = new HashMap<>();
+    private long recordId = 1;
+    private boolean writeEnd = true;
+    private boolean rootOpen;
+
+    public XmlRecordWriter(Writer out) throws IOException {
+        this.out = out;
+        try {
+            this.xml = OUTPUT_FACTORY.createXMLStreamWriter(out);
+        } catch (XMLStreamException e) {
+            throw new IOException("Error creating XML writer: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void begin(List<String> fieldNames) throws IOException {
+        try {
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeCharacters("\n");
+            xml.writeStartElement("records");
+            rootOpen = true;
+        } catch (XMLStreamException e) {
+            throw new IOException("Error writing XML: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void beginPart(List<String> fieldNames, long firstRecordNumber, boolean first, boolean last) throws IOException {
+        if (first) {
+            begin(fieldNames);
+        }
+        recordId = firstRecordNumber;
+        writeEnd = last;
+    }
+
+    @Override
+    public void write(Record record) throws IOException {
+        try {
+            xml.writeCharacters("\n  ");
+            xml.writeStartElement("record");
+            xml.writeAttribute("id", Long.toString(recordId++));
+
+            char[] buffer = record.getBuffer();
+            for (int i = 0; i < record.size(); i++) {
+                xml.writeCharacters("\n    ");
+                xml.writeStartElement(elementName(record.getName(i)));
+                xml.writeCharacters(buffer, record.getValueStart(i), record.getValueLength(i));
+                xml.writeEndElement();
+            }
+
+            if (record.size() > 0) {
+                xml.writeCharacters("\n  ");
+            }
+            xml.writeEndElement();
+        } catch (XMLStreamException e) {
+            throw new IOException("Error writing XML: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void end() throws IOException {
+        try {
+            if (!writeEnd) {
+                // Completes a root start tag that no record has closed yet
+                xml.writeCharacters("");
+                xml.flush();
+                out.flush();
+                return;
+            }
+            if (recordId > 1) {
+                xml.writeCharacters("\n");
+            }
+            if (rootOpen) {
+                xml.writeEndElement();
+            } else {
+                // A later part of the document: the root element was opened by the first part
+                xml.flush();
+                out.write("</records>");
+            }
+            xml.writeCharacters("\n");
+            xml.writeEndDocument();
+            xml.flush();
+            out.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException("Error writing XML: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Error closing XML writer: " + e.getMessage(), e);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Parts of a document are written by separate writers, so a writer must neither insist on
+     * a single root element nor close the elements left open when it is closed. Woodstox,
+     * which comes with Hadoop, does both unless told otherwise.
+     */
+    private static XMLOutputFactory createOutputFactory() {
+        XMLOutputFactory factory = XMLOutputFactory.newInstance();
+        String[] properties = {"com.ctc.wstx.outputValidateStructure", "com.ctc.wstx.automaticEndElements"};
+        for (String property : properties) {
+            if (factory.isPropertySupported(property)) {
+                factory.setProperty(property, false);
+            }
+        }
+        return factory;
+    }
+
+    private String elementName(String name) {
+        String elementName = elementNames.get(name);
+        if (elementName == null) {
+            elementName = toElementName(name);
+            if (elementNames.size() < MAX_CACHED_NAMES) {
+                elementNames.put(name, elementName);
+            }
+        }
+        return elementName;
+    }
+
+    /**
+     * Creates a valid XML element name by replacing anything other than ASCII letters
+     * and digits with underscores, prefixing "field_" when it does not start with a letter.
+     */
+    static String toElementName(String name) {
+        char[] chars = name.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            char c = chars[i];
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+            if (!valid) {
+                chars[i] = '_';
+            }
+        }
+        String elementName = new String(chars);
+        if (elementName.isEmpty() || !Character.isLetter(elementName.charAt(0))) {
+            elementName = "field_" + elementName;
+        }
+        return elementName;
+    }
+}
@@ -0,0 +1,59 @@
+package com.xconvert.hadoop;
+
+import com.xconvert.util.MappedCsvFile;
+import com.xconvert.util.RecordRange;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a CSV file at record boundaries, so that quoted fields spanning several lines
+ * stay whole and only the first split is preceded by the header row.
+ *
+ * Split points come from the file's record index ({@link MappedCsvFile}), which needs the
+ * file on the local file system. Keys are record numbers within the file and values are
+ * the fields of each data record; the header itself is never passed to the mappers.
+ */
+public class CSVInputFormat extends FileInputFormat<LongWritable, TextArrayWritable> {
+
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        List<InputSplit> splits = new ArrayList<>();
+        long minSize = getMinSplitSize(job);
+        long maxSize = getMaxSplitSize(job);
+
+        for (FileStatus status : listStatus(job)) {
+            Path path = status.getPath();
+            FileSystem fs = path.getFileSystem(job.getConfiguration());
+            if (!(fs instanceof LocalFileSystem)) {
+                throw new IOException("CSV input must be on the local file system: " + path);
+            }
+
+            long splitSize = computeSplitSize(status.getBlockSize(), minSize, maxSize);
+            MappedCsvFile file = new MappedCsvFile(((LocalFileSystem) fs).pathToFile(path).toPath());
+            for (RecordRange range : file.splitRecords(splitSize)) {
+                if (range.getRecordCount() > 0) {
+                    splits.add(new RecordInputSplit(path, range.getStart(), range.getEnd() - range.getStart(),
+                            new String[0], range.getFirstRecord(), range.getRecordCount()));
+                }
+            }
+        }
+        return splits;
+    }
+
+    @Override
+    public RecordReader<LongWritable, TextArrayWritable> createRecordReader(InputSplit split, TaskAttemptContext context) {
+        return new CSVRecordReader();
+    }
+}
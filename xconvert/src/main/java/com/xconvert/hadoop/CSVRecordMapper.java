@@ -0,0 +1,40 @@
+package com.xconvert.hadoop;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Names the fields of each CSV record after the header, which the driver reads once and
+ * passes to every split through the job configuration.
+ */
+public class CSVRecordMapper extends Mapper<LongWritable, TextArrayWritable, LongWritable, RecordWritable> {
+    
+    private final RecordWritable record = new RecordWritable();
+    private String[] headers;
+    
+    @Override
+    protected void setup(Context context) {
+        List<String> fieldNames = ConversionJob.getFieldNames(context.getConfiguration());
+        if (fieldNames == null) {
+            throw new IllegalStateException("The job configuration holds no CSV header");
+        }
+        headers = fieldNames.toArray(new String[0]);
+    }
+    
+    @Override
+    protected void map(LongWritable key, TextArrayWritable value, Context context) throws IOException, InterruptedException {
+        Writable[] fields = value.get();
+        
+        record.clear();
+        for (int i = 0; i < Math.min(headers.length, fields.length); i++) {
+            record.add(headers[i], fields[i].toString());
+        }
+        
+        // The key is the record number, which keeps the output in input order
+        context.write(key, record);
+    }
+}
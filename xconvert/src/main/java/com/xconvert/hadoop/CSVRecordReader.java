@@ -0,0 +1,81 @@
+package com.xconvert.hadoop;
+
+import com.xconvert.util.CsvTokenizer;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the records of a CSV {@link RecordInputSplit} with the shared {@link CsvTokenizer}.
+ */
+public class CSVRecordReader extends RecordReader<LongWritable, TextArrayWritable> {
+
+    private final CsvTokenizer tokenizer = new CsvTokenizer();
+    private final LongWritable key = new LongWritable();
+    private TextArrayWritable value;
+    private Reader reader;
+    private long nextRecord;
+    private long recordCount;
+    private long recordsRead;
+
+    @Override
+    public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
+        RecordInputSplit split = (RecordInputSplit) genericSplit;
+        FileSystem fs = split.getPath().getFileSystem(context.getConfiguration());
+        FSDataInputStream in = fs.open(split.getPath());
+        in.seek(split.getStart());
+
+        reader = new InputStreamReader(new BoundedInputStream(in, split.getLength()), StandardCharsets.UTF_8);
+        tokenizer.reset(reader);
+        nextRecord = split.getFirstRecord();
+        recordCount = split.getRecordCount();
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException {
+        if (!tokenizer.next()) {
+            return false;
+        }
+        Text[] fields = new Text[tokenizer.getFieldCount()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = new Text(tokenizer.getField(i));
+        }
+        value = new TextArrayWritable();
+        value.set(fields);
+        key.set(nextRecord++);
+        recordsRead++;
+        return true;
+    }
+
+    @Override
+    public LongWritable getCurrentKey() {
+        return key;
+    }
+
+    @Override
+    public TextArrayWritable getCurrentValue() {
+        return value;
+    }
+
+    @Override
+    public float getProgress() {
+        return recordCount == 0 ? 1.0f : Math.min(1.0f, recordsRead / (float) recordCount);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+        }
+    }
+}
@@ -1,65 +1,142 @@
 package com.xconvert.hadoop;
 
+import com.xconvert.converter.ConversionPipeline;
+import com.xconvert.converter.ConverterRegistry;
+import com.xconvert.converter.CsvRecordSource;
+import com.xconvert.converter.RecordFormat;
+import com.xconvert.converter.PartRecordSink;
+import com.xconvert.converter.RecordSource;
+import com.xconvert.util.FileUtils;
+import com.xconvert.util.MappedCsvFile;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCounter;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.json.JSONArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
+/**
+ * Runs a conversion from CSV or JSON as a map-only MapReduce job.
+ *
+ * Input formats split the source at record boundaries. For CSV the driver reads the header
+ * once and passes it to every split in the configuration; for JSON it collects the field
+ * names up front only when the target needs them (CSV). Mappers turn their records into
+ * named fields and {@link RecordOutputFormat} writes each
+ * task's records as a fragment of the target document. Once the job succeeds, the
+ * fragments are merged in record order between the document's start and end into the
+ * requested output file. There is no shuffle and no reduce phase.
+ */
 @Component
 public class ConversionJob {
     private static final Logger logger = LoggerFactory.getLogger(ConversionJob.class);
     
+    static final String FIELD_NAMES_KEY = "xconvert.field.names";
+    static final String TARGET_FORMAT_KEY = "xconvert.target.format.class";
+    
     // Thread pool for parallel job execution
     private final ExecutorService executorService;
+    private final ConverterRegistry converterRegistry;
+    private final ConversionPipeline conversionPipeline;
     
-    public ConversionJob() {
+    public ConversionJob(ConverterRegistry converterRegistry, ConversionPipeline conversionPipeline) {
         // Create a thread pool with a fixed number of threads
         // This allows multiple Hadoop jobs to run in parallel
         this.executorService = Executors.newFixedThreadPool(5);
+        this.converterRegistry = converterRegistry;
+        this.conversionPipeline = conversionPipeline;
+    }
+    
+    /**
+     * Whether a MapReduce job is implemented for the given conversion.
+     */
+    public boolean supports(String sourceFormat, String targetFormat) {
+        return ("csv".equals(sourceFormat) || "json".equals(sourceFormat))
+                && converterRegistry.supportsParts(targetFormat);
     }
     
     public boolean runJob(String inputPath, String outputPath, String sourceFormat, String targetFormat) 
             throws IOException, InterruptedException, ClassNotFoundException {
+        if (!supports(sourceFormat, targetFormat)) {
+            throw new IllegalArgumentException("No MapReduce job for " + sourceFormat + " to " + targetFormat);
+        }
+        RecordFormat target = converterRegistry.getWritableFormat(targetFormat);
+        
+        boolean csv = "csv".equals(sourceFormat);
+        
+        List<String> fieldNames = null;
+        if (csv) {
+            // Read the header once; splits after the first never see it
+            try (RecordSource header = new CsvRecordSource(new MappedCsvFile(Paths.get(inputPath)).newReader())) {
+                fieldNames = header.getFieldNames();
+            }
+        } else if (converterRegistry.requiresFieldNames(targetFormat)) {
+            fieldNames = conversionPipeline.scanFieldNames(sourceFormat, Paths.get(inputPath));
+        }
         
         Configuration conf = new Configuration();
         conf.set("sourceFormat", sourceFormat);
         conf.set("targetFormat", targetFormat);
+        conf.setClass(TARGET_FORMAT_KEY, target.getClass(), RecordFormat.class);
+        if (fieldNames != null) {
+            setFieldNames(conf, fieldNames);
+        }
+        // The local job runner runs one map task at a time unless told otherwise
+        conf.setInt("mapreduce.local.map.tasks.maximum", Runtime.getRuntime().availableProcessors());
         
         Job job = Job.getInstance(conf, "File Format Conversion: " + sourceFormat + " to " + targetFormat);
         job.setJarByClass(ConversionJob.class);
         
-        // Set mapper and reducer based on conversion type
-        if ("csv".equals(sourceFormat) && "json".equals(targetFormat)) {
-            job.setMapperClass(CSVToJSONMapper.class);
-            job.setReducerClass(CSVToJSONReducer.class);
+        // Map-only: records go straight from the mappers to the output fragments
+        if (csv) {
+            job.setInputFormatClass(CSVInputFormat.class);
+            job.setMapperClass(CSVRecordMapper.class);
+        } else {
+            job.setInputFormatClass(JSONInputFormat.class);
+            job.setMapperClass(JSONRecordMapper.class);
         }
-        // Add more conversion types as we implement them
-        // For now, we'll only use the existing CSV to JSON conversion
+        job.setNumReduceTasks(0);
+        job.setOutputFormatClass(RecordOutputFormat.class);
         
-        job.setOutputKeyClass(Text.class);
-        job.setOutputValueClass(Text.class);
+        job.setOutputKeyClass(LongWritable.class);
+        job.setOutputValueClass(RecordWritable.class);
         
-        FileInputFormat.addInputPath(job, new Path(inputPath));
-        FileOutputFormat.setOutputPath(job, new Path(outputPath + "_temp"));
+        Path tempDir = new Path(outputPath + "_temp");
+        FileSystem fs = tempDir.getFileSystem(conf);
+        fs.delete(tempDir, true);
         
-        boolean success = job.waitForCompletion(true);
+        FileInputFormat.addInputPath(job, new Path(inputPath));
+        FileOutputFormat.setOutputPath(job, tempDir);
         
-        // Post-processing: Combine the output files into a single file
-        if (success) {
-            // Implement file merging logic here
+        try {
+            boolean success = job.waitForCompletion(true);
+            
+            // Post-processing: Combine the output fragments into a single file
+            if (success) {
+                long records = job.getCounters().findCounter(TaskCounter.MAP_OUTPUT_RECORDS).getValue();
+                mergeOutput(target, fieldNames, records, tempDir.toUri().getPath(), outputPath);
+                logger.info("Merged {} records into {}", records, outputPath);
+            }
+            
+            return success;
+        } finally {
+            fs.delete(tempDir, true);
         }
-        
-        return success;
     }
     
     public Future<Boolean> runJobAsync(String inputPath, String outputPath, String sourceFormat, String targetFormat) {
@@ -77,4 +154,45 @@ public class ConversionJob {
     public void shutdown() {
         executorService.shutdown();
     }
+    
+    static void setFieldNames(Configuration conf, List<String> fieldNames) {
+        conf.set(FIELD_NAMES_KEY, new JSONArray(fieldNames).toString());
+    }
+    
+    /**
+     * Returns the field names passed to the tasks, or null when the job has none.
+     */
+    static List<String> getFieldNames(Configuration conf) {
+        String value = conf.get(FIELD_NAMES_KEY);
+        if (value == null) {
+            return null;
+        }
+        JSONArray names = new JSONArray(value);
+        List<String> fieldNames = new ArrayList<>(names.length());
+        for (int i = 0; i < names.length(); i++) {
+            fieldNames.add(names.getString(i));
+        }
+        return fieldNames;
+    }
+    
+    /**
+     * Writes the start of the document, the fragments in record order and then the end of
+     * the document, using the target's sink for the start and end so they match the fragments.
+     */
+    private void mergeOutput(RecordFormat target, List<String> fieldNames, long records,
+                             String fragmentDirectory, String outputPath) throws IOException {
+        java.nio.file.Path output = Paths.get(outputPath);
+        
+        try (PartRecordSink sink = PartRecordSink.open(target, Files.newOutputStream(output))) {
+            sink.beginPart(fieldNames, 1, true, false);
+            sink.end();
+        }
+        
+        FileUtils.mergeFiles(fragmentDirectory, outputPath, true);
+        
+        try (PartRecordSink sink = PartRecordSink.open(target, Files.newOutputStream(output, StandardOpenOption.APPEND))) {
+            sink.beginPart(fieldNames, records + 1, false, true);
+            sink.end();
+        }
+    }
 }
@@ -0,0 +1,59 @@
+package com.xconvert.hadoop;
+
+import com.xconvert.util.MappedJsonFile;
+import com.xconvert.util.RecordRange;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a JSON array of objects, or a stream of objects such as NDJSON, at object boundaries.
+ *
+ * Split points come from the file's record index ({@link MappedJsonFile}), which needs the
+ * file on the local file system. Keys are record numbers within the file and values are
+ * the text of each top-level object.
+ */
+public class JSONInputFormat extends FileInputFormat<LongWritable, Text> {
+
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        List<InputSplit> splits = new ArrayList<>();
+        long minSize = getMinSplitSize(job);
+        long maxSize = getMaxSplitSize(job);
+
+        for (FileStatus status : listStatus(job)) {
+            Path path = status.getPath();
+            FileSystem fs = path.getFileSystem(job.getConfiguration());
+            if (!(fs instanceof LocalFileSystem)) {
+                throw new IOException("JSON input must be on the local file system: " + path);
+            }
+
+            long splitSize = computeSplitSize(status.getBlockSize(), minSize, maxSize);
+            MappedJsonFile file = new MappedJsonFile(((LocalFileSystem) fs).pathToFile(path).toPath());
+            for (RecordRange range : file.splitRecords(splitSize)) {
+                if (range.getRecordCount() > 0) {
+                    splits.add(new RecordInputSplit(path, range.getStart(), range.getEnd() - range.getStart(),
+                            new String[0], range.getFirstRecord(), range.getRecordCount()));
+                }
+            }
+        }
+        return splits;
+    }
+
+    @Override
+    public RecordReader<LongWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext context) {
+        return new JSONObjectReader();
+    }
+}
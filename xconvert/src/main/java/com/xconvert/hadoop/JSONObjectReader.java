@@ -0,0 +1,116 @@
+package com.xconvert.hadoop;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads the top-level objects of a JSON {@link RecordInputSplit} as text.
+ *
+ * Splits start at an object, so objects are found by tracking bracket depth and strings
+ * from the start of the split. Only commas, whitespace and the closing bracket of the
+ * array may appear between objects.
+ */
+public class JSONObjectReader extends RecordReader<LongWritable, Text> {
+
+    private final LongWritable key = new LongWritable();
+    private final Text value = new Text();
+    private byte[] buffer = new byte[4096];
+    private InputStream in;
+    private long nextRecord;
+    private long recordCount;
+    private long recordsRead;
+
+    @Override
+    public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
+        RecordInputSplit split = (RecordInputSplit) genericSplit;
+        FileSystem fs = split.getPath().getFileSystem(context.getConfiguration());
+        FSDataInputStream stream = fs.open(split.getPath());
+        stream.seek(split.getStart());
+
+        in = new BufferedInputStream(new BoundedInputStream(stream, split.getLength()), 64 * 1024);
+        nextRecord = split.getFirstRecord();
+        recordCount = split.getRecordCount();
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException {
+        int b;
+        while ((b = in.read()) != '{') {
+            if (b == -1) {
+                return false;
+            }
+            if (b != ',' && b != ']' && b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                throw new IOException("Expected a JSON object for record " + nextRecord + " but found '" + (char) b + "'");
+            }
+        }
+
+        int length = 0;
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        do {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, length * 2);
+            }
+            buffer[length++] = (byte) b;
+
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                depth--;
+            }
+        } while (depth > 0 && (b = in.read()) != -1);
+
+        if (depth > 0) {
+            throw new IOException("Unterminated JSON object for record " + nextRecord);
+        }
+
+        value.set(buffer, 0, length);
+        key.set(nextRecord++);
+        recordsRead++;
+        return true;
+    }
+
+    @Override
+    public LongWritable getCurrentKey() {
+        return key;
+    }
+
+    @Override
+    public Text getCurrentValue() {
+        return value;
+    }
+
+    @Override
+    public float getProgress() {
+        return recordCount == 0 ? 1.0f : Math.min(1.0f, recordsRead / (float) recordCount);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+    }
+}
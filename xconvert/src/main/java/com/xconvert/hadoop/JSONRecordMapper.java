@@ -0,0 +1,38 @@
+package com.xconvert.hadoop;
+
+import com.xconvert.converter.JsonRecordReader;
+import com.xconvert.converter.Record;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Flattens each JSON object into named fields, with the same rules as the in-process
+ * {@link JsonRecordReader}: scalars become text and nested values stay compact JSON.
+ * The output format then writes the records as CSV, XML, TXT or JSON.
+ */
+public class JSONRecordMapper extends Mapper<LongWritable, Text, LongWritable, RecordWritable> {
+    
+    private final Record parsed = new Record();
+    private final RecordWritable record = new RecordWritable();
+    
+    @Override
+    protected void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+        try (JsonRecordReader reader = new JsonRecordReader(new ByteArrayInputStream(value.getBytes(), 0, value.getLength()))) {
+            if (!reader.next(parsed)) {
+                return;
+            }
+        }
+        
+        record.clear();
+        for (int i = 0; i < parsed.size(); i++) {
+            record.add(parsed.getName(i), parsed.getValue(i));
+        }
+        
+        // The key is the record number, which keeps the output in input order
+        context.write(key, record);
+    }
+}
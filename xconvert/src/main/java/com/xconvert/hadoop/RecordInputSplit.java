@@ -0,0 +1,52 @@
+package com.xconvert.hadoop;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A byte range of a file that starts and ends on record boundaries, along with the
+ * number of its first record so that records keep their position in the whole file.
+ */
+public class RecordInputSplit extends FileSplit {
+
+    private long firstRecord;
+    private long recordCount;
+
+    public RecordInputSplit() {
+    }
+
+    public RecordInputSplit(Path file, long start, long length, String[] hosts, long firstRecord, long recordCount) {
+        super(file, start, length, hosts);
+        this.firstRecord = firstRecord;
+        this.recordCount = recordCount;
+    }
+
+    /**
+     * Number of the first record in the split; data records are numbered from 1.
+     */
+    public long getFirstRecord() {
+        return firstRecord;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        super.write(out);
+        out.writeLong(firstRecord);
+        out.writeLong(recordCount);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        super.readFields(in);
+        firstRecord = in.readLong();
+        recordCount = in.readLong();
+    }
+}
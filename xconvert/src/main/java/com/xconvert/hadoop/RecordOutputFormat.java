@@ -0,0 +1,83 @@
+package com.xconvert.hadoop;
+
+import com.xconvert.converter.Record;
+import com.xconvert.converter.RecordFormat;
+import com.xconvert.converter.PartRecordSink;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.PathOutputCommitter;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes each task's records as a fragment of the target document.
+ *
+ * Fragments are written through the target format's {@link PartRecordSink} as middle parts
+ * (see {@link PartRecordSink#beginPart}), so they hold neither the start nor the end of the
+ * document but do carry the separators and numbering of their position in it. Each file
+ * is named after its first record number, which puts the fragments in document order
+ * when sorted by name, whatever order the tasks ran in.
+ */
+public class RecordOutputFormat extends FileOutputFormat<LongWritable, RecordWritable> {
+
+    @Override
+    public RecordWriter<LongWritable, RecordWritable> getRecordWriter(TaskAttemptContext context) throws IOException {
+        Configuration conf = context.getConfiguration();
+        Class<? extends RecordFormat> formatClass = conf.getClass(ConversionJob.TARGET_FORMAT_KEY, null, RecordFormat.class);
+        if (formatClass == null) {
+            throw new IOException("No target format configured under " + ConversionJob.TARGET_FORMAT_KEY);
+        }
+        RecordFormat format = ReflectionUtils.newInstance(formatClass, conf);
+        List<String> fieldNames = ConversionJob.getFieldNames(conf);
+        Path workPath = ((PathOutputCommitter) getOutputCommitter(context)).getWorkPath();
+
+        return new FragmentWriter(conf, workPath, format, fieldNames);
+    }
+
+    /**
+     * Opens its fragment file on the first record, once the fragment's position is known.
+     */
+    private static class FragmentWriter extends RecordWriter<LongWritable, RecordWritable> {
+
+        private final Configuration conf;
+        private final Path workPath;
+        private final RecordFormat format;
+        private final List<String> fieldNames;
+        private final Record record = new Record();
+        private PartRecordSink sink;
+
+        FragmentWriter(Configuration conf, Path workPath, RecordFormat format, List<String> fieldNames) {
+            this.conf = conf;
+            this.workPath = workPath;
+            this.format = format;
+            this.fieldNames = fieldNames;
+        }
+
+        @Override
+        public void write(LongWritable key, RecordWritable value) throws IOException {
+            if (sink == null) {
+                Path file = new Path(workPath, String.format("part-%020d", key.get()));
+                FileSystem fs = file.getFileSystem(conf);
+                sink = PartRecordSink.open(format, fs.create(file, false));
+                sink.beginPart(fieldNames, key.get(), false, false);
+            }
+            value.copyTo(record);
+            sink.write(record);
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) throws IOException {
+            if (sink != null) {
+                sink.end();
+                sink.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.xconvert.hadoop;
+
+import com.xconvert.converter.Record;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A record of named text fields passed from the mappers to {@link RecordOutputFormat}.
+ */
+public class RecordWritable implements Writable {
+
+    private String[] names = new String[16];
+    private String[] values = new String[16];
+    private int size;
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(String name, String value) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        names[size] = name;
+        values[size] = value;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    public String getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Copies the fields into a converter record, replacing its contents.
+     */
+    public void copyTo(Record record) {
+        record.clear();
+        for (int i = 0; i < size; i++) {
+            record.add(names[i], values[i]);
+        }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, size);
+        for (int i = 0; i < size; i++) {
+            Text.writeString(out, names[i]);
+            Text.writeString(out, values[i]);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        clear();
+        int count = WritableUtils.readVInt(in);
+        for (int i = 0; i < count; i++) {
+            add(Text.readString(in), Text.readString(in));
+        }
+    }
+}
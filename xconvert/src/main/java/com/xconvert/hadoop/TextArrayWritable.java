@@ -0,0 +1,14 @@
+package com.xconvert.hadoop;
+
+import org.apache.hadoop.io.ArrayWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * The fields of one CSV record.
+ */
+public class TextArrayWritable extends ArrayWritable {
+
+    public TextArrayWritable() {
+        super(Text.class);
+    }
+}
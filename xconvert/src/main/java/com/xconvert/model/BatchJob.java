@@ -2,21 +2,49 @@ package com.xconvert.model;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * A batch of uploaded files converted to one target format.
+ *
+ * Item counts and byte totals are kept in counters that change with the items' statuses, so
+ * the summary of a batch costs the same however many items it has. Every change to an item
+ * gives it the batch's next version number, and items are indexed by that version, so a
+ * client that has seen version v can fetch only the items changed after it. Items are added
+ * and changed under the batch's lock; counters and lookups are read without it.
+ */
 public class BatchJob {
     private String id;
     private String targetFormat;
     private Date creationTime;
-    private String status; // "pending", "processing", "completed", "failed"
-    private List<BatchJobItem> items;
+    private volatile String status; // "pending", "processing", "completed", "failed"
+    
+    // Items are added by upload requests while worker threads update them; guarded by this
+    private final List<BatchJobItem> items = new ArrayList<>();
+    // The items by the version of their latest change; guarded by this
+    private final NavigableMap<Long, BatchJobItem> itemsByVersion = new TreeMap<>();
+    private final Map<String, BatchJobItem> itemsById = new ConcurrentHashMap<>();
+    private final Set<BatchJobItem> processingItems = ConcurrentHashMap.newKeySet();
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicInteger totalItems = new AtomicInteger();
+    private final AtomicInteger completedItems = new AtomicInteger();
+    private final AtomicInteger failedItems = new AtomicInteger();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong processedBytes = new AtomicLong();
     
     public BatchJob() {
         this.id = UUID.randomUUID().toString();
         this.creationTime = new Date();
         this.status = "pending";
-        this.items = new ArrayList<>();
     }
     
     public BatchJob(String targetFormat) {
@@ -52,53 +80,208 @@ public class BatchJob {
         return status;
     }
 
-    public void setStatus(String status) {
+    public synchronized void setStatus(String status) {
         this.status = status;
     }
 
-    public List<BatchJobItem> getItems() {
-        return items;
+    /**
+     * Returns a copy of the items in the order they were added.
+     */
+    public synchronized List<BatchJobItem> getItems() {
+        return new ArrayList<>(items);
     }
 
-    public void setItems(List<BatchJobItem> items) {
-        this.items = items;
+    public synchronized void setItems(List<BatchJobItem> items) {
+        this.items.clear();
+        itemsByVersion.clear();
+        itemsById.clear();
+        processingItems.clear();
+        totalItems.set(0);
+        completedItems.set(0);
+        failedItems.set(0);
+        totalBytes.set(0);
+        processedBytes.set(0);
+        for (BatchJobItem item : items) {
+            addItem(item);
+        }
     }
     
-    public void addItem(BatchJobItem item) {
-        this.items.add(item);
+    public synchronized void addItem(BatchJobItem item) {
+        items.add(item);
+        itemsById.put(item.getId(), item);
+        totalItems.incrementAndGet();
+        totalBytes.addAndGet(item.getFileSize());
+        count(item, item.getStatus(), 1);
+        touch(item);
+    }
+    
+    public BatchJobItem getItem(String itemId) {
+        return itemsById.get(itemId);
+    }
+    
+    /**
+     * Changes an item's status, keeping the counters in step. Set the item's other fields
+     * before its status, so clients that see the new version also see them.
+     */
+    public synchronized void setItemStatus(BatchJobItem item, String status) {
+        count(item, item.getStatus(), -1);
+        item.setStatus(status);
+        count(item, status, 1);
+        touch(item);
+    }
+    
+    /**
+     * Returns up to limit items changed after the given version, oldest change first, read
+     * under the lock so the page and the batch version agree.
+     */
+    public synchronized ItemChanges getItemsChangedSince(long since, int limit) {
+        List<BatchJobItem> changed = new ArrayList<>(Math.min(limit, itemsByVersion.size()));
+        Iterator<BatchJobItem> iterator = itemsByVersion.tailMap(since, false).values().iterator();
+        while (changed.size() < limit && iterator.hasNext()) {
+            changed.add(iterator.next());
+        }
+        return new ItemChanges(changed, version.get(), iterator.hasNext());
+    }
+    
+    /**
+     * The version of the latest item change.
+     */
+    public long getVersion() {
+        return version.get();
     }
     
     public int getTotalItems() {
-        return items.size();
+        return totalItems.get();
     }
     
     public int getCompletedItems() {
-        return (int) items.stream()
-                .filter(item -> "completed".equals(item.getStatus()))
-                .count();
+        return completedItems.get();
     }
     
     public int getFailedItems() {
-        return (int) items.stream()
-                .filter(item -> "failed".equals(item.getStatus()))
-                .count();
+        return failedItems.get();
+    }
+    
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+    
+    /**
+     * Bytes of the items that have completed or failed.
+     */
+    public long getProcessedBytes() {
+        return processedBytes.get();
+    }
+    
+    /**
+     * Percent progress by bytes, counting the estimated progress of running items.
+     */
+    public int getProgress() {
+        long total = totalBytes.get();
+        if (total == 0) {
+            // Only empty files; count items instead
+            int items = totalItems.get();
+            return items == 0 ? 0 : (completedItems.get() + failedItems.get()) * 100 / items;
+        }
+        double done = processedBytes.get();
+        for (BatchJobItem item : processingItems) {
+            done += item.getFileSize() * item.getProgress() / 100.0;
+        }
+        return (int) Math.min(100, done * 100 / total);
     }
     
     public boolean isCompleted() {
         return getCompletedItems() + getFailedItems() == getTotalItems();
     }
     
-    public void updateStatus() {
-        if (isCompleted()) {
-            if (getFailedItems() == getTotalItems()) {
+    /**
+     * Derives the batch status from the status of its items.
+     *
+     * @return whether the status changed
+     */
+    public synchronized boolean updateStatus() {
+        // Items change under the same lock, so the counts are consistent with each other
+        int total = getTotalItems();
+        int completed = getCompletedItems();
+        int failed = getFailedItems();
+        String previous = status;
+        if (completed + failed == total) {
+            if (failed == total) {
                 this.status = "failed";
-            } else if (getFailedItems() > 0) {
+            } else if (failed > 0) {
                 this.status = "completed_with_errors";
             } else {
                 this.status = "completed";
             }
-        } else if (getCompletedItems() > 0 || getFailedItems() > 0) {
+        } else if (completed > 0 || failed > 0) {
             this.status = "processing";
         }
+        return !status.equals(previous);
+    }
+    
+    private void count(BatchJobItem item, String status, int delta) {
+        if ("completed".equals(status)) {
+            completedItems.addAndGet(delta);
+            processedBytes.addAndGet(delta * item.getFileSize());
+        } else if ("failed".equals(status)) {
+            failedItems.addAndGet(delta);
+            processedBytes.addAndGet(delta * item.getFileSize());
+        } else if ("processing".equals(status)) {
+            if (delta > 0) {
+                processingItems.add(item);
+            } else {
+                processingItems.remove(item);
+            }
+        }
+    }
+    
+    /**
+     * A page of the items changed after a version.
+     */
+    public static class ItemChanges {
+        private final List<BatchJobItem> items;
+        private final long version;
+        private final boolean hasMore;
+        
+        ItemChanges(List<BatchJobItem> items, long version, boolean hasMore) {
+            this.items = items;
+            this.version = version;
+            this.hasMore = hasMore;
+        }
+        
+        public List<BatchJobItem> getItems() {
+            return items;
+        }
+        
+        /**
+         * The version of the latest item change when the page was read.
+         */
+        public long getVersion() {
+            return version;
+        }
+        
+        /**
+         * Whether items changed after the last one on this page.
+         */
+        public boolean hasMore() {
+            return hasMore;
+        }
+        
+        /**
+         * The version to ask for the next page, or for later changes once this is the last.
+         */
+        public long getNextSince() {
+            return hasMore ? items.get(items.size() - 1).getVersion() : version;
+        }
+    }
+    
+    /**
+     * Gives an item the next version and moves it to the end of the change index.
+     */
+    private void touch(BatchJobItem item) {
+        itemsByVersion.remove(item.getVersion());
+        long next = version.incrementAndGet();
+        item.setVersion(next);
+        itemsByVersion.put(next, item);
     }
 }
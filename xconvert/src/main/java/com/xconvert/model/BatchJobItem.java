@@ -8,11 +8,18 @@ public class BatchJobItem {
     private String originalFilename;
     private String storedFilename;
     private String sourceFormat;
-    private String outputFilename;
-    private String status; // "pending", "processing", "completed", "failed"
-    private String errorMessage;
-    private Date startTime;
-    private Date endTime;
+    private long fileSize;
+    // Written by batch worker threads and read by status requests
+    private volatile String outputFilename;
+    private volatile String status; // "pending", "processing", "completed", "failed"
+    private volatile String errorMessage;
+    private volatile Date startTime;
+    private volatile Date endTime;
+    // Start time and expected run time of the conversion, for estimated progress
+    private volatile long conversionStart;
+    private volatile long expectedMs;
+    // The batch version of the item's latest change
+    private volatile long version;
     
     public BatchJobItem() {
         this.id = UUID.randomUUID().toString();
@@ -58,6 +65,14 @@ public class BatchJobItem {
         this.sourceFormat = sourceFormat;
     }
 
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
     public String getOutputFilename() {
         return outputFilename;
     }
@@ -70,6 +85,10 @@ public class BatchJobItem {
         return status;
     }
 
+    /**
+     * Items of a batch change status through {@link BatchJob#setItemStatus}, which keeps the
+     * batch's counters in step.
+     */
     public void setStatus(String status) {
         this.status = status;
     }
@@ -98,9 +117,43 @@ public class BatchJobItem {
         this.endTime = endTime;
     }
     
+    /**
+     * Records how long the conversion is expected to take from now.
+     */
+    public void setExpectedDuration(long expectedMs) {
+        this.conversionStart = System.currentTimeMillis();
+        this.expectedMs = Math.max(1, expectedMs);
+    }
+    
+    /**
+     * Percent progress: 100 once finished, otherwise estimated from the expected run time and
+     * held below 100.
+     */
+    public int getProgress() {
+        String current = status;
+        if ("completed".equals(current) || "failed".equals(current)) {
+            return 100;
+        }
+        long expected = expectedMs;
+        if (!"processing".equals(current) || expected == 0) {
+            return 0;
+        }
+        return (int) Math.min(95, (System.currentTimeMillis() - conversionStart) * 100 / expected);
+    }
+    
+    public long getVersion() {
+        return version;
+    }
+    
+    void setVersion(long version) {
+        this.version = version;
+    }
+    
     public long getProcessingTimeMs() {
-        if (startTime != null && endTime != null) {
-            return endTime.getTime() - startTime.getTime();
+        Date start = startTime;
+        Date end = endTime;
+        if (start != null && end != null) {
+            return end.getTime() - start.getTime();
         }
         return 0;
     }
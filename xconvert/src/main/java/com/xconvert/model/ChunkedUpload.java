@@ -0,0 +1,182 @@
+package com.xconvert.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A file uploaded in fixed-size chunks that may arrive in any order, in parallel and more
+ * than once.
+ *
+ * A chunk counts as received only once all its bytes have been written. While a chunk is
+ * being written no other request may write it, and it no longer counts as received, so a
+ * request that sends it again and fails half way leaves it missing rather than half
+ * overwritten. Once closed, by completing or aborting the upload, no chunk may be written.
+ */
+public class ChunkedUpload {
+    private final String id;
+    private final String fileName;
+    private final long size;
+    private final int chunkSize;
+    private final int chunkCount;
+    private final Date createdTime;
+    private volatile long lastModified;
+    // Set once the upload has been completed and moved into the upload store
+    private volatile String storedFilename;
+
+    // Guarded by this
+    private final BitSet received;
+    private final BitSet writing;
+    private long receivedBytes;
+    private boolean closed;
+
+    public ChunkedUpload(String fileName, long size, int chunkSize) {
+        this.id = UUID.randomUUID().toString();
+        this.fileName = fileName;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        // An empty file is one empty chunk
+        this.chunkCount = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+        this.createdTime = new Date();
+        this.lastModified = createdTime.getTime();
+        this.received = new BitSet(chunkCount);
+        this.writing = new BitSet(chunkCount);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public Date getCreatedTime() {
+        return createdTime;
+    }
+
+    /**
+     * When a chunk was last written, in milliseconds.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getStoredFilename() {
+        return storedFilename;
+    }
+
+    public void setStoredFilename(String storedFilename) {
+        this.storedFilename = storedFilename;
+        this.lastModified = System.currentTimeMillis();
+    }
+
+    public long getChunkOffset(int index) {
+        return (long) index * chunkSize;
+    }
+
+    /**
+     * The length of a chunk; the last one holds whatever is left.
+     */
+    public int getChunkLength(int index) {
+        return (int) Math.min(chunkSize, size - getChunkOffset(index));
+    }
+
+    /**
+     * Claims a chunk for writing. A chunk already received counts as missing until it has
+     * been written again.
+     *
+     * @return false if another request is writing it
+     * @throws IllegalStateException if the upload has been closed
+     */
+    public synchronized boolean beginChunk(int index) {
+        if (closed) {
+            throw new IllegalStateException("Upload " + id + " has been completed or aborted");
+        }
+        if (writing.get(index)) {
+            return false;
+        }
+        writing.set(index);
+        if (received.get(index)) {
+            received.clear(index);
+            receivedBytes -= getChunkLength(index);
+        }
+        return true;
+    }
+
+    /**
+     * Releases a chunk claimed by {@link #beginChunk}, marking it received if it was written
+     * completely.
+     */
+    public synchronized void endChunk(int index, boolean written) {
+        writing.clear(index);
+        if (written) {
+            received.set(index);
+            receivedBytes += getChunkLength(index);
+        }
+        lastModified = System.currentTimeMillis();
+    }
+
+    /**
+     * Closes the upload if every chunk has been received and none is being written.
+     *
+     * @return whether the upload was closed
+     */
+    public synchronized boolean closeIfComplete() {
+        if (closed || !writing.isEmpty() || !isComplete()) {
+            return false;
+        }
+        closed = true;
+        return true;
+    }
+
+    public synchronized void close() {
+        closed = true;
+    }
+
+    public synchronized boolean isWriting() {
+        return !writing.isEmpty();
+    }
+
+    public synchronized List<Integer> getReceivedChunks() {
+        List<Integer> chunks = new ArrayList<>(received.cardinality());
+        for (int i = received.nextSetBit(0); i >= 0; i = received.nextSetBit(i + 1)) {
+            chunks.add(i);
+        }
+        return chunks;
+    }
+
+    public synchronized List<Integer> getMissingChunks() {
+        List<Integer> chunks = new ArrayList<>(chunkCount - received.cardinality());
+        for (int i = received.nextClearBit(0); i < chunkCount; i = received.nextClearBit(i + 1)) {
+            chunks.add(i);
+        }
+        return chunks;
+    }
+
+    public synchronized int getReceivedChunkCount() {
+        return received.cardinality();
+    }
+
+    public synchronized long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    public synchronized boolean isComplete() {
+        return received.cardinality() == chunkCount;
+    }
+}
@@ -0,0 +1,20 @@
+package com.xconvert.model;
+
+/**
+ * The ways a single file can be converted.
+ */
+public enum ConversionEngine {
+    // One thread reads the source and writes the target in a single pass
+    STREAMING,
+    // CSV chunks converted on every core in process
+    PARALLEL,
+    // A map-only MapReduce job on the local job runner
+    HADOOP;
+
+    /**
+     * Whether the engine keeps every core busy while it runs.
+     */
+    public boolean usesAllCores() {
+        return this != STREAMING;
+    }
+}
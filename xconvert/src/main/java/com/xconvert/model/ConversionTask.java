@@ -0,0 +1,142 @@
+package com.xconvert.model;
+
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * A single-file conversion: what is converted, where it stands and what it produced.
+ */
+public class ConversionTask {
+    private final String id;
+    private final String fileName;
+    private final String sourceFormat;
+    private final String targetFormat;
+    private final Date createdTime;
+    // Written by the conversion thread and read by status requests
+    private volatile TaskStatus status;
+    private volatile Date startTime;
+    private volatile Date endTime;
+    private volatile ConversionEngine engine;
+    // Start time and expected run time of the conversion, for estimated progress
+    private volatile long conversionStart;
+    private volatile long expectedMs;
+    private volatile String outputFileName;
+    private volatile long outputSize = -1;
+    private volatile String error;
+    // When a finished task is dropped from the task store
+    private volatile long expiresAt = Long.MAX_VALUE;
+
+    public ConversionTask(String fileName, String sourceFormat, String targetFormat) {
+        this.id = UUID.randomUUID().toString();
+        this.fileName = fileName;
+        this.sourceFormat = sourceFormat;
+        this.targetFormat = targetFormat;
+        this.createdTime = new Date();
+        this.status = TaskStatus.UPLOADED;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getSourceFormat() {
+        return sourceFormat;
+    }
+
+    public String getTargetFormat() {
+        return targetFormat;
+    }
+
+    public Date getCreatedTime() {
+        return createdTime;
+    }
+
+    public TaskStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(TaskStatus status) {
+        this.status = status;
+    }
+
+    public Date getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(Date startTime) {
+        this.startTime = startTime;
+    }
+
+    public Date getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(Date endTime) {
+        this.endTime = endTime;
+    }
+
+    public ConversionEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Records the engine running the conversion and how long it is expected to take from now.
+     */
+    public void setEngine(ConversionEngine engine, long expectedMs) {
+        this.engine = engine;
+        this.conversionStart = System.currentTimeMillis();
+        this.expectedMs = Math.max(1, expectedMs);
+    }
+
+    public String getOutputFileName() {
+        return outputFileName;
+    }
+
+    public void setOutputFileName(String outputFileName) {
+        this.outputFileName = outputFileName;
+    }
+
+    public long getOutputSize() {
+        return outputSize;
+    }
+
+    public void setOutputSize(long outputSize) {
+        this.outputSize = outputSize;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Percent progress: 100 once finished, otherwise estimated from the expected run time and
+     * held below 100.
+     */
+    public int getProgress() {
+        TaskStatus current = status;
+        if (current.isFinished()) {
+            return 100;
+        }
+        long expected = expectedMs;
+        if (current != TaskStatus.PROCESSING || expected == 0) {
+            return 0;
+        }
+        return (int) Math.min(95, (System.currentTimeMillis() - conversionStart) * 100 / expected);
+    }
+}
@@ -0,0 +1,101 @@
+package com.xconvert.model;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * The engine picked for one conversion, with the estimates it was picked from.
+ */
+public class EngineDecision {
+    private final String fileName;
+    private final String sourceFormat;
+    private final String targetFormat;
+    private final long fileSize;
+    private final ConversionEngine engine;
+    private final Map<ConversionEngine, Long> estimatedMs;
+    private final double loadFactor;
+    private final boolean trial;
+    private final Date time;
+    // Filled in by the conversion thread and read by status requests
+    private volatile String status; // "running", "completed", "failed"
+    private volatile long actualMs = -1;
+
+    public EngineDecision(String fileName, String sourceFormat, String targetFormat, long fileSize,
+                          ConversionEngine engine, Map<ConversionEngine, Long> estimatedMs,
+                          double loadFactor, boolean trial) {
+        this.fileName = fileName;
+        this.sourceFormat = sourceFormat;
+        this.targetFormat = targetFormat;
+        this.fileSize = fileSize;
+        this.engine = engine;
+        this.estimatedMs = Collections.unmodifiableMap(estimatedMs);
+        this.loadFactor = loadFactor;
+        this.trial = trial;
+        this.time = new Date();
+        this.status = "running";
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getSourceFormat() {
+        return sourceFormat;
+    }
+
+    public String getTargetFormat() {
+        return targetFormat;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public ConversionEngine getEngine() {
+        return engine;
+    }
+
+    public Map<ConversionEngine, Long> getEstimatedMs() {
+        return estimatedMs;
+    }
+
+    /**
+     * The estimated run time of the chosen engine.
+     */
+    public long getExpectedMs() {
+        Long expected = estimatedMs.get(engine);
+        return expected != null ? expected : 0;
+    }
+
+    /**
+     * How much the load at the time of the decision was expected to slow the chosen engine down.
+     */
+    public double getLoadFactor() {
+        return loadFactor;
+    }
+
+    /**
+     * Whether the engine was picked to measure it rather than for having the lowest estimate.
+     */
+    public boolean isTrial() {
+        return trial;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public long getActualMs() {
+        return actualMs;
+    }
+
+    public void finish(boolean succeeded, long actualMs) {
+        this.actualMs = actualMs;
+        this.status = succeeded ? "completed" : "failed";
+    }
+}
@@ -0,0 +1,24 @@
+package com.xconvert.model;
+
+/**
+ * The states of a single-file conversion task, in the order it passes through them.
+ */
+public enum TaskStatus {
+    // The file is stored and the task is about to be queued
+    UPLOADED,
+    QUEUED,
+    PROCESSING,
+    COMPLETED,
+    ERROR;
+
+    /**
+     * The name used in API responses.
+     */
+    public String getValue() {
+        return name().toLowerCase();
+    }
+
+    public boolean isFinished() {
+        return this == COMPLETED || this == ERROR;
+    }
+}
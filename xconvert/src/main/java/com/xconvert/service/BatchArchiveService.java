@@ -0,0 +1,180 @@
+package com.xconvert.service;
+
+import com.xconvert.model.BatchJob;
+import com.xconvert.model.BatchJobItem;
+import com.xconvert.util.FileUtils;
+import com.xconvert.util.ParallelZipWriter;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Builds the ZIP archives of batch results and keeps the finished archive of each batch.
+ *
+ * Entries are deflated on all cores by {@link ParallelZipWriter}. While an archive is
+ * streamed to a client it is also written to the archive directory, and once complete it
+ * answers later downloads of the same batch results without being built again. Archives
+ * are named after a fingerprint of the results they hold, so reprocessing a batch or
+ * changing the compression settings builds a new one.
+ */
+@Service
+public class BatchArchiveService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchArchiveService.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path convertedDirectory;
+    private final Path archiveDirectory;
+    private final ForkJoinPool pool;
+    private final int level;
+    private final Set<String> storedExtensions;
+
+    public BatchArchiveService(@Value("${xconvert.batch.zip.level:6}") int level,
+                               @Value("${xconvert.batch.zip.stored-extensions:zip,gz,bz2,xz,7z,jpg,jpeg,png,gif,pdf,docx,xlsx}") Set<String> storedExtensions,
+                               @Value("${xconvert.batch.zip.parallelism:0}") int parallelism) throws IOException {
+        this.convertedDirectory = Paths.get("/mnt/d/Xconvert/converted").toAbsolutePath().normalize();
+        this.archiveDirectory = Paths.get("/mnt/d/Xconvert/temp/archives").toAbsolutePath().normalize();
+        this.level = level;
+        this.storedExtensions = storedExtensions;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+
+        // Archives an earlier run was still writing; finished ones wait for batch recovery
+        Files.createDirectories(archiveDirectory);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(archiveDirectory, "*.tmp")) {
+            for (Path file : stream) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Returns the finished archive of the batch's current results, or null if none is kept.
+     */
+    public Path getCachedArchive(BatchJob batchJob) {
+        Path archive = archiveDirectory.resolve(getArchiveName(batchJob));
+        return Files.isRegularFile(archive) ? archive : null;
+    }
+
+    /**
+     * Writes the archive of a batch's results to the stream and keeps a copy for later downloads.
+     */
+    public void writeArchive(BatchJob batchJob, OutputStream out) throws IOException {
+        String archiveName = getArchiveName(batchJob);
+        Path temp = Files.createTempFile(archiveDirectory, archiveName + ".", ".tmp");
+        try {
+            OutputStream copy = new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE);
+            OutputStream tee = new TeeOutputStream(new BufferedOutputStream(out, BUFFER_SIZE), copy);
+            try (ParallelZipWriter zip = new ParallelZipWriter(tee, pool, level, pool.getParallelism() * 4)) {
+                for (BatchJobItem item : batchJob.getItems()) {
+                    Path filePath = getResultPath(item);
+                    if (filePath == null) {
+                        continue;
+                    }
+                    String entryName = item.getOriginalFilename().replace("." + item.getSourceFormat(), "." + batchJob.getTargetFormat());
+                    if (level == 0 || isCompressed(filePath)) {
+                        zip.putStored(entryName, filePath);
+                    } else {
+                        zip.putDeflated(entryName, filePath);
+                    }
+                }
+                zip.finish();
+            }
+
+            // Only one archive is kept per batch
+            evict(batchJob);
+            Files.move(temp, archiveDirectory.resolve(archiveName), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Kept archive {} for batch job {}", archiveName, batchJob.getId());
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Deletes the kept archives of batches other than the given ones, such as those of
+     * batches an earlier run did not journal. Archives of recovered batches are kept, and
+     * answer downloads as long as the batch's results are unchanged.
+     */
+    public void retain(Collection<BatchJob> batchJobs) {
+        Set<String> batchJobIds = new HashSet<>();
+        for (BatchJob batchJob : batchJobs) {
+            batchJobIds.add(batchJob.getId());
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(archiveDirectory, "batch_*.zip")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                String batchJobId = name.substring("batch_".length(), Math.max("batch_".length(), name.lastIndexOf('_')));
+                if (!batchJobIds.contains(batchJobId)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not delete archives of earlier batch jobs: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the kept archives of a batch.
+     */
+    public void evict(BatchJob batchJob) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(archiveDirectory, "batch_" + batchJob.getId() + "_*.zip")) {
+            for (Path file : stream) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not delete archives of batch job {}: {}", batchJob.getId(), e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private Path getResultPath(BatchJobItem item) {
+        if (!"completed".equals(item.getStatus()) || item.getOutputFilename() == null) {
+            return null;
+        }
+        Path filePath = convertedDirectory.resolve(item.getOutputFilename());
+        return Files.exists(filePath) ? filePath : null;
+    }
+
+    private boolean isCompressed(Path filePath) {
+        String extension = FilenameUtils.getExtension(filePath.getFileName().toString()).toLowerCase();
+        return storedExtensions.contains(extension);
+    }
+
+    /**
+     * Names an archive after the batch and a hash of its completed results and compression settings.
+     */
+    private String getArchiveName(BatchJob batchJob) {
+        MessageDigest digest = FileUtils.newSha256();
+        digest.update((level + "|" + storedExtensions).getBytes(StandardCharsets.UTF_8));
+        for (BatchJobItem item : batchJob.getItems()) {
+            if (getResultPath(item) != null) {
+                digest.update(("|" + item.getOriginalFilename() + "|" + item.getOutputFilename()).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return "batch_" + batchJob.getId() + "_" + FileUtils.toHex(digest.digest()).substring(0, 16) + ".zip";
+    }
+}
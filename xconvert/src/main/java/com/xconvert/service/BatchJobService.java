@@ -2,45 +2,123 @@ package com.xconvert.service;
 
 import com.xconvert.model.BatchJob;
 import com.xconvert.model.BatchJobItem;
+import com.xconvert.util.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.annotation.PostConstruct;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 
 @Service
 public class BatchJobService {
     private static final Logger logger = LoggerFactory.getLogger(BatchJobService.class);
     
     private final Map<String, BatchJob> batchJobs = new ConcurrentHashMap<>();
-    private final Path uploadDirectory;
-    private final Path convertedDirectory;
     
     @Autowired
     private ConversionService conversionService;
     
-    public BatchJobService() throws IOException {
-        this.uploadDirectory = Paths.get("/mnt/d/Xconvert/uploads").toAbsolutePath().normalize();
-        this.convertedDirectory = Paths.get("/mnt/d/Xconvert/converted").toAbsolutePath().normalize();
+    @Autowired
+    private UploadStore uploadStore;
+    
+    @Autowired
+    private BatchArchiveService batchArchiveService;
+    
+    @Autowired
+    private ProgressBroadcaster progressBroadcaster;
+    
+    @Autowired
+    private BatchJournal batchJournal;
+    
+    @Autowired
+    @Qualifier("batchItemExecutor")
+    private Executor batchItemExecutor;
+    
+    @Value("${xconvert.batch.max-parallel-per-batch:2}")
+    private int maxParallelPerBatch;
+    
+    @Value("${xconvert.batch.order:shortest-first}")
+    private String itemOrder;
+    
+    @Value("${xconvert.upload.max-decompressed-size:10737418240}")
+    private long maxDecompressedSize;
+    
+    /**
+     * Restores the batch jobs recorded in the journal before the last shutdown or crash.
+     *
+     * Completed items whose output is still there are kept. Items that were queued or being
+     * converted go back to pending and are scheduled again if their batch had been started;
+     * items whose upload is gone fail.
+     */
+    @PostConstruct
+    public void recover() throws IOException {
+        int reused = 0;
+        int requeued = 0;
+        for (BatchJob batchJob : batchJournal.recover()) {
+            for (BatchJobItem item : batchJob.getItems()) {
+                boolean uploaded = uploadStore.retain(item.getStoredFilename());
+                String status = item.getStatus();
+                if ("failed".equals(status)) {
+                    continue;
+                }
+                if ("completed".equals(status) && conversionService.hasOutput(item.getOutputFilename())) {
+                    reused++;
+                    continue;
+                }
+                if (!uploaded) {
+                    item.setErrorMessage("Upload no longer available after restart");
+                    item.setEndTime(new Date());
+                    batchJob.setItemStatus(item, "failed");
+                } else if (!"pending".equals(status)) {
+                    item.setOutputFilename(null);
+                    item.setStartTime(null);
+                    item.setEndTime(null);
+                    batchJob.setItemStatus(item, "pending");
+                    requeued++;
+                }
+            }
+            batchJobs.put(batchJob.getId(), batchJob);
+        }
+        // Starts from a snapshot of the state as corrected above
+        batchJournal.start(batchJobs::values);
+        batchArchiveService.retain(batchJobs.values());
         
-        Files.createDirectories(uploadDirectory);
-        Files.createDirectories(convertedDirectory);
+        for (BatchJob batchJob : batchJobs.values()) {
+            if ("pending".equals(batchJob.getStatus())) {
+                // Not started yet; waits for its client as before
+                continue;
+            }
+            processBatchJob(batchJob.getId());
+        }
+        if (!batchJobs.isEmpty()) {
+            logger.info("Recovered {} batch jobs: {} completed items reused, {} items to convert again",
+                    batchJobs.size(), reused, requeued);
+        }
     }
     
     public BatchJob createBatchJob(String targetFormat) {
         BatchJob batchJob = new BatchJob(targetFormat);
         batchJobs.put(batchJob.getId(), batchJob);
+        batchJournal.batchCreated(batchJob);
         return batchJob;
     }
     
@@ -54,20 +132,83 @@ public class BatchJobService {
             throw new IllegalArgumentException("Batch job not found: " + batchJobId);
         }
         
-        String originalFilename = file.getOriginalFilename();
-        String sourceFormat = FilenameUtils.getExtension(originalFilename);
-        String storedFilename = UUID.randomUUID().toString() + "." + sourceFormat;
-        
-        Path targetLocation = uploadDirectory.resolve(storedFilename);
-        Files.copy(file.getInputStream(), targetLocation);
+        // A gzip-compressed upload is stored decompressed and named after the file inside
+        String originalFilename = FileUtils.stripGzipExtension(file.getOriginalFilename());
+        // Stored under the hash of its content; a repeated upload resolves to the stored file
+        String storedFilename = uploadStore.store(FileUtils.decompressIfGzipped(file.getInputStream(),
+                maxDecompressedSize));
         
+        return addItem(batchJob, originalFilename, storedFilename);
+    }
+    
+    /**
+     * Adds a file already in the upload store, such as a completed chunked upload, to a batch
+     * job. The batch job takes over the store reference.
+     */
+    public BatchJobItem addStoredFileToBatchJob(String batchJobId, String originalFilename, String storedFilename)
+            throws IOException {
+        BatchJob batchJob = batchJobs.get(batchJobId);
+        if (batchJob == null) {
+            throw new IllegalArgumentException("Batch job not found: " + batchJobId);
+        }
+        return addItem(batchJob, FileUtils.stripGzipExtension(originalFilename), storedFilename);
+    }
+    
+    private BatchJobItem addItem(BatchJob batchJob, String originalFilename, String storedFilename) throws IOException {
+        String batchJobId = batchJob.getId();
+        String sourceFormat = FilenameUtils.getExtension(originalFilename);
         BatchJobItem item = new BatchJobItem(originalFilename, storedFilename, sourceFormat);
+        item.setFileSize(Files.size(uploadStore.resolve(storedFilename)));
         batchJob.addItem(item);
+        batchJournal.itemAdded(batchJob, item);
+        progressBroadcaster.publish(topic(batchJobId), item.getId());
         
         return item;
     }
     
-    @Async
+    /**
+     * Streams a batch job's progress until all its items have finished. The first event lists
+     * every item; later ones only the items that changed since the previous event.
+     */
+    public SseEmitter subscribe(BatchJob batchJob) {
+        return progressBroadcaster.subscribe(topic(batchJob.getId()), changed -> getProgress(batchJob, changed));
+    }
+    
+    private Map<String, Object> getProgress(BatchJob batchJob, Set<String> changedItemIds) {
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("batchJobId", batchJob.getId());
+        String status = batchJob.getStatus();
+        progress.put("status", status);
+        progress.put("totalItems", batchJob.getTotalItems());
+        progress.put("completedItems", batchJob.getCompletedItems());
+        progress.put("failedItems", batchJob.getFailedItems());
+        progress.put("percent", batchJob.getProgress());
+        progress.put("version", batchJob.getVersion());
+        List<BatchJobItem> items;
+        if (changedItemIds == null) {
+            items = batchJob.getItems();
+        } else {
+            items = new ArrayList<>(changedItemIds.size());
+            for (String itemId : changedItemIds) {
+                BatchJobItem item = batchJob.getItem(itemId);
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+        }
+        progress.put("items", items);
+        progress.put("finished", "completed".equals(status) || "completed_with_errors".equals(status)
+                || "failed".equals(status));
+        return progress;
+    }
+    
+    /**
+     * Schedules the pending items of a batch job on the batch item pool and returns.
+     *
+     * Items are ordered by file size according to xconvert.batch.order and at most
+     * xconvert.batch.max-parallel-per-batch of them are handed to the pool at a time,
+     * so one large batch cannot occupy every worker.
+     */
     public void processBatchJob(String batchJobId) {
         BatchJob batchJob = batchJobs.get(batchJobId);
         if (batchJob == null) {
@@ -75,44 +216,126 @@ public class BatchJobService {
             return;
         }
         
+        List<BatchJobItem> pending = new ArrayList<>();
+        for (BatchJobItem item : batchJob.getItems()) {
+            if ("pending".equals(item.getStatus())) {
+                setItemStatus(batchJob, item, "queued");
+                pending.add(item);
+                progressBroadcaster.publish(topic(batchJobId), item.getId());
+            }
+        }
+        if (pending.isEmpty()) {
+            updateStatus(batchJob);
+            progressBroadcaster.publish(topic(batchJobId), null);
+            return;
+        }
+        
+        Comparator<BatchJobItem> order = getItemOrder();
+        if (order != null) {
+            pending.sort(order);
+        }
+        
         batchJob.setStatus("processing");
+        batchJournal.batchStatusChanged(batchJob);
+        logger.info("Scheduling {} items of batch job {} ({} at a time, order {})",
+                pending.size(), batchJobId, maxParallelPerBatch, itemOrder);
         
-        for (BatchJobItem item : batchJob.getItems()) {
-            processItem(batchJob, item);
-            batchJob.updateStatus();
+        Queue<BatchJobItem> queue = new ConcurrentLinkedQueue<>(pending);
+        int workers = Math.min(Math.max(1, maxParallelPerBatch), pending.size());
+        for (int i = 0; i < workers; i++) {
+            scheduleNext(batchJob, queue);
+        }
+    }
+    
+    /**
+     * Hands the next queued item to the pool. Each finished item schedules its successor,
+     * which keeps the number of items in flight for a batch constant without blocking a thread.
+     */
+    private void scheduleNext(BatchJob batchJob, Queue<BatchJobItem> queue) {
+        BatchJobItem item = queue.poll();
+        if (item == null) {
+            return;
+        }
+        batchItemExecutor.execute(() -> {
+            try {
+                processItem(batchJob, item);
+                updateStatus(batchJob);
+                progressBroadcaster.publish(topic(batchJob.getId()), item.getId());
+            } finally {
+                scheduleNext(batchJob, queue);
+            }
+        });
+    }
+    
+    private Comparator<BatchJobItem> getItemOrder() {
+        switch (itemOrder.toLowerCase()) {
+            case "shortest-first":
+                return Comparator.comparingLong(BatchJobItem::getFileSize);
+            case "largest-first":
+                return Comparator.comparingLong(BatchJobItem::getFileSize).reversed();
+            case "upload":
+                return null;
+            default:
+                logger.warn("Unknown batch item order '{}', using upload order", itemOrder);
+                return null;
         }
     }
     
     private void processItem(BatchJob batchJob, BatchJobItem item) {
-        item.setStatus("processing");
         item.setStartTime(new Date());
+        setItemStatus(batchJob, item, "processing");
+        progressBroadcaster.publish(topic(batchJob.getId()), item.getId());
         
         try {
-            Path sourcePath = uploadDirectory.resolve(item.getStoredFilename());
-            String outputFilename = FilenameUtils.getBaseName(item.getStoredFilename()) + "." + batchJob.getTargetFormat();
-            Path targetPath = convertedDirectory.resolve(outputFilename);
-            
-            conversionService.convertFile(
+            String outputFilename = conversionService.convertFile(
                     item.getStoredFilename(),
                     item.getSourceFormat(),
-                    batchJob.getTargetFormat()
+                    batchJob.getTargetFormat(),
+                    decision -> item.setExpectedDuration(decision.getExpectedMs())
             );
             
             item.setOutputFilename(outputFilename);
-            item.setStatus("completed");
+            item.setEndTime(new Date());
+            setItemStatus(batchJob, item, "completed");
         } catch (Exception e) {
             logger.error("Error processing batch job item: {}", item.getId(), e);
-            item.setStatus("failed");
             item.setErrorMessage(e.getMessage());
-        } finally {
             item.setEndTime(new Date());
+            setItemStatus(batchJob, item, "failed");
         }
     }
     
+    /**
+     * Derives a batch job's status from its items and journals it if it changed, so a
+     * finished batch is not scheduled again after a restart.
+     */
+    public void updateStatus(BatchJob batchJob) {
+        if (batchJob.updateStatus()) {
+            batchJournal.batchStatusChanged(batchJob);
+        }
+    }
+    
+    private void setItemStatus(BatchJob batchJob, BatchJobItem item, String status) {
+        batchJob.setItemStatus(item, status);
+        batchJournal.itemChanged(batchJob, item);
+    }
+    
     public void clearCompletedJobs() {
         batchJobs.entrySet().removeIf(entry -> {
             BatchJob job = entry.getValue();
-            return "completed".equals(job.getStatus()) || "failed".equals(job.getStatus());
+            if (!"completed".equals(job.getStatus()) && !"failed".equals(job.getStatus())) {
+                return false;
+            }
+            for (BatchJobItem item : job.getItems()) {
+                uploadStore.release(item.getStoredFilename());
+            }
+            batchArchiveService.evict(job);
+            batchJournal.batchRemoved(job);
+            return true;
         });
     }
+    
+    private static String topic(String batchJobId) {
+        return "batch:" + batchJobId;
+    }
 }
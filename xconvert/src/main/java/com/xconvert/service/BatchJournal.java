@@ -0,0 +1,611 @@
+package com.xconvert.service;
+
+import com.xconvert.model.BatchJob;
+import com.xconvert.model.BatchJobItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of batch job state, so batches survive a restart.
+ *
+ * Every change to a batch or one of its items is appended to a log file as a checksummed
+ * record carrying the changed fields' new values. A single writer thread appends the records
+ * queued while it was busy in one write and one fsync (group commit), so a burst of changes
+ * costs one disk flush. Batch creation and uploads wait for their record to be flushed before
+ * they are acknowledged; status changes do not wait, since a lost one only means an item is
+ * converted again.
+ *
+ * When the log outgrows both xconvert.batch.journal.compact-bytes and the last snapshot, the
+ * writer switches to a new log generation and writes a snapshot of the current state, after
+ * which the older logs are deleted; tying the threshold to the snapshot's size keeps the cost
+ * of snapshots in proportion to the records written. A write that fails is cut off the log,
+ * since replay stops at the first damaged record, and the writer moves on to a new
+ * generation whose snapshot holds the changes the log lost.
+ *
+ * Recovery reads the newest snapshot and replays the logs written after it, ignoring a
+ * record torn by a crash at the end of a log. Replaying a record twice gives the same state,
+ * so records that are both in a snapshot and in the log after it do no harm.
+ */
+@Service
+public class BatchJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchJournal.class);
+
+    private static final String LOG_PREFIX = "journal-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".dat";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAX_GROUP = 1024;
+    private static final int MAX_RECORD = 16 * 1024 * 1024;
+    // How long a change waits for its record to reach the disk
+    private static final long WRITE_TIMEOUT_MS = 10_000;
+
+    private static final byte BATCH_CREATED = 1;
+    private static final byte BATCH_STATUS = 2;
+    private static final byte ITEM_ADDED = 3;
+    private static final byte ITEM_CHANGED = 4;
+    private static final byte BATCH_REMOVED = 5;
+
+    // Tells the writer to stop once everything queued before it is written
+    private static final Entry STOP = new Entry(new byte[0], null);
+
+    private final Path journalDirectory;
+    private final boolean enabled;
+    private final boolean sync;
+    private final long compactBytes;
+
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private Thread writer;
+    private volatile boolean running;
+    private Supplier<Collection<BatchJob>> state;
+    // Only touched by the writer thread once it has started
+    private FileChannel log;
+    private long generation;
+    // Bytes of the current log that were written completely
+    private long logBytes;
+    private long snapshotBytes;
+
+    @Autowired
+    public BatchJournal(@Value("${xconvert.batch.journal.enabled:true}") boolean enabled,
+                        @Value("${xconvert.batch.journal.sync:true}") boolean sync,
+                        @Value("${xconvert.batch.journal.compact-bytes:16777216}") long compactBytes) throws IOException {
+        this(Paths.get("/mnt/d/Xconvert/journal"), enabled, sync, compactBytes);
+    }
+
+    BatchJournal(Path journalDirectory, boolean enabled, boolean sync, long compactBytes) throws IOException {
+        this.journalDirectory = journalDirectory.toAbsolutePath().normalize();
+        this.enabled = enabled;
+        this.sync = sync;
+        this.compactBytes = compactBytes;
+
+        if (enabled) {
+            Files.createDirectories(journalDirectory);
+        }
+    }
+
+    /**
+     * Rebuilds the batch jobs from the newest snapshot and the logs written after it.
+     *
+     * @return the batch jobs in the order they were created
+     */
+    public Collection<BatchJob> recover() throws IOException {
+        Map<String, BatchJob> batchJobs = new LinkedHashMap<>();
+        if (!enabled) {
+            return batchJobs.values();
+        }
+
+        TreeMap<Long, Path> snapshots = list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        TreeMap<Long, Path> logs = list(LOG_PREFIX, LOG_SUFFIX);
+        long start = 0;
+        if (!snapshots.isEmpty()) {
+            start = snapshots.lastKey();
+            replay(snapshots.lastEntry().getValue(), batchJobs);
+        }
+        int records = 0;
+        for (Path file : logs.tailMap(start, true).values()) {
+            records += replay(file, batchJobs);
+        }
+        generation = Math.max(start, logs.isEmpty() ? 0 : logs.lastKey());
+        logger.info("Recovered {} batch jobs from {} (snapshot {}, {} log records)", batchJobs.size(), journalDirectory,
+                start, records);
+        return batchJobs.values();
+    }
+
+    /**
+     * Starts a new log generation with a snapshot of the given state, deletes the files it
+     * replaces and starts accepting records.
+     *
+     * @param state the current batch jobs, read again for every later snapshot
+     */
+    public synchronized void start(Supplier<Collection<BatchJob>> state) throws IOException {
+        if (!enabled || writer != null) {
+            return;
+        }
+        this.state = state;
+        compact();
+        writer = new Thread(this::run, "batch-journal");
+        writer.setDaemon(true);
+        running = true;
+        writer.start();
+    }
+
+    /**
+     * Records a new batch job and waits until the record is on disk.
+     */
+    public void batchCreated(BatchJob batchJob) {
+        await(append(() -> encodeBatch(batchJob), true));
+    }
+
+    public void batchStatusChanged(BatchJob batchJob) {
+        append(() -> encodeBatchStatus(batchJob), false);
+    }
+
+    /**
+     * Records an item added to a batch job and waits until the record is on disk.
+     */
+    public void itemAdded(BatchJob batchJob, BatchJobItem item) {
+        await(append(() -> encodeItem(batchJob, item), true));
+    }
+
+    /**
+     * Records an item's status, output, error and times.
+     */
+    public void itemChanged(BatchJob batchJob, BatchJobItem item) {
+        append(() -> encodeItemChange(batchJob, item), false);
+    }
+
+    public void batchRemoved(BatchJob batchJob) {
+        append(() -> record(BATCH_REMOVED, out -> writeString(out, batchJob.getId())), false);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        Thread current;
+        synchronized (this) {
+            current = writer;
+        }
+        if (current == null) {
+            return;
+        }
+        running = false;
+        queue.add(STOP);
+        try {
+            current.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<Void> append(Supplier<byte[]> record, boolean waitForDisk) {
+        if (!running) {
+            return null;
+        }
+        // Encoded now, so the record holds the values of this change
+        Entry entry = new Entry(record.get(), waitForDisk ? new CompletableFuture<>() : null);
+        queue.add(entry);
+        return entry.written;
+    }
+
+    private void await(CompletableFuture<Void> written) {
+        if (written == null) {
+            return;
+        }
+        try {
+            written.get(WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // The change stands but may not survive a restart
+            logger.warn("Batch journal record not written: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Writes whatever has been queued since the last write, one group at a time.
+     */
+    private void run() {
+        List<Entry> group = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                group.add(queue.take());
+            } catch (InterruptedException e) {
+                stopping = true;
+            }
+            queue.drainTo(group, MAX_GROUP);
+            stopping |= group.remove(STOP);
+            if (!group.isEmpty()) {
+                write(group);
+                group.clear();
+            }
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            logger.warn("Could not close batch journal: {}", e.getMessage());
+        }
+    }
+
+    private void write(List<Entry> group) {
+        int size = 0;
+        for (Entry entry : group) {
+            size += entry.record.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Entry entry : group) {
+            buffer.put(entry.record);
+        }
+        buffer.flip();
+
+        IOException failure = null;
+        try {
+            // Replay stops at the first damaged record, so a torn write must not be followed
+            if (log.size() > logBytes) {
+                log.truncate(logBytes);
+            }
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            if (sync) {
+                log.force(false);
+            }
+            logBytes += size;
+        } catch (IOException e) {
+            logger.error("Could not write {} batch journal records: {}", group.size(), e.getMessage());
+            failure = e;
+            try {
+                log.truncate(logBytes);
+            } catch (IOException truncateFailure) {
+                // Tried again before the next write, unless the compaction below replaces the log
+                logger.error("Could not truncate batch journal: {}", truncateFailure.getMessage());
+            }
+        }
+        if (failure != null) {
+            // The snapshot holds the changes whose records were lost
+            try {
+                compact();
+                failure = null;
+            } catch (IOException e) {
+                logger.error("Could not compact batch journal: {}", e.getMessage());
+            }
+        }
+        for (Entry entry : group) {
+            if (entry.written == null) {
+                continue;
+            }
+            if (failure == null) {
+                entry.written.complete(null);
+            } else {
+                entry.written.completeExceptionally(failure);
+            }
+        }
+
+        if (logBytes > Math.max(compactBytes, snapshotBytes)) {
+            try {
+                compact();
+            } catch (IOException e) {
+                logger.error("Could not compact batch journal: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Moves on to a new log generation and snapshots the current state into it. The state is
+     * read after the switch, so every record in the older logs is already part of it.
+     */
+    private void compact() throws IOException {
+        long next = generation + 1;
+        FileChannel previous = log;
+        log = FileChannel.open(journalDirectory.resolve(LOG_PREFIX + next + LOG_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        generation = next;
+        logBytes = 0;
+        if (previous != null) {
+            previous.close();
+        }
+
+        long start = System.currentTimeMillis();
+        Path snapshot = journalDirectory.resolve(SNAPSHOT_PREFIX + next + SNAPSHOT_SUFFIX);
+        Path temp = journalDirectory.resolve(snapshot.getFileName() + TEMP_SUFFIX);
+        int batches = 0;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+            for (BatchJob batchJob : state.get()) {
+                out.write(encodeBatch(batchJob));
+                out.write(encodeBatchStatus(batchJob));
+                for (BatchJobItem item : batchJob.getItems()) {
+                    out.write(encodeItem(batchJob, item));
+                    out.write(encodeItemChange(batchJob, item));
+                }
+                batches++;
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        snapshotBytes = Files.size(snapshot);
+
+        // The snapshot replaces everything before its generation
+        for (Map.Entry<Long, Path> entry : list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).headMap(next, false).entrySet()) {
+            Files.deleteIfExists(entry.getValue());
+        }
+        for (Map.Entry<Long, Path> entry : list(LOG_PREFIX, LOG_SUFFIX).headMap(next, false).entrySet()) {
+            Files.deleteIfExists(entry.getValue());
+        }
+        logger.info("Compacted batch journal to snapshot {} ({} batch jobs, {} bytes) in {} ms", next, batches,
+                snapshotBytes, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Applies a file's records in order, stopping at the first incomplete or damaged one.
+     *
+     * @return the number of records applied
+     */
+    private int replay(Path file, Map<String, BatchJob> batchJobs) throws IOException {
+        int records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            while (true) {
+                byte[] record = readRecord(in);
+                if (record == null) {
+                    break;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(record)), batchJobs);
+                records++;
+            }
+        } catch (IOException e) {
+            logger.warn("Stopped replaying {} after {} records: {}", file.getFileName(), records, e.getMessage());
+        }
+        return records;
+    }
+
+    /**
+     * Reads one framed record, or returns null at the end of the file or at a record torn by
+     * a crash.
+     */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length <= 0 || length > MAX_RECORD) {
+            throw new IOException("Invalid record length " + length);
+        }
+        byte[] record = new byte[length];
+        long checksum;
+        try {
+            checksum = in.readLong();
+            in.readFully(record);
+        } catch (EOFException e) {
+            throw new IOException("Incomplete record at end of file");
+        }
+        if (checksum(record) != checksum) {
+            throw new IOException("Checksum mismatch");
+        }
+        return record;
+    }
+
+    private static void apply(DataInputStream in, Map<String, BatchJob> batchJobs) throws IOException {
+        byte type = in.readByte();
+        String batchJobId = readString(in);
+        BatchJob batchJob = batchJobs.get(batchJobId);
+        switch (type) {
+            case BATCH_CREATED:
+                if (batchJob == null) {
+                    batchJob = new BatchJob(readString(in));
+                    batchJob.setId(batchJobId);
+                    batchJob.setCreationTime(readDate(in));
+                    batchJobs.put(batchJobId, batchJob);
+                }
+                break;
+            case BATCH_STATUS:
+                if (batchJob != null) {
+                    batchJob.setStatus(readString(in));
+                }
+                break;
+            case ITEM_ADDED: {
+                String itemId = readString(in);
+                if (batchJob == null || batchJob.getItem(itemId) != null) {
+                    break;
+                }
+                BatchJobItem item = new BatchJobItem(readString(in), readString(in), readString(in));
+                item.setId(itemId);
+                item.setFileSize(in.readLong());
+                batchJob.addItem(item);
+                break;
+            }
+            case ITEM_CHANGED: {
+                BatchJobItem item = batchJob != null ? batchJob.getItem(readString(in)) : null;
+                if (item == null) {
+                    break;
+                }
+                String status = readString(in);
+                item.setOutputFilename(readString(in));
+                item.setErrorMessage(readString(in));
+                item.setStartTime(readDate(in));
+                item.setEndTime(readDate(in));
+                batchJob.setItemStatus(item, status);
+                break;
+            }
+            case BATCH_REMOVED:
+                batchJobs.remove(batchJobId);
+                break;
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    private static byte[] encodeBatch(BatchJob batchJob) {
+        return record(BATCH_CREATED, out -> {
+            writeString(out, batchJob.getId());
+            writeString(out, batchJob.getTargetFormat());
+            writeDate(out, batchJob.getCreationTime());
+        });
+    }
+
+    private static byte[] encodeBatchStatus(BatchJob batchJob) {
+        return record(BATCH_STATUS, out -> {
+            writeString(out, batchJob.getId());
+            writeString(out, batchJob.getStatus());
+        });
+    }
+
+    private static byte[] encodeItem(BatchJob batchJob, BatchJobItem item) {
+        return record(ITEM_ADDED, out -> {
+            writeString(out, batchJob.getId());
+            writeString(out, item.getId());
+            writeString(out, item.getOriginalFilename());
+            writeString(out, item.getStoredFilename());
+            writeString(out, item.getSourceFormat());
+            out.writeLong(item.getFileSize());
+        });
+    }
+
+    private static byte[] encodeItemChange(BatchJob batchJob, BatchJobItem item) {
+        return record(ITEM_CHANGED, out -> {
+            writeString(out, batchJob.getId());
+            writeString(out, item.getId());
+            writeString(out, item.getStatus());
+            writeString(out, item.getOutputFilename());
+            writeString(out, item.getErrorMessage());
+            writeDate(out, item.getStartTime());
+            writeDate(out, item.getEndTime());
+        });
+    }
+
+    /**
+     * Encodes a record framed by its length and checksum.
+     */
+    private static byte[] record(byte type, RecordWriter writer) {
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(payload);
+            out.writeByte(type);
+            writer.write(out);
+            byte[] bytes = payload.toByteArray();
+
+            ByteArrayOutputStream framed = new ByteArrayOutputStream(bytes.length + 12);
+            DataOutputStream frame = new DataOutputStream(framed);
+            frame.writeInt(bytes.length);
+            frame.writeLong(checksum(bytes));
+            frame.write(bytes);
+            return framed.toByteArray();
+        } catch (IOException e) {
+            // Not thrown by in-memory streams
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    // Strings of any length, and null, unlike writeUTF
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeDate(DataOutputStream out, Date date) throws IOException {
+        out.writeLong(date != null ? date.getTime() : -1);
+    }
+
+    private static Date readDate(DataInputStream in) throws IOException {
+        long time = in.readLong();
+        return time >= 0 ? new Date(time) : null;
+    }
+
+    /**
+     * Lists the journal files with the given prefix and suffix by generation.
+     */
+    private TreeMap<Long, Path> list(String prefix, String suffix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(journalDirectory, prefix + "*" + suffix)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    files.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())), file);
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring unexpected journal file {}", name);
+                }
+            }
+        }
+        return files;
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static class Entry {
+        final byte[] record;
+        // Completed once the record is on disk, for callers that wait
+        final CompletableFuture<Void> written;
+
+        Entry(byte[] record, CompletableFuture<Void> written) {
+            this.record = record;
+            this.written = written;
+        }
+    }
+}
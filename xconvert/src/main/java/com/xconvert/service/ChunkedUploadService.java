@@ -0,0 +1,327 @@
+package com.xconvert.service;
+
+import com.xconvert.model.ChunkedUpload;
+import com.xconvert.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Receives large files as chunks that can be sent in parallel, in any order and again after
+ * a dropped connection.
+ *
+ * An upload is created with its size, which fixes the chunk boundaries, and gets a sparse
+ * file of that size. Each chunk is written straight from its request to its offset with
+ * positional writes on the file's channel, so chunks never wait for each other and need no
+ * reassembly. Clients ask which chunks have arrived to resume, and completing the upload moves
+ * the file into the {@link UploadStore} for conversion.
+ *
+ * Completing is idempotent: the completed upload keeps its stored file until the caller hands
+ * it over to a conversion or batch job, so a completion whose response was lost, or whose
+ * conversion was turned away by a full queue, can be repeated without sending the file
+ * again. Uploads that see no activity for xconvert.upload.chunk.session-ttl-seconds are
+ * dropped, with their stored file if it was never handed over.
+ */
+@Service
+public class ChunkedUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadService.class);
+
+    private static final String PART_SUFFIX = ".part";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+
+    private final Path chunkDirectory;
+    private final UploadStore uploadStore;
+    private final int defaultChunkSize;
+    private final int maxChunkSize;
+    private final long maxFileSize;
+    private final long maxDecompressedSize;
+    private final long ttlMs;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    // Completed uploads whose stored file has not been handed over yet
+    private final Map<String, ChunkedUpload> completed = new ConcurrentHashMap<>();
+
+    public ChunkedUploadService(UploadStore uploadStore,
+                                @Value("${xconvert.upload.chunk.size:8388608}") int defaultChunkSize,
+                                @Value("${xconvert.upload.chunk.max-size:67108864}") int maxChunkSize,
+                                @Value("${xconvert.upload.chunk.max-file-size:53687091200}") long maxFileSize,
+                                @Value("${xconvert.upload.chunk.session-ttl-seconds:86400}") long ttlSeconds,
+                                @Value("${xconvert.upload.max-decompressed-size:10737418240}") long maxDecompressedSize)
+            throws IOException {
+        // Next to the upload store, so completed files are moved rather than copied
+        this.chunkDirectory = Paths.get("/mnt/d/Xconvert/temp/chunks").toAbsolutePath().normalize();
+        this.uploadStore = uploadStore;
+        this.defaultChunkSize = defaultChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.maxFileSize = maxFileSize;
+        this.maxDecompressedSize = maxDecompressedSize;
+        this.ttlMs = ttlSeconds * 1000;
+
+        Files.createDirectories(chunkDirectory);
+        // Uploads do not outlive the process
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(chunkDirectory, "*" + PART_SUFFIX)) {
+            for (Path file : stream) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Starts an upload.
+     *
+     * @param chunkSize the size of every chunk but the last, or 0 for the default
+     * @throws IllegalArgumentException if the size or chunk size is out of range
+     */
+    public ChunkedUpload create(String fileName, long size, int chunkSize) throws IOException {
+        if (fileName == null || fileName.trim().isEmpty()) {
+            throw new IllegalArgumentException("fileName is required");
+        }
+        if (size < 0 || size > maxFileSize) {
+            throw new IllegalArgumentException("size must be between 0 and " + maxFileSize + " bytes");
+        }
+        if (chunkSize == 0) {
+            chunkSize = defaultChunkSize;
+        }
+        if (chunkSize < MIN_CHUNK_SIZE || chunkSize > maxChunkSize) {
+            throw new IllegalArgumentException("chunkSize must be between " + MIN_CHUNK_SIZE + " and " + maxChunkSize + " bytes");
+        }
+        purge();
+
+        ChunkedUpload upload = new ChunkedUpload(StringUtils.cleanPath(fileName), size, chunkSize);
+        Path file = chunkDirectory.resolve(upload.getId() + PART_SUFFIX);
+        // Sparse where the file system allows, so chunks can be written at any offset
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(size);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        sessions.put(upload.getId(), new Session(upload, file, channel));
+        logger.info("Started chunked upload {} of {} ({} bytes in {} chunks)", upload.getId(), upload.getFileName(),
+                size, upload.getChunkCount());
+        return upload;
+    }
+
+    /**
+     * Returns an upload, or null if there is no such upload, it has been aborted or dropped,
+     * or its file has been handed over.
+     */
+    public ChunkedUpload getUpload(String uploadId) {
+        Session session = sessions.get(uploadId);
+        return session != null ? session.upload : completed.get(uploadId);
+    }
+
+    /**
+     * Writes one chunk from a request body. A chunk can be sent again, for instance after a
+     * dropped connection, and replaces what was written before; until the new copy has been
+     * written completely the chunk counts as missing.
+     *
+     * @throws IllegalArgumentException if there is no such upload or chunk, or the body is
+     *                                  not exactly the chunk's length
+     * @throws IllegalStateException    if the chunk is being written by another request or
+     *                                  the upload has been closed
+     */
+    public void writeChunk(String uploadId, int index, InputStream in) throws IOException {
+        Session session = getSession(uploadId);
+        ChunkedUpload upload = session.upload;
+        if (index < 0 || index >= upload.getChunkCount()) {
+            throw new IllegalArgumentException("Chunk index must be between 0 and " + (upload.getChunkCount() - 1));
+        }
+        if (!upload.beginChunk(index)) {
+            throw new IllegalStateException("Chunk " + index + " is already being received");
+        }
+
+        boolean written = false;
+        try {
+            int length = upload.getChunkLength(index);
+            long position = upload.getChunkOffset(index);
+            long end = position + length;
+            byte[] bytes = new byte[BUFFER_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            for (int n; (n = in.read(bytes)) >= 0; ) {
+                if (n > end - position) {
+                    throw new IllegalArgumentException("Chunk " + index + " is longer than " + length + " bytes");
+                }
+                buffer.clear().limit(n);
+                while (buffer.hasRemaining()) {
+                    position += session.channel.write(buffer, position);
+                }
+            }
+            if (position != end) {
+                throw new IllegalArgumentException("Chunk " + index + " has " + (length - (end - position))
+                        + " of its " + length + " bytes");
+            }
+            written = true;
+        } finally {
+            upload.endChunk(index, written);
+        }
+    }
+
+    /**
+     * Finishes an upload whose chunks have all arrived and stores the file, or returns the
+     * upload again if it has already been completed.
+     *
+     * @return the upload, with the name its file is stored under in the {@link UploadStore}
+     * @throws IllegalArgumentException if there is no such upload
+     * @throws IllegalStateException    if chunks are missing or still being written
+     */
+    public ChunkedUpload complete(String uploadId) throws IOException {
+        ChunkedUpload done = completed.get(uploadId);
+        if (done != null) {
+            return done;
+        }
+        Session session = getSession(uploadId);
+        synchronized (session) {
+            done = completed.get(uploadId);
+            if (done != null) {
+                return done;
+            }
+            return store(session);
+        }
+    }
+
+    /**
+     * Hands the stored file of a completed upload over to its conversion or batch job, which
+     * now holds its reference.
+     */
+    public void handOver(String uploadId) {
+        completed.remove(uploadId);
+    }
+
+    private ChunkedUpload store(Session session) throws IOException {
+        ChunkedUpload upload = session.upload;
+        String uploadId = upload.getId();
+        if (!upload.closeIfComplete()) {
+            throw new IllegalStateException("Upload " + uploadId + " is missing " + upload.getMissingChunks().size()
+                    + " chunks or still receiving them");
+        }
+        session.channel.close();
+
+        long start = System.currentTimeMillis();
+        String storedFilename;
+        try {
+            if (isGzipped(session.file)) {
+                // Stored decompressed like other uploads, which takes one more pass
+                try (InputStream in = FileUtils.decompressIfGzipped(Files.newInputStream(session.file),
+                        maxDecompressedSize)) {
+                    storedFilename = uploadStore.store(in);
+                }
+            } else {
+                storedFilename = uploadStore.storeFile(session.file);
+            }
+        } catch (IOException e) {
+            // Closed, so it could never be completed again
+            sessions.remove(uploadId);
+            throw e;
+        } finally {
+            Files.deleteIfExists(session.file);
+        }
+        upload.setStoredFilename(storedFilename);
+        completed.put(uploadId, upload);
+        sessions.remove(uploadId);
+        logger.info("Completed chunked upload {} of {} as {} in {} ms", uploadId, upload.getFileName(), storedFilename,
+                System.currentTimeMillis() - start);
+        return upload;
+    }
+
+    /**
+     * Drops an upload and what it has received, or the stored file of a completed upload
+     * that has not been handed over.
+     */
+    public void abort(String uploadId) {
+        Session session = sessions.remove(uploadId);
+        if (session != null) {
+            session.upload.close();
+            discard(session);
+            logger.info("Aborted chunked upload {}", uploadId);
+        }
+        ChunkedUpload done = completed.remove(uploadId);
+        if (done != null) {
+            uploadStore.release(done.getStoredFilename());
+            logger.info("Aborted completed upload {}", uploadId);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (String uploadId : sessions.keySet()) {
+            Session session = sessions.remove(uploadId);
+            if (session != null) {
+                discard(session);
+            }
+        }
+    }
+
+    private Session getSession(String uploadId) {
+        Session session = sessions.get(uploadId);
+        if (session == null) {
+            throw new IllegalArgumentException("Upload not found: " + uploadId);
+        }
+        return session;
+    }
+
+    /**
+     * Drops uploads that have seen no activity for longer than the session TTL.
+     */
+    private void purge() {
+        long cutoff = System.currentTimeMillis() - ttlMs;
+        for (ChunkedUpload upload : completed.values()) {
+            if (upload.getLastModified() < cutoff && completed.remove(upload.getId(), upload)) {
+                uploadStore.release(upload.getStoredFilename());
+                logger.info("Dropped completed upload {} of {} that was never converted", upload.getId(),
+                        upload.getFileName());
+            }
+        }
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            ChunkedUpload upload = entry.getValue().upload;
+            if (upload.getLastModified() < cutoff && !upload.isWriting()
+                    && sessions.remove(entry.getKey(), entry.getValue())) {
+                upload.close();
+                discard(entry.getValue());
+                logger.info("Dropped idle chunked upload {} of {}", upload.getId(), upload.getFileName());
+            }
+        }
+    }
+
+    private static void discard(Session session) {
+        try {
+            session.channel.close();
+            Files.deleteIfExists(session.file);
+        } catch (IOException e) {
+            logger.warn("Could not delete chunked upload {}: {}", session.file, e.getMessage());
+        }
+    }
+
+    private static boolean isGzipped(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
+    private static class Session {
+        final ChunkedUpload upload;
+        final Path file;
+        final FileChannel channel;
+
+        Session(ChunkedUpload upload, Path file, FileChannel channel) {
+            this.upload = upload;
+            this.file = file;
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.xconvert.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Disk cache of gzip-compressed copies of downloadable files, keyed by the SHA-256 of the
+ * uncompressed content.
+ *
+ * A file is compressed the first time a client that accepts gzip downloads it, and later
+ * downloads of the same content are served from the copy. Like {@link ConversionCache} the
+ * cache is bounded in bytes, evicts the least recently used copies, keeps that order across
+ * restarts through the files' modification times, and compresses content only once when it
+ * is requested by several downloads at the same time.
+ */
+@Service
+public class CompressedFileCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompressedFileCache.class);
+
+    private static final String SUFFIX = ".gz";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path cacheDirectory;
+    private final int level;
+    private final long maxSize;
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize;
+
+    private final Map<String, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+    // Content whose compressed copy did not fit, so it is not compressed again on every download
+    private final Set<String> oversized = ConcurrentHashMap.newKeySet();
+
+    public CompressedFileCache(@Value("${xconvert.download.gzip.level:6}") int level,
+                               @Value("${xconvert.download.gzip.max-size:268435456}") long maxSize) throws IOException {
+        this.cacheDirectory = Paths.get("/mnt/d/Xconvert/temp/gzip").toAbsolutePath().normalize();
+        this.level = level;
+        this.maxSize = maxSize;
+
+        Files.createDirectories(cacheDirectory);
+        loadEntries();
+        logger.info("Compressed file cache: {} ({} entries, {} of {} bytes)", cacheDirectory, entries.size(), totalSize, maxSize);
+    }
+
+    /**
+     * Returns the gzip-compressed copy of a file, compressing it if no copy is cached.
+     *
+     * @param hash the SHA-256 of the file's content
+     * @return the compressed copy, or null if it could not be made or is too large to keep
+     */
+    public Path getCompressed(Path file, String hash) {
+        if (oversized.contains(hash)) {
+            return null;
+        }
+        Path cached = getCached(hash);
+        if (cached != null) {
+            return cached;
+        }
+
+        CompletableFuture<Path> result = new CompletableFuture<>();
+        CompletableFuture<Path> running = inFlight.putIfAbsent(hash, result);
+        if (running != null) {
+            return await(running);
+        }
+
+        Path compressed = null;
+        try {
+            // Another download may have finished compressing between the lookup and taking the lead
+            compressed = getCached(hash);
+            if (compressed == null) {
+                compressed = compress(file, hash);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not compress {}: {}", file.getFileName(), e.getMessage());
+        } finally {
+            result.complete(compressed);
+            inFlight.remove(hash);
+        }
+        return compressed;
+    }
+
+    /**
+     * Looks up a compressed copy and marks it as recently used.
+     */
+    private synchronized Path getCached(String hash) {
+        String key = hash + SUFFIX;
+        if (entries.get(key) == null) {
+            return null;
+        }
+        Path cached = cacheDirectory.resolve(key);
+        try {
+            Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+            return cached;
+        } catch (NoSuchFileException e) {
+            // Deleted from outside the cache
+            totalSize -= entries.remove(key);
+            return null;
+        } catch (IOException e) {
+            return cached;
+        }
+    }
+
+    private Path compress(Path file, String hash) throws IOException {
+        String key = hash + SUFFIX;
+        Path cached = cacheDirectory.resolve(key);
+        Path temp = Files.createTempFile(cacheDirectory, key + ".", TEMP_SUFFIX);
+        try {
+            long start = System.currentTimeMillis();
+            try (OutputStream out = new LeveledGZIPOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE), level)) {
+                Files.copy(file, out);
+            }
+            long size = Files.size(temp);
+            if (size > maxSize) {
+                oversized.add(hash);
+                return null;
+            }
+
+            synchronized (this) {
+                Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Long previous = entries.put(key, size);
+                totalSize += size - (previous != null ? previous : 0);
+                evict(key);
+            }
+            logger.info("Compressed {} from {} to {} bytes in {} ms", file.getFileName(), Files.size(file), size,
+                    System.currentTimeMillis() - start);
+            return cached;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Evicts the least recently used copies until the cache fits, keeping the one just added.
+     */
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalSize > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(cacheDirectory.resolve(eldest.getKey()));
+            } catch (IOException e) {
+                logger.warn("Could not evict {}: {}", eldest.getKey(), e.getMessage());
+            }
+            totalSize -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Rebuilds the index from the cache directory, oldest modification time first.
+     */
+    private void loadEntries() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDirectory)) {
+            for (Path file : stream) {
+                if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                    // Left behind by a compression that did not finish
+                    Files.deleteIfExists(file);
+                } else if (Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(Comparator.comparing(CompressedFileCache::lastModified));
+        synchronized (this) {
+            for (Path file : files) {
+                long size = Files.size(file);
+                entries.put(file.getFileName().toString(), size);
+                totalSize += size;
+            }
+            evict(null);
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static Path await(CompletableFuture<Path> running) {
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * GZIPOutputStream with a configurable compression level.
+     */
+    private static class LeveledGZIPOutputStream extends GZIPOutputStream {
+
+        LeveledGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(level < 0 ? Deflater.DEFAULT_COMPRESSION : level);
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.xconvert.service;
+
+import com.xconvert.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk cache of conversion results, keyed by the SHA-256 of the source content and the
+ * conversion formats.
+ *
+ * Results are hard-linked into the cache directory and back out to each requester's output
+ * file, so a hit costs a link rather than a conversion. Sources in the {@link UploadStore} are
+ * named after their SHA-256, so they are only hashed when the caller does not know it.
+ *
+ * The cache is bounded in bytes and evicts the least recently used results. Recency is kept
+ * in memory and saved to an index file whenever a result is added and on shutdown, so the
+ * order survives restarts. It is not kept in the cached files' modification times: outputs
+ * are hard links to the same files, and touching them would change the Last-Modified of
+ * every earlier download of the result. Identical conversions that run at the same time are
+ * coalesced: the first one converts and the others wait for its result.
+ */
+@Service
+public class ConversionCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversionCache.class);
+
+    // Part of every key; bump it when a writer's output changes so stale results are not served
+    private static final int FORMAT_VERSION = 1;
+    private static final String TEMP_SUFFIX = ".tmp";
+    // Keys from least to most recently used, one per line
+    private static final String INDEX_FILE = "lru.index";
+
+    /**
+     * Writes the conversion result to the requested target file.
+     */
+    @FunctionalInterface
+    public interface Conversion {
+        void run() throws Exception;
+    }
+
+    private final Path cacheDirectory;
+    private final boolean enabled;
+    private final long maxSize;
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize;
+
+    private final Map<String, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public ConversionCache(@Value("${xconvert.cache.enabled:true}") boolean enabled,
+                           @Value("${xconvert.cache.max-size:1073741824}") long maxSize) throws IOException {
+        this.cacheDirectory = Paths.get("/mnt/d/Xconvert/cache").toAbsolutePath().normalize();
+        this.enabled = enabled;
+        this.maxSize = maxSize;
+
+        Files.createDirectories(cacheDirectory);
+        loadEntries();
+        logger.info("Conversion cache: {} ({} entries, {} of {} bytes)", cacheDirectory, entries.size(), totalSize, maxSize);
+    }
+
+    /**
+     * Makes targetPath hold the result of converting sourcePath, from the cache when possible.
+     * On a miss the conversion is run, unless an identical one is already running, and its
+     * result is added to the cache.
+     *
+     * @param sourceDigest the SHA-256 of the source content, or null to compute it
+     * @return whether the result came from the cache or from a concurrent identical conversion
+     */
+    public boolean getOrConvert(Path sourcePath, String sourceDigest, String sourceFormat, String targetFormat,
+                                Path targetPath, Conversion conversion) throws Exception {
+        if (!enabled) {
+            conversion.run();
+            return false;
+        }
+
+        if (sourceDigest == null) {
+            sourceDigest = FileUtils.sha256(sourcePath);
+        }
+        String key = sourceDigest + "." + sourceFormat + "." + targetFormat + ".v" + FORMAT_VERSION;
+        if (linkCached(key, targetPath)) {
+            hits.incrementAndGet();
+            logger.info("Cache hit for {}", key);
+            return true;
+        }
+
+        CompletableFuture<Path> result = new CompletableFuture<>();
+        CompletableFuture<Path> running = inFlight.putIfAbsent(key, result);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            logger.info("Waiting for a running conversion of {}", key);
+            Path finished = await(running);
+            try {
+                linkOrCopy(finished, targetPath);
+                return true;
+            } catch (NoSuchFileException e) {
+                // Evicted, or the other requester's output deleted, before it could be linked
+                logger.info("Result of {} was gone before it could be linked, converting again", key);
+                misses.incrementAndGet();
+                Files.deleteIfExists(targetPath);
+                conversion.run();
+                store(key, targetPath);
+                return false;
+            }
+        }
+
+        try {
+            // An identical conversion may have finished between the lookup and taking the lead
+            if (linkCached(key, targetPath)) {
+                hits.incrementAndGet();
+                result.complete(cacheDirectory.resolve(key));
+                return true;
+            }
+            misses.incrementAndGet();
+            // Writers truncate an existing target in place, which would also change a linked cache entry
+            Files.deleteIfExists(targetPath);
+            conversion.run();
+            result.complete(store(key, targetPath) ? cacheDirectory.resolve(key) : targetPath);
+            return false;
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (enabled) {
+            saveIndex();
+        }
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entries", entries.size());
+        stats.put("size", totalSize);
+        stats.put("maxSize", maxSize);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("coalesced", coalesced.get());
+        return stats;
+    }
+
+    /**
+     * Links a cached result to the target and marks it as recently used.
+     */
+    private boolean linkCached(String key, Path targetPath) throws IOException {
+        Path cached = cacheDirectory.resolve(key);
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                return false;
+            }
+            try {
+                // Linked while holding the lock, so the entry cannot be evicted in between
+                link(cached, targetPath);
+                return true;
+            } catch (NoSuchFileException e) {
+                // Deleted from outside the cache
+                totalSize -= entries.remove(key);
+                return false;
+            } catch (UnsupportedOperationException | IOException e) {
+                // Copied below, outside the lock
+            }
+        }
+        try {
+            copy(cached, targetPath);
+            return true;
+        } catch (NoSuchFileException e) {
+            // Evicted before the copy started
+            return false;
+        }
+    }
+
+    /**
+     * Adds a result to the cache, evicting the least recently used ones to make room.
+     *
+     * @return whether the result was added
+     */
+    private boolean store(String key, Path resultPath) {
+        Path cached = cacheDirectory.resolve(key);
+        try {
+            long size = Files.size(resultPath);
+            if (size > maxSize) {
+                return false;
+            }
+            synchronized (this) {
+                Files.deleteIfExists(cached);
+                linkOrCopy(resultPath, cached);
+                Long previous = entries.put(key, size);
+                totalSize += size - (previous != null ? previous : 0);
+                evict();
+                saveIndex();
+            }
+            return true;
+        } catch (IOException e) {
+            logger.warn("Could not cache {}: {}", key, e.getMessage());
+            return false;
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalSize > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            try {
+                Files.deleteIfExists(cacheDirectory.resolve(eldest.getKey()));
+            } catch (IOException e) {
+                logger.warn("Could not evict {}: {}", eldest.getKey(), e.getMessage());
+            }
+            totalSize -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Rebuilds the entries from the cache directory in the order of the saved index. Files
+     * missing from it, such as results added after it was last saved by a process that did
+     * not shut down cleanly, come first in order of modification time.
+     */
+    private void loadEntries() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDirectory)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    // Left behind by a copy that did not finish
+                    Files.deleteIfExists(file);
+                } else if (!name.equals(INDEX_FILE) && Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        Map<String, Integer> order = loadIndex();
+        files.sort(Comparator.comparing((Path file) -> order.getOrDefault(file.getFileName().toString(), -1))
+                .thenComparing(ConversionCache::lastModified));
+        synchronized (this) {
+            for (Path file : files) {
+                long size = Files.size(file);
+                entries.put(file.getFileName().toString(), size);
+                totalSize += size;
+            }
+            evict();
+        }
+    }
+
+    /**
+     * Returns the position of each key in the saved index.
+     */
+    private Map<String, Integer> loadIndex() {
+        Path index = cacheDirectory.resolve(INDEX_FILE);
+        if (!Files.exists(index)) {
+            return Collections.emptyMap();
+        }
+        Map<String, Integer> order = new HashMap<>();
+        try {
+            for (String key : Files.readAllLines(index)) {
+                order.putIfAbsent(key, order.size());
+            }
+        } catch (IOException e) {
+            logger.warn("Could not read the cache index, ordering by modification time: {}", e.getMessage());
+        }
+        return order;
+    }
+
+    /**
+     * Writes the keys in recency order, replacing the index in one step.
+     */
+    private void saveIndex() {
+        Path index = cacheDirectory.resolve(INDEX_FILE);
+        Path temp = index.resolveSibling(INDEX_FILE + TEMP_SUFFIX);
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (String key : entries.keySet()) {
+                    writer.write(key);
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Could not save the cache index: {}", e.getMessage());
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static Path await(CompletableFuture<Path> running) throws Exception {
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    private static void linkOrCopy(Path source, Path target) throws IOException {
+        try {
+            link(source, target);
+        } catch (UnsupportedOperationException | IOException e) {
+            copy(source, target);
+        }
+    }
+
+    private static void link(Path existing, Path link) throws IOException {
+        try {
+            Files.createLink(link, existing);
+        } catch (FileAlreadyExistsException e) {
+            Files.delete(link);
+            Files.createLink(link, existing);
+        }
+    }
+
+    /**
+     * Copies through a temporary file, so the target never holds a partial result.
+     */
+    private static void copy(Path source, Path target) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+        try {
+            Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.xconvert.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+
+/**
+ * Queues single-file conversions on the bounded conversion executor.
+ */
+@Service
+public class ConversionQueueService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ConversionQueueService.class);
+    
+    private final ConversionService conversionService;
+    private final TaskService taskService;
+    private final ThreadPoolTaskExecutor conversionExecutor;
+    
+    public ConversionQueueService(ConversionService conversionService,
+                                  TaskService taskService,
+                                  @Qualifier("conversionExecutor") ThreadPoolTaskExecutor conversionExecutor) {
+        this.conversionService = conversionService;
+        this.taskService = taskService;
+        this.conversionExecutor = conversionExecutor;
+    }
+    
+    /**
+     * Queues a conversion and returns immediately.
+     *
+     * @throws TaskRejectedException if the conversion queue is full
+     */
+    public void submit(String taskId, String fileName, String sourceFormat, String targetFormat) {
+        taskService.setQueued(taskId);
+        try {
+            conversionExecutor.execute(() -> process(taskId, fileName, sourceFormat, targetFormat));
+        } catch (TaskRejectedException e) {
+            taskService.setError(taskId, "Conversion queue is full");
+            throw e;
+        }
+    }
+    
+    public int getQueuedCount() {
+        return conversionExecutor.getThreadPoolExecutor().getQueue().size();
+    }
+    
+    private void process(String taskId, String fileName, String sourceFormat, String targetFormat) {
+        logger.info("Starting async processing for task: {}", taskId);
+        taskService.setProcessing(taskId);
+        
+        try {
+            String outputFileName = conversionService.convertFile(fileName, sourceFormat, targetFormat,
+                    decision -> taskService.setEngine(taskId, decision));
+            taskService.setCompleted(taskId, outputFileName,
+                    Files.size(conversionService.getOutputPath(outputFileName)));
+            logger.info("Async processing completed for task: {}", taskId);
+        } catch (Exception e) {
+            logger.error("Error in async processing for task: {}", taskId, e);
+            taskService.setError(taskId, e.getMessage());
+        }
+    }
+}
@@ -1,77 +1,78 @@
 package com.xconvert.service;
 
+import com.xconvert.converter.ConversionPipeline;
+import com.xconvert.converter.ConverterRegistry;
+import com.xconvert.converter.ParallelCsvConverter;
 import com.xconvert.hadoop.ConversionJob;
-import com.xconvert.util.JsonFixer;
-import org.apache.commons.io.FilenameUtils;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.xconvert.model.ConversionEngine;
+import com.xconvert.model.EngineDecision;
+import com.xconvert.util.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.EnumSet;
 import java.util.Set;
 import java.util.UUID;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 @Service
 public class ConversionService {
 
     private static final Logger logger = LoggerFactory.getLogger(ConversionService.class);
     
-    private final Path fileStorageLocation;
     private final Path outputStorageLocation;
     private final ConversionJob conversionJob;
+    private final ConverterRegistry converterRegistry;
+    private final ConversionPipeline conversionPipeline;
+    private final ParallelCsvConverter parallelCsvConverter;
+    private final EngineSelector engineSelector;
+    private final ConversionCache conversionCache;
+    private final UploadStore uploadStore;
+    private final DownloadService downloadService;
+    private final long maxDecompressedSize;
 
-    public ConversionService() throws IOException {
+    public ConversionService(ConverterRegistry converterRegistry, ConversionPipeline conversionPipeline,
+                             ParallelCsvConverter parallelCsvConverter, ConversionJob conversionJob,
+                             EngineSelector engineSelector, ConversionCache conversionCache,
+                             UploadStore uploadStore, DownloadService downloadService,
+                             @Value("${xconvert.upload.max-decompressed-size:10737418240}") long maxDecompressedSize)
+            throws IOException {
         // Create directories with absolute paths
-        this.fileStorageLocation = Paths.get("/mnt/d/Xconvert/uploads").toAbsolutePath().normalize();
         this.outputStorageLocation = Paths.get("/mnt/d/Xconvert/converted").toAbsolutePath().normalize();
         
-        logger.info("Upload directory: {}", fileStorageLocation);
         logger.info("Output directory: {}", outputStorageLocation);
         
         // Create directories if they don't exist
-        File uploadDir = fileStorageLocation.toFile();
         File convertedDir = outputStorageLocation.toFile();
         
-        if (!uploadDir.exists()) {
-            logger.info("Creating upload directory");
-            uploadDir.mkdirs();
-        }
-        
         if (!convertedDir.exists()) {
             logger.info("Creating converted directory");
             convertedDir.mkdirs();
         }
         
-        this.conversionJob = new ConversionJob();
+        this.conversionJob = conversionJob;
+        this.converterRegistry = converterRegistry;
+        this.conversionPipeline = conversionPipeline;
+        this.parallelCsvConverter = parallelCsvConverter;
+        this.engineSelector = engineSelector;
+        this.conversionCache = conversionCache;
+        this.uploadStore = uploadStore;
+        this.downloadService = downloadService;
+        this.maxDecompressedSize = maxDecompressedSize;
     }
 
     public String saveFile(MultipartFile file) throws IOException {
@@ -81,439 +82,209 @@ public class ConversionService {
             throw new IOException("Failed to store empty file");
         }
         
-        String originalFilename = StringUtils.cleanPath(file.getOriginalFilename());
-        String uniqueFilename = UUID.randomUUID().toString() + "." + FilenameUtils.getExtension(originalFilename);
-        
-        Path targetLocation = fileStorageLocation.resolve(uniqueFilename);
-        logger.info("Saving to location: {}", targetLocation);
-        
-        // Use transferTo instead of copy for better handling of large files
-        file.transferTo(targetLocation);
-        logger.info("File saved successfully");
+        // Stored decompressed if gzip-compressed, under the hash of its content; a repeated
+        // upload resolves to the stored file
+        String storedFilename = uploadStore.store(FileUtils.decompressIfGzipped(file.getInputStream(),
+                maxDecompressedSize));
+        logger.info("File saved successfully as {}", storedFilename);
         
-        return uniqueFilename;
+        return storedFilename;
+    }
+
+    /**
+     * Releases an uploaded file that will not be converted.
+     */
+    public void deleteUpload(String fileName) {
+        uploadStore.release(fileName);
     }
 
     public String convertFile(String fileName, String sourceFormat, String targetFormat) throws Exception {
+        return convertFile(fileName, sourceFormat, targetFormat, decision -> { });
+    }
+
+    /**
+     * Converts an uploaded file, telling the caller which engine runs the conversion and how
+     * long it is expected to take. A result served from the cache selects no engine.
+     */
+    public String convertFile(String fileName, String sourceFormat, String targetFormat,
+                              Consumer<EngineDecision> onEngineSelected) throws Exception {
         logger.info("Converting file: {} from {} to {}", fileName, sourceFormat, targetFormat);
         
-        Path sourcePath = fileStorageLocation.resolve(fileName);
-        String outputFileName = FilenameUtils.getBaseName(fileName) + "." + targetFormat.toLowerCase();
+        Path sourcePath = uploadStore.resolve(fileName);
+        // Identical uploads share a source file, so each conversion gets its own output name
+        String outputFileName = UUID.randomUUID().toString() + "." + targetFormat.toLowerCase();
         Path targetPath = outputStorageLocation.resolve(outputFileName);
         
         logger.info("Source path: {}", sourcePath);
         logger.info("Target path: {}", targetPath);
         
+        String source = sourceFormat.toLowerCase();
+        String target = targetFormat.toLowerCase();
+        if (!converterRegistry.supports(source, target)) {
+            throw new IllegalArgumentException("Unsupported conversion: " + sourceFormat + " to " + targetFormat);
+        }
+        
         // Check file size for large file handling
         long fileSize = Files.size(sourcePath);
         logger.info("File size: {} bytes", fileSize);
         
-        // CSV to JSON conversion
-        if ("csv".equals(sourceFormat) && "json".equals(targetFormat)) {
-            logger.info("Performing CSV to JSON conversion");
-            
-            // For larger files, use Hadoop
-            if (fileSize > 10 * 1024 * 1024) { // > 10MB
-                logger.info("Large file detected, using Hadoop for processing");
-                try {
-                    conversionJob.runJob(
-                            sourcePath.toString(),
-                            targetPath.toString(),
-                            sourceFormat.toLowerCase(),
-                            targetFormat.toLowerCase()
-                    );
-                    logger.info("Hadoop conversion completed successfully");
-                    return outputFileName;
-                } catch (Exception e) {
-                    logger.error("Error during Hadoop conversion", e);
-                    // Fall back to direct conversion
-                }
-            }
-            
-            // Direct conversion for smaller files or as fallback
-            try (BufferedReader reader = new BufferedReader(new FileReader(sourcePath.toFile()))) {
-                StringBuilder jsonBuilder = new StringBuilder("[\n");
-                
-                // Read header
-                String headerLine = reader.readLine();
-                if (headerLine == null) {
-                    throw new IOException("Empty CSV file");
-                }
-                
-                String[] headers = headerLine.split(",");
-                boolean firstRow = true;
-                
-                // Process data rows
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (!firstRow) {
-                        jsonBuilder.append(",\n");
-                    }
-                    
-                    String[] values = line.split(",");
-                    jsonBuilder.append("  {\n");
-                    
-                    for (int i = 0; i < Math.min(headers.length, values.length); i++) {
-                        jsonBuilder.append("    \"").append(headers[i].trim()).append("\": \"")
-                                .append(values[i].trim()).append("\"");
-                        
-                        if (i < Math.min(headers.length, values.length) - 1) {
-                            jsonBuilder.append(",");
-                        }
-                        jsonBuilder.append("\n");
-                    }
-                    
-                    jsonBuilder.append("  }");
-                    firstRow = false;
-                }
-                
-                jsonBuilder.append("\n]");
-                Files.write(targetPath, jsonBuilder.toString().getBytes());
-                logger.info("CSV to JSON conversion completed successfully");
-            }
-            
-            return outputFileName;
+        // Content already converted the same way is linked from the cache
+        if (conversionCache.getOrConvert(sourcePath, UploadStore.getDigest(fileName), source, target, targetPath,
+                () -> convertWithEngine(fileName, sourcePath, targetPath, source, target, fileSize, onEngineSelected))) {
+            logger.info("Served {} to {} conversion from the cache", source, target);
         }
-        
-        // CSV to XML conversion
-        else if ("csv".equals(sourceFormat) && "xml".equals(targetFormat)) {
-            logger.info("Performing CSV to XML conversion");
-            
-            try (BufferedReader reader = new BufferedReader(new FileReader(sourcePath.toFile()))) {
-                // Create XML document
-                DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-                DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-                Document doc = docBuilder.newDocument();
-                
-                // Create root element
-                Element rootElement = doc.createElement("records");
-                doc.appendChild(rootElement);
-                
-                // Read header
-                String headerLine = reader.readLine();
-                if (headerLine == null) {
-                    throw new IOException("Empty CSV file");
-                }
-                
-                String[] headers = headerLine.split(",");
-                
-                // Process data rows
-                String line;
-                int recordId = 1;
-                while ((line = reader.readLine()) != null) {
-                    String[] values = line.split(",");
-                    
-                    Element recordElement = doc.createElement("record");
-                    recordElement.setAttribute("id", String.valueOf(recordId++));
-                    rootElement.appendChild(recordElement);
-                    
-                    for (int i = 0; i < Math.min(headers.length, values.length); i++) {
-                        String header = headers[i].trim();
-                        String value = values[i].trim();
-                        
-                        // Create valid XML element name (replace spaces and special chars)
-                        String elementName = header.replaceAll("[^a-zA-Z0-9]", "_");
-                        if (elementName.isEmpty() || !Character.isLetter(elementName.charAt(0))) {
-                            elementName = "field_" + elementName;
-                        }
-                        
-                        Element fieldElement = doc.createElement(elementName);
-                        fieldElement.setTextContent(value);
-                        recordElement.appendChild(fieldElement);
-                    }
-                }
-                
-                // Write XML to file
-                TransformerFactory transformerFactory = TransformerFactory.newInstance();
-                Transformer transformer = transformerFactory.newTransformer();
-                transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-                transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-                
-                DOMSource source = new DOMSource(doc);
-                StreamResult result = new StreamResult(targetPath.toFile());
-                transformer.transform(source, result);
-                
-                logger.info("CSV to XML conversion completed successfully");
-            } catch (ParserConfigurationException | TransformerException e) {
-                logger.error("Error creating XML", e);
-                throw new RuntimeException("Error creating XML: " + e.getMessage());
-            }
-            
-            return outputFileName;
+        // Hashed here rather than on the first download; results linked from the cache share a hash
+        try {
+            downloadService.hashWritten(targetPath);
+        } catch (IOException e) {
+            logger.warn("Could not hash {}: {}", outputFileName, e.getMessage());
         }
-        
-        // CSV to TXT conversion
-        else if ("csv".equals(sourceFormat) && "txt".equals(targetFormat)) {
-            logger.info("Performing CSV to TXT conversion");
-            
-            try (BufferedReader reader = new BufferedReader(new FileReader(sourcePath.toFile()))) {
-                StringBuilder txtBuilder = new StringBuilder();
-                
-                // Read header
-                String headerLine = reader.readLine();
-                if (headerLine == null) {
-                    throw new IOException("Empty CSV file");
-                }
-                
-                String[] headers = headerLine.split(",");
-                
-                // Process data rows
-                String line;
-                int recordId = 1;
-                while ((line = reader.readLine()) != null) {
-                    String[] values = line.split(",");
-                    
-                    txtBuilder.append("Record ").append(recordId++).append(":\n");
-                    
-                    for (int i = 0; i < Math.min(headers.length, values.length); i++) {
-                        String header = headers[i].trim();
-                        String value = values[i].trim();
-                        
-                        txtBuilder.append(header).append(": ").append(value).append("\n");
-                    }
-                    
-                    txtBuilder.append("\n");
-                }
-                
-                Files.write(targetPath, txtBuilder.toString().getBytes());
-                logger.info("CSV to TXT conversion completed successfully");
-            }
-            
-            return outputFileName;
+        return outputFileName;
+    }
+
+    /**
+     * Converts content in a single pass as it is read, without storing it first. Only the
+     * streaming engine can convert data it cannot read twice, so no engine is selected and
+     * the conversion cache is not consulted.
+     *
+     * @return the name of the converted file
+     */
+    public String convertStream(InputStream in, String sourceFormat, String targetFormat) throws IOException {
+        checkSupported(sourceFormat, targetFormat);
+        String outputFileName = UUID.randomUUID().toString() + "." + targetFormat.toLowerCase();
+        Path targetPath = outputStorageLocation.resolve(outputFileName);
+        MessageDigest digest = FileUtils.newSha256();
+        try {
+            convertStream(in, sourceFormat, targetFormat,
+                    new DigestOutputStream(Files.newOutputStream(targetPath), digest));
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(targetPath);
+            throw e;
         }
-        
-        // JSON to CSV conversion
-        else if ("json".equals(sourceFormat) && "csv".equals(targetFormat)) {
-            logger.info("Performing JSON to CSV conversion");
-            
-            // For larger files, use Hadoop
-            if (fileSize > 10 * 1024 * 1024) { // > 10MB
-                logger.info("Large file detected, using Hadoop for processing");
-                try {
-                    conversionJob.runJob(
-                            sourcePath.toString(),
-                            targetPath.toString(),
-                            sourceFormat.toLowerCase(),
-                            targetFormat.toLowerCase()
-                    );
-                    logger.info("Hadoop conversion completed successfully");
-                    return outputFileName;
-                } catch (Exception e) {
-                    logger.error("Error during Hadoop conversion", e);
-                    // Fall back to direct conversion
-                }
-            }
-            
-            // Direct conversion for smaller files or as fallback
-            String jsonContent = new String(Files.readAllBytes(sourcePath));
-            
-            try {
-                // Fix the JSON
-                jsonContent = JsonFixer.fixJson(jsonContent);
-                
-                // Parse the JSON
-                JSONArray jsonArray = new JSONArray(jsonContent);
-                
-                // Get all possible keys from all objects
-                Set<String> allKeys = new HashSet<>();
-                for (int i = 0; i < jsonArray.length(); i++) {
-                    JSONObject jsonObject = jsonArray.getJSONObject(i);
-                    Iterator<String> keys = jsonObject.keys();
-                    while (keys.hasNext()) {
-                        allKeys.add(keys.next());
-                    }
-                }
-                
-                // Create header row
-                String[] headers = allKeys.toArray(new String[0]);
-                StringBuilder csvBuilder = new StringBuilder();
-                
-                for (int i = 0; i < headers.length; i++) {
-                    csvBuilder.append(headers[i]);
-                    if (i < headers.length - 1) {
-                        csvBuilder.append(",");
-                    }
-                }
-                csvBuilder.append("\n");
-                
-                // Create data rows
-                for (int i = 0; i < jsonArray.length(); i++) {
-                    JSONObject jsonObject = jsonArray.getJSONObject(i);
-                    
-                    for (int j = 0; j < headers.length; j++) {
-                        String key = headers[j];
-                        if (jsonObject.has(key)) {
-                            String value = jsonObject.get(key).toString();
-                            // Escape commas in the value
-                            if (value.contains(",")) {
-                                value = "\"" + value + "\"";
-                            }
-                            csvBuilder.append(value);
-                        }
-                        
-                        if (j < headers.length - 1) {
-                            csvBuilder.append(",");
-                        }
-                    }
-                    
-                    csvBuilder.append("\n");
-                }
-                
-                Files.write(targetPath, csvBuilder.toString().getBytes());
-                logger.info("JSON to CSV conversion completed successfully");
-            } catch (Exception e) {
-                logger.error("Error parsing JSON", e);
-                throw new RuntimeException("Error parsing JSON: " + e.getMessage());
-            }
-            
-            return outputFileName;
+        // Hashed as it was written, so downloads need not read it again
+        downloadService.putHash(targetPath, FileUtils.toHex(digest.digest()));
+        return outputFileName;
+    }
+
+    /**
+     * Converts content in a single pass into a stream, such as a response, and closes it.
+     *
+     * @return the number of records converted
+     * @throws IllegalArgumentException if the conversion is not supported, before anything
+     *                                  is read or written
+     */
+    public long convertStream(InputStream in, String sourceFormat, String targetFormat, OutputStream out)
+            throws IOException {
+        checkSupported(sourceFormat, targetFormat);
+        String source = sourceFormat.toLowerCase();
+        String target = targetFormat.toLowerCase();
+        long start = System.nanoTime();
+        long records = conversionPipeline.convert(in, source, out, target);
+        logger.info("Converted {} records from {} to {} while receiving them in {} ms", records, source, target,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return records;
+    }
+
+    private void checkSupported(String sourceFormat, String targetFormat) {
+        if (!converterRegistry.supports(sourceFormat, targetFormat)) {
+            throw new IllegalArgumentException("Unsupported conversion: " + sourceFormat + " to " + targetFormat);
+        }
+    }
+
+    /**
+     * Converts on the engine expected to finish first, falling back to streaming if it fails.
+     */
+    private void convertWithEngine(String fileName, Path sourcePath, Path targetPath, String source, String target,
+                                   long fileSize, Consumer<EngineDecision> onEngineSelected) throws Exception {
+        // Streaming works for every pair; the other engines only for some
+        Set<ConversionEngine> engines = EnumSet.of(ConversionEngine.STREAMING);
+        if ("csv".equals(source) && parallelCsvConverter.supports(target)) {
+            engines.add(ConversionEngine.PARALLEL);
+        }
+        if (conversionJob.supports(source, target)) {
+            engines.add(ConversionEngine.HADOOP);
         }
         
-        // JSON to TXT conversion
-        else if ("json".equals(sourceFormat) && "txt".equals(targetFormat)) {
-            logger.info("Performing JSON to TXT conversion");
-            
-            String jsonContent = new String(Files.readAllBytes(sourcePath));
-            
+        EngineDecision decision = engineSelector.select(fileName, source, target, fileSize, engines);
+        onEngineSelected.accept(decision);
+        if (decision.getEngine() != ConversionEngine.STREAMING) {
             try {
-                // Fix the JSON
-                jsonContent = JsonFixer.fixJson(jsonContent);
-                
-                // Parse the JSON
-                JSONArray jsonArray = new JSONArray(jsonContent);
-                
-                // Create plain text representation
-                StringBuilder txtBuilder = new StringBuilder();
-                
-                // Process each object
-                for (int i = 0; i < jsonArray.length(); i++) {
-                    JSONObject jsonObject = jsonArray.getJSONObject(i);
-                    txtBuilder.append("Record ").append(i + 1).append(":\n");
-                    
-                    Iterator<String> keys = jsonObject.keys();
-                    while (keys.hasNext()) {
-                        String key = keys.next();
-                        String value = jsonObject.get(key).toString();
-                        txtBuilder.append(key).append(": ").append(value).append("\n");
-                    }
-                    
-                    txtBuilder.append("\n");
+                if (runEngine(decision, sourcePath, targetPath)) {
+                    return;
                 }
-                
-                Files.write(targetPath, txtBuilder.toString().getBytes());
-                logger.info("JSON to TXT conversion completed successfully");
+                logger.error("{} conversion failed, falling back to streaming conversion", decision.getEngine());
             } catch (Exception e) {
-                logger.error("Error parsing JSON", e);
-                throw new RuntimeException("Error parsing JSON: " + e.getMessage());
+                logger.error("Error during {} conversion, falling back to streaming conversion", decision.getEngine(), e);
             }
-            
-            return outputFileName;
+            decision = engineSelector.select(fileName, source, target, fileSize, EnumSet.of(ConversionEngine.STREAMING));
+            onEngineSelected.accept(decision);
         }
         
-        // JSON to XML conversion
-        else if ("json".equals(sourceFormat) && "xml".equals(targetFormat)) {
-            logger.info("Performing JSON to XML conversion");
-            
-            String jsonContent = new String(Files.readAllBytes(sourcePath));
-            
-            try {
-                // Fix the JSON
-                jsonContent = JsonFixer.fixJson(jsonContent);
-                
-                // Parse the JSON
-                JSONArray jsonArray = new JSONArray(jsonContent);
-                
-                // Create XML document
-                DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-                DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-                Document doc = docBuilder.newDocument();
-                
-                // Create root element
-                Element rootElement = doc.createElement("records");
-                doc.appendChild(rootElement);
-                
-                // Process each object
-                for (int i = 0; i < jsonArray.length(); i++) {
-                    JSONObject jsonObject = jsonArray.getJSONObject(i);
-                    Element recordElement = doc.createElement("record");
-                    recordElement.setAttribute("id", String.valueOf(i + 1));
-                    rootElement.appendChild(recordElement);
-                    
-                    Iterator<String> keys = jsonObject.keys();
-                    while (keys.hasNext()) {
-                        String key = keys.next();
-                        String value = jsonObject.get(key).toString();
-                        
-                        // Create valid XML element name (replace spaces and special chars)
-                        String elementName = key.replaceAll("[^a-zA-Z0-9]", "_");
-                        if (elementName.isEmpty() || !Character.isLetter(elementName.charAt(0))) {
-                            elementName = "field_" + elementName;
-                        }
-                        
-                        Element fieldElement = doc.createElement(elementName);
-                        fieldElement.setTextContent(value);
-                        recordElement.appendChild(fieldElement);
+        runEngine(decision, sourcePath, targetPath);
+    }
+
+    /**
+     * Runs the conversion on the chosen engine and reports its run time back to the selector.
+     *
+     * @return whether the engine converted the file
+     */
+    private boolean runEngine(EngineDecision decision, Path sourcePath, Path targetPath) throws Exception {
+        String source = decision.getSourceFormat();
+        String target = decision.getTargetFormat();
+        long start = System.nanoTime();
+        boolean converted = false;
+        try {
+            switch (decision.getEngine()) {
+                case PARALLEL: {
+                    long records = parallelCsvConverter.convert(sourcePath, targetPath, target);
+                    logger.info("Converted {} records from {} to {} in parallel", records, source, target);
+                    converted = true;
+                    break;
+                }
+                case HADOOP:
+                    converted = conversionJob.runJob(sourcePath.toString(), targetPath.toString(), source, target);
+                    if (converted) {
+                        logger.info("Hadoop conversion completed successfully");
                     }
+                    break;
+                default: {
+                    long records = conversionPipeline.convert(sourcePath, source, targetPath, target);
+                    logger.info("Converted {} records from {} to {}", records, source, target);
+                    converted = true;
+                    break;
                 }
-                
-                // Write XML to file
-                TransformerFactory transformerFactory = TransformerFactory.newInstance();
-                Transformer transformer = transformerFactory.newTransformer();
-                transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-                transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-                
-                DOMSource source = new DOMSource(doc);
-                StreamResult result = new StreamResult(targetPath.toFile());
-                transformer.transform(source, result);
-                
-                logger.info("JSON to XML conversion completed successfully");
-            } catch (ParserConfigurationException | TransformerException e) {
-                logger.error("Error creating XML", e);
-                throw new RuntimeException("Error creating XML: " + e.getMessage());
-            } catch (Exception e) {
-                logger.error("Error parsing JSON", e);
-                throw new RuntimeException("Error parsing JSON: " + e.getMessage());
             }
-            
-            return outputFileName;
+            return converted;
+        } finally {
+            engineSelector.complete(decision, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), converted);
         }
-        
-        // If not handled by specific methods, try the Hadoop job
-        logger.info("Running Hadoop conversion job");
-        try {
-            conversionJob.runJob(
-                    sourcePath.toString(),
-                    targetPath.toString(),
-                    sourceFormat.toLowerCase(),
-                    targetFormat.toLowerCase()
-            );
-            logger.info("Hadoop conversion completed successfully");
-        } catch (Exception e) {
-            logger.error("Error during conversion", e);
-            throw e;
+    }
+
+    /**
+     * Whether a converted file is still in the output directory.
+     */
+    public boolean hasOutput(String fileName) {
+        if (fileName == null) {
+            return false;
         }
-        
-        return outputFileName;
+        Path filePath = outputStorageLocation.resolve(fileName).normalize();
+        return filePath.startsWith(outputStorageLocation) && Files.isRegularFile(filePath);
     }
 
-    public Resource loadFileAsResource(String fileName) throws MalformedURLException {
-        logger.info("Loading file as resource: {}", fileName);
+    /**
+     * Returns the path of a converted file.
+     *
+     * @throws RuntimeException if there is no such file in the output directory
+     */
+    public Path getOutputPath(String fileName) {
+        logger.info("Loading converted file: {}", fileName);
         Path filePath = outputStorageLocation.resolve(fileName).normalize();
         logger.info("Looking for file at: {}", filePath.toAbsolutePath());
         
-        if (!Files.exists(filePath)) {
+        if (!filePath.startsWith(outputStorageLocation) || !Files.isRegularFile(filePath)) {
             logger.error("File does not exist: {}", filePath);
             throw new RuntimeException("File not found: " + fileName);
         }
-        
-        Resource resource = new UrlResource(filePath.toUri());
-        
-        if (resource.exists()) {
-            logger.info("Resource exists, returning");
-            return resource;
-        } else {
-            logger.error("File not found: {}", fileName);
-            throw new RuntimeException("File not found: " + fileName);
-        }
+        return filePath;
     }
 }
@@ -0,0 +1,434 @@
+package com.xconvert.service;
+
+import com.xconvert.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Sends files with support for conditional and ranged requests.
+ *
+ * Responses carry a strong ETag, the SHA-256 of the content, and Last-Modified, so clients
+ * revalidate with If-None-Match or If-Modified-Since and get 304 for unchanged files. Range
+ * requests resume or split downloads: one range is answered with a 206 partial response,
+ * several with a multipart/byteranges body, and If-Range falls back to the whole file when
+ * it has changed. Bodies are sent by the container's sendfile where Tomcat supports it, which
+ * does not copy file data through the application. Otherwise they are written to the response
+ * stream with {@link FileChannel#transferTo}; its target is not a socket channel, so the data
+ * passes through a heap buffer.
+ *
+ * Content hashes are computed when a file is written, through {@link #putHash} or
+ * {@link #hashWritten}, rather than on the request thread. Hard links to the same file, such
+ * as conversion results served from the cache, share one hash. Files written before a restart
+ * are hashed on their first download.
+ *
+ * Text files are sent gzip-compressed to clients that accept it. The compressed copy comes
+ * from {@link CompressedFileCache}, so a file is compressed once rather than on every
+ * download, and is a representation of its own with its own ETag and byte ranges.
+ */
+@Service
+public class DownloadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DownloadService.class);
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    // More ranges than this are answered with the whole file
+    private static final int MAX_RANGES = 16;
+    private static final int MAX_HASHES = 4096;
+
+    private final CompressedFileCache compressedFileCache;
+    private final boolean gzipEnabled;
+    private final long gzipMinSize;
+
+    // Content hashes by file key, reused while the file's size and modification time are unchanged
+    private final Map<Object, Fingerprint> hashes = new LinkedHashMap<Object, Fingerprint>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Fingerprint> eldest) {
+            return size() > MAX_HASHES;
+        }
+    };
+
+    public DownloadService(CompressedFileCache compressedFileCache,
+                           @Value("${xconvert.download.gzip.enabled:true}") boolean gzipEnabled,
+                           @Value("${xconvert.download.gzip.min-size:1024}") long gzipMinSize) {
+        this.compressedFileCache = compressedFileCache;
+        this.gzipEnabled = gzipEnabled;
+        this.gzipMinSize = gzipMinSize;
+    }
+
+    /**
+     * Remembers the SHA-256 of a file's content, computed while it was written.
+     */
+    public void putHash(Path file, String hash) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        synchronized (hashes) {
+            hashes.put(getKey(file, attributes), new Fingerprint(attributes.size(), getLastModified(attributes), hash));
+        }
+    }
+
+    /**
+     * Hashes a file that has just been written, unless its content hash is already known, so
+     * that its downloads do not hash it.
+     */
+    public void hashWritten(Path file) throws IOException {
+        getHash(file, Files.readAttributes(file, BasicFileAttributes.class));
+    }
+
+    /**
+     * Answers a GET or HEAD request for a file.
+     */
+    public void send(Path file, String contentType, String downloadName, HttpServletRequest request,
+                     HttpServletResponse response) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long length = attributes.size();
+        long lastModified = getLastModified(attributes);
+        String hash = getHash(file, attributes);
+        String etag = "\"" + hash + "\"";
+        Path compressed = null;
+
+        if (isCompressible(contentType, length)) {
+            // Caches must not hand a compressed copy to a client that did not ask for one
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            if (acceptsGzip(request)) {
+                compressed = compressedFileCache.getCompressed(file, hash);
+            }
+        }
+        if (compressed != null) {
+            try {
+                long compressedLength = Files.size(compressed);
+                if (compressedLength < length) {
+                    file = compressed;
+                    length = compressedLength;
+                    etag = "\"" + hash + "-gzip\"";
+                } else {
+                    compressed = null;
+                }
+            } catch (IOException e) {
+                // Evicted in the meantime; the file is sent as it is
+                compressed = null;
+            }
+        }
+
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        // Always revalidate; unchanged files cost a 304
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + downloadName + "\"");
+        if (compressed != null) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        boolean head = "HEAD".equals(request.getMethod());
+
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        List<long[]> ranges = null;
+        if (rangeHeader != null && isRangeCurrent(request, etag, lastModified)) {
+            ranges = parseRanges(rangeHeader, length);
+        }
+
+        if (ranges == null) {
+            response.setContentType(contentType);
+            response.setContentLengthLong(length);
+            if (!head) {
+                sendRange(file, 0, length, request, response);
+            }
+        } else if (ranges.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+        } else if (ranges.size() == 1) {
+            long[] range = ranges.get(0);
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(range, length));
+            response.setContentLengthLong(range[1] - range[0]);
+            if (!head) {
+                sendRange(file, range[0], range[1], request, response);
+            }
+        } else {
+            sendMultipart(file, contentType, length, ranges, head, response);
+        }
+    }
+
+    private String getHash(Path file, BasicFileAttributes attributes) throws IOException {
+        Object key = getKey(file, attributes);
+        long length = attributes.size();
+        long lastModified = getLastModified(attributes);
+        synchronized (hashes) {
+            Fingerprint fingerprint = hashes.get(key);
+            if (fingerprint != null && fingerprint.length == length && fingerprint.lastModified == lastModified) {
+                return fingerprint.hash;
+            }
+        }
+        String hash = FileUtils.sha256(file);
+        synchronized (hashes) {
+            hashes.put(key, new Fingerprint(length, lastModified, hash));
+        }
+        return hash;
+    }
+
+    /**
+     * The file's inode where the file system has one, so hard links share a hash.
+     */
+    private static Object getKey(Path file, BasicFileAttributes attributes) {
+        Object fileKey = attributes.fileKey();
+        return fileKey != null ? fileKey : file.toAbsolutePath();
+    }
+
+    // Whole seconds, as sent in Last-Modified
+    private static long getLastModified(BasicFileAttributes attributes) {
+        return attributes.lastModifiedTime().toMillis() / 1000 * 1000;
+    }
+
+    private boolean isCompressible(String contentType, long length) {
+        return gzipEnabled && length >= gzipMinSize
+                && (contentType.startsWith("text/") || contentType.endsWith("/json") || contentType.endsWith("/xml"));
+    }
+
+    /**
+     * Whether Accept-Encoding allows gzip: listed by name or through "*", with a non-zero quality.
+     */
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (String candidate : acceptEncoding.split(",")) {
+            String[] parts = candidate.split(";");
+            String coding = parts[0].trim().toLowerCase();
+            boolean accepted = true;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            if ("gzip".equals(coding) || "x-gzip".equals(coding)) {
+                return accepted;
+            }
+            if ("*".equals(coding)) {
+                wildcard = accepted;
+            }
+        }
+        return Boolean.TRUE.equals(wildcard);
+    }
+
+    /**
+     * If-None-Match takes precedence; If-Modified-Since only counts without it.
+     */
+    private static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                // Weak comparison: a W/ prefix does not matter here
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if ("*".equals(tag) || etag.equals(tag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long ifModifiedSince = getDateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+        return ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+    }
+
+    /**
+     * A Range only applies when If-Range, if present, still matches the file: its ETag by
+     * strong comparison or its exact modification date.
+     */
+    private static boolean isRangeCurrent(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"")) {
+            return etag.equals(ifRange);
+        }
+        long date = getDateHeader(request, HttpHeaders.IF_RANGE);
+        return date >= 0 && date == lastModified;
+    }
+
+    /**
+     * Parses a Range header into sorted, merged [start, end) ranges.
+     *
+     * @return null if the header is malformed or asks for too many ranges, so the whole file is
+     * sent, or an empty list if no range overlaps the file
+     */
+    static List<long[]> parseRanges(String header, long length) {
+        if (!header.startsWith("bytes=")) {
+            return null;
+        }
+        String[] specs = header.substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<long[]> ranges = new ArrayList<>();
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            long start;
+            long end;
+            try {
+                if (dash == 0) {
+                    // A suffix: the last n bytes
+                    long suffix = Long.parseLong(spec.substring(1));
+                    start = Math.max(0, length - suffix);
+                    end = length;
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    if (dash == spec.length() - 1) {
+                        end = length;
+                    } else {
+                        long last = Long.parseLong(spec.substring(dash + 1));
+                        if (last < start) {
+                            return null;
+                        }
+                        end = Math.min(length, last + 1);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (start < length && start < end) {
+                ranges.add(new long[]{start, end});
+            }
+        }
+
+        // Overlapping and adjacent ranges are sent once
+        ranges.sort(Comparator.comparingLong(range -> range[0]));
+        List<long[]> merged = new ArrayList<>();
+        for (long[] range : ranges) {
+            long[] previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (previous != null && range[0] <= previous[1]) {
+                previous[1] = Math.max(previous[1], range[1]);
+            } else {
+                merged.add(range);
+            }
+        }
+        return merged;
+    }
+
+    private static void sendRange(Path file, long start, long end, HttpServletRequest request,
+                                  HttpServletResponse response) throws IOException {
+        // Tomcat sends the bytes itself with sendfile after the request completes
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end);
+            return;
+        }
+        OutputStream out = response.getOutputStream();
+        transfer(file, start, end, Channels.newChannel(out));
+        out.flush();
+    }
+
+    private static void sendMultipart(Path file, String contentType, long length, List<long[]> ranges,
+                                      boolean head, HttpServletResponse response) throws IOException {
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (long[] range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(range, length) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + range[1] - range[0];
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += closing.length;
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if (head) {
+            return;
+        }
+
+        OutputStream out = response.getOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+        for (int i = 0; i < ranges.size(); i++) {
+            out.write(partHeaders.get(i));
+            transfer(file, ranges.get(i)[0], ranges.get(i)[1], channel);
+        }
+        out.write(closing);
+        out.flush();
+        logger.debug("Sent {} ranges of {}", ranges.size(), file.getFileName());
+    }
+
+    private static void transfer(Path file, long start, long end, WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = start;
+            while (position < end) {
+                position += channel.transferTo(position, end - position, target);
+            }
+        }
+    }
+
+    private static String contentRange(long[] range, long length) {
+        return "bytes " + range[0] + "-" + (range[1] - 1) + "/" + length;
+    }
+
+    private static long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    private static class Fingerprint {
+        final long length;
+        final long lastModified;
+        final String hash;
+
+        Fingerprint(long length, long lastModified, String hash) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.xconvert.service;
+
+import com.xconvert.model.ConversionEngine;
+import com.xconvert.model.EngineDecision;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Picks the conversion engine expected to finish a file soonest.
+ *
+ * For every engine and format pair a cost model predicts the run time of a file as a fixed
+ * startup overhead plus its size divided by a throughput. Both are fitted by least squares to
+ * the measured run times, weighting recent runs more, and start out from configured defaults
+ * until runs have been measured. Engines that use every core are slowed down by other running
+ * conversions, so each estimate is scaled by the load at the time of the decision.
+ *
+ * An engine that fails on a format pair, such as Hadoop while its cluster is down, is not
+ * picked for that pair for a minute, twice as long after each further failure in a row and at
+ * most an hour, rather than paying its startup cost before every fallback to streaming.
+ * Streaming is that fallback and runs regardless, so its failures are not held against it.
+ */
+@Service
+public class EngineSelector {
+
+    private static final Logger logger = LoggerFactory.getLogger(EngineSelector.class);
+
+    private static final double MB = 1024 * 1024;
+    // Weight kept by older runs each time a run is measured
+    private static final double DECAY = 0.8;
+    // The defaults count as two runs of this weight, at 0 and 100 MB
+    private static final double DEFAULT_WEIGHT = 0.1;
+    private static final double DEFAULT_SPAN_MB = 100;
+    // An engine measured fewer times than this is tried when its estimate is close to the best
+    private static final int MIN_SAMPLES = 3;
+    private static final double TRIAL_MARGIN = 1.5;
+    private static final double MIN_MS_PER_MB = 0.01;
+    private static final int HISTORY_SIZE = 100;
+    private static final long BACKOFF_MS = 60_000;
+    private static final long MAX_BACKOFF_MS = 3_600_000;
+
+    private final int cores = Runtime.getRuntime().availableProcessors();
+    private final Map<String, CostModel> models = new TreeMap<>();
+    private final Deque<EngineDecision> decisions = new ArrayDeque<>();
+    private final Map<EngineDecision, Double> running = new HashMap<>();
+    private int busyCores;
+    private LongSupplier clock = System::currentTimeMillis;
+
+    @Value("${xconvert.engine.streaming.startup-ms:20}")
+    private double streamingStartupMs;
+
+    @Value("${xconvert.engine.streaming.mb-per-second:40}")
+    private double streamingMbPerSecond;
+
+    @Value("${xconvert.engine.parallel.startup-ms:100}")
+    private double parallelStartupMs;
+
+    @Value("${xconvert.engine.parallel.mb-per-second:150}")
+    private double parallelMbPerSecond;
+
+    @Value("${xconvert.engine.hadoop.startup-ms:8000}")
+    private double hadoopStartupMs;
+
+    @Value("${xconvert.engine.hadoop.mb-per-second:100}")
+    private double hadoopMbPerSecond;
+
+    /**
+     * Picks an engine for a file among the candidates and counts it as running until
+     * {@link #complete} is called with the returned decision.
+     */
+    public synchronized EngineDecision select(String fileName, String sourceFormat, String targetFormat,
+                                              long fileSize, Set<ConversionEngine> candidates) {
+        if (candidates.isEmpty()) {
+            throw new IllegalArgumentException("No engine can convert " + sourceFormat + " to " + targetFormat);
+        }
+
+        // Engines backing off after failures are left out, unless that leaves none
+        long now = clock.getAsLong();
+        Set<ConversionEngine> eligible = EnumSet.noneOf(ConversionEngine.class);
+        for (ConversionEngine engine : candidates) {
+            if (!getModel(engine, sourceFormat, targetFormat).isBackingOff(now)) {
+                eligible.add(engine);
+            }
+        }
+        if (eligible.isEmpty()) {
+            eligible.addAll(candidates);
+        }
+
+        Map<ConversionEngine, Long> estimates = new EnumMap<>(ConversionEngine.class);
+        ConversionEngine best = null;
+        for (ConversionEngine engine : eligible) {
+            CostModel model = getModel(engine, sourceFormat, targetFormat);
+            long estimate = Math.round(model.estimateMs(fileSize / MB) * loadFactor(engine));
+            estimates.put(engine, estimate);
+            if (best == null || estimate < estimates.get(best)) {
+                best = engine;
+            }
+        }
+
+        // Defaults can be far off for a given machine, so engines that have hardly been measured
+        // are given a run whenever they might be competitive
+        ConversionEngine chosen = best;
+        for (ConversionEngine engine : eligible) {
+            long estimate = estimates.get(engine);
+            if (getModel(engine, sourceFormat, targetFormat).samples < MIN_SAMPLES
+                    && estimate <= estimates.get(best) * TRIAL_MARGIN
+                    && (chosen == best || estimate < estimates.get(chosen))) {
+                chosen = engine;
+            }
+        }
+
+        double factor = loadFactor(chosen);
+        EngineDecision decision = new EngineDecision(fileName, sourceFormat, targetFormat, fileSize,
+                chosen, estimates, factor, chosen != best);
+        running.put(decision, factor);
+        busyCores += width(chosen);
+
+        decisions.addFirst(decision);
+        if (decisions.size() > HISTORY_SIZE) {
+            decisions.removeLast();
+        }
+        logger.info("Engine for {} ({} bytes, {} to {}): {}{}, estimates {}", fileName, fileSize,
+                sourceFormat, targetFormat, chosen, decision.isTrial() ? " (trial)" : "", estimates);
+        return decision;
+    }
+
+    /**
+     * Records the outcome of a run. The run time of a successful run, discounted by the load
+     * it ran under, is added to the cost model of its engine and format pair; a failed run
+     * makes the engine back off from the pair.
+     */
+    public synchronized void complete(EngineDecision decision, long elapsedMs, boolean succeeded) {
+        Double factor = running.remove(decision);
+        if (factor == null) {
+            return;
+        }
+        busyCores -= width(decision.getEngine());
+        decision.finish(succeeded, elapsedMs);
+
+        CostModel model = getModel(decision.getEngine(), decision.getSourceFormat(), decision.getTargetFormat());
+        if (succeeded) {
+            model.observe(decision.getFileSize() / MB, elapsedMs / factor);
+        } else if (decision.getEngine() != ConversionEngine.STREAMING) {
+            long backoffMs = model.fail(clock.getAsLong());
+            logger.warn("{} failed to convert {} to {} {} times in a row, not using it for {} s",
+                    decision.getEngine(), decision.getSourceFormat(), decision.getTargetFormat(),
+                    model.failures, backoffMs / 1000);
+        }
+    }
+
+    /**
+     * Returns the fitted cost models and the most recent decisions, newest first.
+     */
+    public synchronized Map<String, Object> getSnapshot() {
+        List<Map<String, Object>> modelList = new ArrayList<>();
+        for (CostModel model : models.values()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("engine", model.engine);
+            entry.put("sourceFormat", model.sourceFormat);
+            entry.put("targetFormat", model.targetFormat);
+            entry.put("samples", model.samples);
+            entry.put("startupMs", Math.round(model.startupMs));
+            entry.put("mbPerSecond", Math.round(10000 / model.msPerMb) / 10.0);
+            entry.put("failures", model.failures);
+            entry.put("backoffMs", Math.max(0, model.retryAt - clock.getAsLong()));
+            modelList.add(entry);
+        }
+
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("cores", cores);
+        snapshot.put("busyCores", busyCores);
+        snapshot.put("models", modelList);
+        snapshot.put("decisions", new ArrayList<>(decisions));
+        return snapshot;
+    }
+
+    /**
+     * How much longer an engine is expected to take because of the conversions already running:
+     * the cores it would need on top of the busy ones, over the cores there are.
+     */
+    private double loadFactor(ConversionEngine engine) {
+        return Math.max(1.0, (double) (busyCores + width(engine)) / cores);
+    }
+
+    private int width(ConversionEngine engine) {
+        return engine.usesAllCores() ? cores : 1;
+    }
+
+    private CostModel getModel(ConversionEngine engine, String sourceFormat, String targetFormat) {
+        String key = engine + ":" + sourceFormat + ":" + targetFormat;
+        return models.computeIfAbsent(key, k -> {
+            switch (engine) {
+                case PARALLEL:
+                    return new CostModel(engine, sourceFormat, targetFormat, parallelStartupMs, parallelMbPerSecond);
+                case HADOOP:
+                    return new CostModel(engine, sourceFormat, targetFormat, hadoopStartupMs, hadoopMbPerSecond);
+                default:
+                    return new CostModel(engine, sourceFormat, targetFormat, streamingStartupMs, streamingMbPerSecond);
+            }
+        });
+    }
+
+    /**
+     * Run time in ms as a line over size in MB, fitted by weighted least squares.
+     */
+    private static class CostModel {
+
+        private final ConversionEngine engine;
+        private final String sourceFormat;
+        private final String targetFormat;
+        private final double defaultStartupMs;
+        private final double defaultMsPerMb;
+
+        // Decayed sums over the measured runs
+        private double weight;
+        private double sumX;
+        private double sumY;
+        private double sumXX;
+        private double sumXY;
+        private int samples;
+
+        private double startupMs;
+        private double msPerMb;
+
+        // Failures in a row, and when the engine may be picked again after the last one
+        private int failures;
+        private long retryAt;
+
+        CostModel(ConversionEngine engine, String sourceFormat, String targetFormat,
+                  double startupMs, double mbPerSecond) {
+            this.engine = engine;
+            this.sourceFormat = sourceFormat;
+            this.targetFormat = targetFormat;
+            this.defaultStartupMs = startupMs;
+            this.defaultMsPerMb = 1000 / mbPerSecond;
+            fit();
+        }
+
+        void observe(double sizeMb, double ms) {
+            weight = weight * DECAY + 1;
+            sumX = sumX * DECAY + sizeMb;
+            sumY = sumY * DECAY + ms;
+            sumXX = sumXX * DECAY + sizeMb * sizeMb;
+            sumXY = sumXY * DECAY + sizeMb * ms;
+            samples++;
+            failures = 0;
+            retryAt = 0;
+            fit();
+        }
+
+        /**
+         * Records a failed run.
+         *
+         * @return how long the engine is left out for
+         */
+        long fail(long now) {
+            failures++;
+            long backoffMs = Math.min(MAX_BACKOFF_MS, BACKOFF_MS << Math.min(failures - 1, 16));
+            retryAt = now + backoffMs;
+            return backoffMs;
+        }
+
+        boolean isBackingOff(long now) {
+            return now < retryAt;
+        }
+
+        double estimateMs(double sizeMb) {
+            return startupMs + msPerMb * sizeMb;
+        }
+
+        private void fit() {
+            // The default runs are always included, so files of a single size still give a slope
+            double spanMs = defaultStartupMs + defaultMsPerMb * DEFAULT_SPAN_MB;
+            double w = weight + 2 * DEFAULT_WEIGHT;
+            double meanX = (sumX + DEFAULT_WEIGHT * DEFAULT_SPAN_MB) / w;
+            double meanY = (sumY + DEFAULT_WEIGHT * (defaultStartupMs + spanMs)) / w;
+            double varX = (sumXX + DEFAULT_WEIGHT * DEFAULT_SPAN_MB * DEFAULT_SPAN_MB) / w - meanX * meanX;
+            double covXY = (sumXY + DEFAULT_WEIGHT * DEFAULT_SPAN_MB * spanMs) / w - meanX * meanY;
+
+            // Noisy runs can tilt the line the wrong way; no engine gets faster with size
+            msPerMb = Math.max(MIN_MS_PER_MB, covXY / varX);
+            startupMs = Math.max(0, meanY - msPerMb * meanX);
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package com.xconvert.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Pushes progress events to Server-Sent Events subscribers.
+ *
+ * Subscribers listen on a topic, such as one task or one batch job. Publishers only mark what
+ * changed in a topic; a single sender thread then asks the topic for its current state and
+ * hands it to each subscriber, so changes that arrive faster than they can be sent are
+ * coalesced and events are never out of date. The sender also refreshes every topic at a fixed
+ * interval, which moves estimated progress along, and ends a topic's streams once its state is
+ * marked finished.
+ *
+ * Writing to a stream blocks while the client's connection is full, so each subscriber is
+ * written by a task on a pool of xconvert.progress.send-threads threads, one task per
+ * subscriber at a time. Events that pile up behind a slow client are merged into one event
+ * with all their changes, built when the client can take it. A client that blocks a send for
+ * longer than a minute is dropped; until its connection fails it holds one of the pool's
+ * threads, so progress reaches everyone else as long as fewer clients than there are threads
+ * have stopped reading.
+ */
+@Service
+public class ProgressBroadcaster {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProgressBroadcaster.class);
+
+    private static final String EVENT_NAME = "progress";
+    private static final String FINISHED = "finished";
+    // Keeps idle streams from being closed by proxies
+    private static final long KEEPALIVE_MS = 15_000;
+    // How long a send may block before its client is given up
+    private static final long STALL_MS = 60_000;
+
+    private final long timeoutMs;
+    private final Map<String, Topic> topics = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sender;
+    private final ThreadPoolExecutor writers;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    public ProgressBroadcaster(@Value("${xconvert.progress.interval-ms:500}") long intervalMs,
+                               @Value("${xconvert.progress.timeout-ms:1800000}") long timeoutMs,
+                               @Value("${xconvert.progress.send-threads:16}") int sendThreads) {
+        this.timeoutMs = timeoutMs;
+        this.sender = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "progress-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger threadCount = new AtomicInteger();
+        // Each subscriber has at most one task queued or running, so the queue is bounded by them
+        this.writers = new ThreadPoolExecutor(sendThreads, sendThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "progress-writer-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        writers.allowCoreThreadTimeOut(true);
+        sender.scheduleWithFixedDelay(this::flush, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens a stream of a topic's events. The first event carries the full current state.
+     *
+     * @param state builds an event from the keys changed since the last one; null asks for the
+     *              full state. An event with "finished" set to true ends the topic's streams.
+     */
+    public SseEmitter subscribe(String topic, Function<Set<String>, Map<String, Object>> state) {
+        return subscribe(topic, state, new SseEmitter(timeoutMs));
+    }
+
+    SseEmitter subscribe(String topic, Function<Set<String>, Map<String, Object>> state, SseEmitter emitter) {
+        Subscriber[] subscriber = new Subscriber[1];
+        topics.compute(topic, (key, existing) -> {
+            Topic target = existing != null ? existing : new Topic(state);
+            subscriber[0] = new Subscriber(target, emitter);
+            target.joining.add(subscriber[0]);
+            return target;
+        });
+        emitter.onCompletion(() -> remove(subscriber[0]));
+        emitter.onTimeout(() -> remove(subscriber[0]));
+        emitter.onError(e -> remove(subscriber[0]));
+        requestFlush();
+        return emitter;
+    }
+
+    /**
+     * Marks a topic as changed, with the key of the part that changed or null if the topic has
+     * no parts. Cheap when nobody is subscribed to the topic.
+     */
+    public void publish(String topic, String key) {
+        Topic target = topics.get(topic);
+        if (target == null) {
+            return;
+        }
+        if (key != null) {
+            target.changed.add(key);
+        }
+        requestFlush();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sender.shutdownNow();
+        for (Topic topic : topics.values()) {
+            topic.joining.forEach(Subscriber::complete);
+            topic.subscribers.forEach(Subscriber::complete);
+        }
+        topics.clear();
+        // Lets the queued completions run; sends blocked on a client are not waited for
+        writers.shutdown();
+    }
+
+    private void requestFlush() {
+        if (flushRequested.compareAndSet(false, true)) {
+            sender.execute(this::flush);
+        }
+    }
+
+    /**
+     * Hands the current state of every topic that changed, gained subscribers or whose state
+     * moved on since it was last sent to its subscribers. Runs only on the sender thread.
+     */
+    private void flush() {
+        flushRequested.set(false);
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Topic> entry : topics.entrySet()) {
+            try {
+                flush(entry.getKey(), entry.getValue(), now);
+            } catch (RuntimeException e) {
+                logger.warn("Could not send progress of {}: {}", entry.getKey(), e.getMessage());
+            }
+            topics.computeIfPresent(entry.getKey(), (key, topic) ->
+                    topic.subscribers.isEmpty() && topic.joining.isEmpty() ? null : topic);
+        }
+    }
+
+    private void flush(String name, Topic topic, long now) {
+        boolean finished = false;
+
+        for (Subscriber subscriber : topic.subscribers) {
+            if (subscriber.isStalled(now)) {
+                topic.subscribers.remove(subscriber);
+                subscriber.close();
+                logger.info("Dropped a progress stream of {} that has not taken an event for {} ms", name, STALL_MS);
+            }
+        }
+
+        if (!topic.subscribers.isEmpty()) {
+            Set<String> changed = new HashSet<>();
+            for (String key : topic.changed) {
+                topic.changed.remove(key);
+                changed.add(key);
+            }
+            Map<String, Object> event = topic.state.apply(Collections.unmodifiableSet(changed));
+            if (!changed.isEmpty() || !event.equals(topic.lastEvent)) {
+                for (Subscriber subscriber : topic.subscribers) {
+                    subscriber.deliver(event, changed);
+                }
+                topic.lastEvent = event;
+                topic.lastSent = now;
+            } else if (now - topic.lastSent >= KEEPALIVE_MS) {
+                topic.subscribers.forEach(Subscriber::keepalive);
+                topic.lastSent = now;
+            }
+            finished = isFinished(event);
+        }
+
+        // New subscribers get the full state once
+        if (!topic.joining.isEmpty()) {
+            List<Subscriber> joined = new ArrayList<>();
+            for (Subscriber subscriber; (subscriber = topic.joining.poll()) != null; ) {
+                joined.add(subscriber);
+            }
+            Map<String, Object> full = topic.state.apply(null);
+            if (isFinished(full) && !finished) {
+                // Finished after the update above; everyone gets the final state
+                joined.addAll(topic.subscribers);
+                topic.subscribers.clear();
+                finished = true;
+            }
+            for (Subscriber subscriber : joined) {
+                subscriber.deliver(full, null);
+            }
+            topic.subscribers.addAll(joined);
+            topic.lastSent = now;
+        }
+
+        if (finished) {
+            topic.subscribers.forEach(Subscriber::complete);
+            topic.subscribers.clear();
+        }
+    }
+
+    private void remove(Subscriber subscriber) {
+        subscriber.topic.subscribers.remove(subscriber);
+        subscriber.topic.joining.remove(subscriber);
+        subscriber.ended();
+    }
+
+    private static boolean isFinished(Map<String, Object> event) {
+        return Boolean.TRUE.equals(event.get(FINISHED));
+    }
+
+    private static class Topic {
+        final Function<Set<String>, Map<String, Object>> state;
+        final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+        final Queue<Subscriber> joining = new ConcurrentLinkedQueue<>();
+        final Set<String> changed = ConcurrentHashMap.newKeySet();
+        // Only touched by the sender thread
+        Map<String, Object> lastEvent;
+        long lastSent;
+
+        Topic(Function<Set<String>, Map<String, Object>> state) {
+            this.state = state;
+        }
+    }
+
+    /**
+     * One stream and what is waiting to be written to it. Only its writer task touches the
+     * emitter, since a send blocked on the client holds the emitter's lock.
+     */
+    private class Subscriber implements Runnable {
+        final Topic topic;
+        final SseEmitter emitter;
+
+        // Guarded by this
+        private boolean pending;
+        // The event to send, or null to build one when there is room to send it
+        private Map<String, Object> pendingEvent;
+        // The keys changed since the last event sent, or null for the full state
+        private Set<String> pendingKeys;
+        private boolean keepalive;
+        private boolean completing;
+        // No more events are sent; the stream is ended unless it already has
+        private boolean closed;
+        private boolean ended;
+        private boolean writing;
+        private long sendStarted;
+
+        Subscriber(Topic topic, SseEmitter emitter) {
+            this.topic = topic;
+            this.emitter = emitter;
+        }
+
+        /**
+         * Queues an event built from the given changed keys, or null keys for the full state.
+         * An event still waiting is replaced by one built from both events' keys.
+         */
+        synchronized void deliver(Map<String, Object> event, Set<String> keys) {
+            if (!pending) {
+                pending = true;
+                pendingEvent = event;
+                pendingKeys = keys != null ? new HashSet<>(keys) : null;
+            } else {
+                pendingEvent = null;
+                if (pendingKeys != null && keys != null) {
+                    pendingKeys.addAll(keys);
+                } else {
+                    pendingKeys = null;
+                }
+            }
+            schedule();
+        }
+
+        synchronized void keepalive() {
+            if (!pending && !writing) {
+                keepalive = true;
+                schedule();
+            }
+        }
+
+        /**
+         * Ends the stream once the events queued so far have been sent.
+         */
+        synchronized void complete() {
+            completing = true;
+            schedule();
+        }
+
+        /**
+         * Stops sending to the stream. Its writer ends it once a send in progress returns.
+         */
+        synchronized void close() {
+            closed = true;
+        }
+
+        /**
+         * Stops sending to a stream that has been completed, timed out or failed.
+         */
+        synchronized void ended() {
+            closed = true;
+            ended = true;
+        }
+
+        synchronized boolean isStalled(long now) {
+            return writing && sendStarted > 0 && now - sendStarted > STALL_MS;
+        }
+
+        private void schedule() {
+            if (!writing && !closed) {
+                writing = true;
+                // Waiting for a thread is not stalling
+                sendStarted = 0;
+                try {
+                    writers.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // Shutting down
+                    writing = false;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Map<String, Object> event = null;
+                Set<String> keys = null;
+                boolean ping = false;
+                synchronized (this) {
+                    if (closed || completing && !pending) {
+                        writing = false;
+                        if (ended) {
+                            return;
+                        }
+                        closed = true;
+                        ended = true;
+                        break;
+                    } else if (pending) {
+                        event = pendingEvent;
+                        keys = pendingKeys;
+                        pending = false;
+                        pendingEvent = null;
+                        pendingKeys = null;
+                    } else if (keepalive) {
+                        ping = true;
+                    } else {
+                        writing = false;
+                        return;
+                    }
+                    keepalive = false;
+                    sendStarted = System.currentTimeMillis();
+                }
+                try {
+                    if (ping) {
+                        emitter.send(SseEmitter.event().comment("keepalive"));
+                    } else {
+                        if (event == null) {
+                            event = topic.state.apply(keys != null ? Collections.unmodifiableSet(keys) : null);
+                        }
+                        emitter.send(SseEmitter.event().name(EVENT_NAME).data(event, MediaType.APPLICATION_JSON));
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    // The client went away
+                    remove(this);
+                } catch (RuntimeException e) {
+                    logger.warn("Could not send progress: {}", e.getMessage());
+                }
+            }
+            emitter.complete();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.xconvert.service;
+
+import com.xconvert.util.FileUtils;
+import com.xconvert.util.MultipartStreamReader;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Converts uploads while they are being received.
+ *
+ * The request body is parsed as it arrives and the file part is fed straight into the
+ * streaming conversion pipeline, so the conversion overlaps the transfer and the upload is
+ * never written to disk first. The original can be stored alongside, teed off the same
+ * stream. Form fields must come before the file part, since the conversion starts as soon
+ * as the file does. A raw request body can also be converted straight into the response,
+ * so a conversion takes a single round trip and nothing is written to disk.
+ *
+ * Each conversion runs on the thread receiving its request; at most
+ * xconvert.upload.stream.max-concurrent of them run at once and further requests are
+ * rejected, as when the conversion queue is full.
+ */
+@Service
+public class StreamingUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamingUploadService.class);
+
+    private static final int MAX_FIELD_SIZE = 1024;
+
+    private final ConversionService conversionService;
+    private final UploadStore uploadStore;
+    private final Semaphore permits;
+    private final boolean keepOriginal;
+    private final long maxSize;
+    private final long maxDecompressedSize;
+
+    public StreamingUploadService(ConversionService conversionService, UploadStore uploadStore,
+                                  @Value("${xconvert.upload.stream.max-concurrent:4}") int maxConcurrent,
+                                  @Value("${xconvert.upload.stream.keep-original:false}") boolean keepOriginal,
+                                  @Value("${xconvert.upload.stream.max-size:104857600}") long maxSize,
+                                  @Value("${xconvert.upload.max-decompressed-size:10737418240}") long maxDecompressedSize) {
+        this.conversionService = conversionService;
+        this.uploadStore = uploadStore;
+        this.permits = new Semaphore(maxConcurrent);
+        this.keepOriginal = keepOriginal;
+        this.maxSize = maxSize;
+        this.maxDecompressedSize = maxDecompressedSize;
+    }
+
+    /**
+     * Converts the file in a multipart/form-data body with the fields sourceFormat (optional,
+     * taken from the file name if missing), targetFormat and keepOriginal (optional).
+     *
+     * @return the converted file's name, and the stored original's name if it was kept
+     * @throws IllegalArgumentException if the body is not multipart or a field is missing
+     * @throws TaskRejectedException if too many streaming conversions are running
+     */
+    public Map<String, Object> convert(InputStream body, String contentType) throws IOException {
+        String boundary = MultipartStreamReader.getBoundary(contentType);
+        if (boundary == null) {
+            throw new IllegalArgumentException("Expected a multipart/form-data request");
+        }
+        if (!permits.tryAcquire()) {
+            throw new TaskRejectedException("Too many streaming conversions");
+        }
+        try {
+            MultipartStreamReader reader = new MultipartStreamReader(body, boundary, maxSize);
+            Map<String, String> fields = new HashMap<>();
+            for (MultipartStreamReader.Part part; (part = reader.next()) != null; ) {
+                if (part.getFileName() == null) {
+                    fields.put(part.getName(), part.getString(MAX_FIELD_SIZE));
+                    continue;
+                }
+                Map<String, Object> result = convert(part, fields);
+                // Read to the end so the client sees the response after its whole request
+                while (reader.next() != null) {
+                    // Fields after the file are ignored
+                }
+                return result;
+            }
+            throw new IllegalArgumentException("No file in the request");
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Converts a raw request body, gzip-compressed or not, into a stream such as the
+     * response, writing records as they are read. The stream is left open: should the
+     * conversion fail, closing it could pass a truncated result off as complete.
+     *
+     * @return the number of records converted
+     * @throws IllegalArgumentException if the conversion is not supported
+     * @throws TaskRejectedException if too many streaming conversions are running
+     */
+    public long convert(InputStream body, String sourceFormat, String targetFormat, OutputStream out)
+            throws IOException {
+        if (!permits.tryAcquire()) {
+            throw new TaskRejectedException("Too many streaming conversions");
+        }
+        try {
+            logger.info("Converting a request body from {} to {} into the response", sourceFormat, targetFormat);
+            InputStream in = FileUtils.decompressIfGzipped(limit(body), maxDecompressedSize);
+            return conversionService.convertStream(in, sourceFormat, targetFormat, CloseShieldOutputStream.wrap(out));
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Fails reading once more than the largest accepted body has been read.
+     */
+    private InputStream limit(InputStream body) {
+        return new ProxyInputStream(body) {
+            private long count;
+
+            @Override
+            protected void afterRead(int n) throws IOException {
+                if (n > 0 && (count += n) > maxSize) {
+                    throw new IOException("Request body is larger than " + maxSize + " bytes");
+                }
+            }
+        };
+    }
+
+    private Map<String, Object> convert(MultipartStreamReader.Part part, Map<String, String> fields) throws IOException {
+        // A gzip-compressed file is converted and stored decompressed, like a regular upload
+        String originalFilename = FileUtils.stripGzipExtension(StringUtils.cleanPath(part.getFileName()));
+        String extension = FilenameUtils.getExtension(originalFilename).toLowerCase();
+        String sourceFormat = fields.get("sourceFormat");
+        if (sourceFormat == null || sourceFormat.isEmpty()) {
+            sourceFormat = extension;
+        }
+        String targetFormat = fields.get("targetFormat");
+        if (targetFormat == null || targetFormat.isEmpty()) {
+            throw new IllegalArgumentException("targetFormat must be sent before the file");
+        }
+        String keep = fields.get("keepOriginal");
+        boolean storeOriginal = keep != null ? Boolean.parseBoolean(keep) : keepOriginal;
+        logger.info("Converting {} from {} to {} while receiving it", originalFilename, sourceFormat, targetFormat);
+
+        InputStream in = FileUtils.decompressIfGzipped(part.getInputStream(), maxDecompressedSize);
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (!storeOriginal) {
+            result.put("outputFileName", conversionService.convertStream(in, sourceFormat, targetFormat));
+        } else {
+            try (UploadStore.PendingUpload original = uploadStore.create()) {
+                InputStream tee = new TeeInputStream(in, original);
+                // Kept open by the conversion, which may stop reading at the end of the
+                // document, so the rest of the file still reaches the copy
+                result.put("outputFileName", conversionService.convertStream(CloseShieldInputStream.wrap(tee),
+                        sourceFormat, targetFormat));
+                tee.transferTo(OutputStream.nullOutputStream());
+                result.put("fileName", original.commit());
+            }
+        }
+        result.put("sourceFormat", sourceFormat.toLowerCase());
+        result.put("targetFormat", targetFormat.toLowerCase());
+        return result;
+    }
+}
@@ -1,28 +1,196 @@
 package com.xconvert.service;
 
+import com.xconvert.model.ConversionTask;
+import com.xconvert.model.EngineDecision;
+import com.xconvert.model.TaskStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
 
+/**
+ * Keeps the single-file conversion tasks, bounded in time and number.
+ *
+ * A finished task is kept for xconvert.task.ttl-seconds so its client can fetch the result,
+ * then dropped. Every task lives for the same time after finishing and finishes only once, so
+ * tasks expire in the order they finished: a queue of finished tasks yields the expired ones
+ * from its head in constant time each, and they are purged as new tasks are created and old
+ * ones finish, without a timer thread. Beyond xconvert.task.max-tasks the oldest finished tasks
+ * are dropped early. Tasks still queued or converting are never dropped.
+ */
 @Service
 public class TaskService {
-    
-    private final Map<String, String> taskStatus = new ConcurrentHashMap<>();
-    
-    public void setStatus(String taskId, String status) {
-        taskStatus.put(taskId, status);
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskService.class);
+
+    private final Map<String, ConversionTask> tasks = new ConcurrentHashMap<>();
+    // Finished tasks, oldest first, which is also the order they expire in
+    private final Queue<ConversionTask> finished = new ConcurrentLinkedQueue<>();
+    private final ProgressBroadcaster progressBroadcaster;
+    private final long ttlMs;
+    private final int maxTasks;
+
+    public TaskService(ProgressBroadcaster progressBroadcaster,
+                       @Value("${xconvert.task.ttl-seconds:3600}") long ttlSeconds,
+                       @Value("${xconvert.task.max-tasks:100000}") int maxTasks) {
+        this.progressBroadcaster = progressBroadcaster;
+        this.ttlMs = ttlSeconds * 1000;
+        this.maxTasks = maxTasks;
+    }
+
+    /**
+     * Creates a task for an uploaded file.
+     */
+    public ConversionTask createTask(String fileName, String sourceFormat, String targetFormat) {
+        purge();
+        ConversionTask task = new ConversionTask(fileName, sourceFormat, targetFormat);
+        tasks.put(task.getId(), task);
+        return task;
+    }
+
+    /**
+     * Returns a task, or null if there is no such task or it has expired.
+     */
+    public ConversionTask getTask(String taskId) {
+        ConversionTask task = tasks.get(taskId);
+        if (task == null || task.getExpiresAt() <= System.currentTimeMillis()) {
+            return null;
+        }
+        return task;
     }
-    
-    public String getStatus(String taskId) {
-        return taskStatus.getOrDefault(taskId, "unknown");
+
+    public void setQueued(String taskId) {
+        update(taskId, task -> task.setStatus(TaskStatus.QUEUED));
+    }
+
+    public void setProcessing(String taskId) {
+        update(taskId, task -> {
+            task.setStartTime(new Date());
+            task.setStatus(TaskStatus.PROCESSING);
+        });
+    }
+
+    /**
+     * Records how long the task's conversion is expected to take from now, which drives its
+     * estimated percent progress.
+     */
+    public void setEngine(String taskId, EngineDecision decision) {
+        update(taskId, task -> task.setEngine(decision.getEngine(), decision.getExpectedMs()));
+    }
+
+    public void setCompleted(String taskId, String outputFileName, long outputSize) {
+        finish(taskId, task -> {
+            task.setOutputFileName(outputFileName);
+            task.setOutputSize(outputSize);
+            task.setStatus(TaskStatus.COMPLETED);
+        });
     }
-    
+
     public void setError(String taskId, String errorMessage) {
-        taskStatus.put(taskId, "error:" + errorMessage);
+        finish(taskId, task -> {
+            task.setError(errorMessage);
+            task.setStatus(TaskStatus.ERROR);
+        });
+    }
+
+    /**
+     * Streams the task's progress events until it completes or fails.
+     */
+    public SseEmitter subscribe(String taskId) {
+        return progressBroadcaster.subscribe(topic(taskId), changed -> getProgress(taskId));
+    }
+
+    /**
+     * Returns the task's status, percent progress, timestamps and result, or status "unknown"
+     * if there is no such task.
+     */
+    public Map<String, Object> getProgress(String taskId) {
+        ConversionTask task = getTask(taskId);
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("taskId", taskId);
+        if (task == null) {
+            progress.put("status", "unknown");
+            progress.put("error", "Task not found or expired");
+            progress.put("finished", true);
+            return progress;
+        }
+        TaskStatus status = task.getStatus();
+        progress.put("status", status.getValue());
+        progress.put("percent", task.getProgress());
+        progress.put("sourceFormat", task.getSourceFormat());
+        progress.put("targetFormat", task.getTargetFormat());
+        progress.put("createdTime", task.getCreatedTime());
+        progress.put("startTime", task.getStartTime());
+        progress.put("endTime", task.getEndTime());
+        if (task.getEngine() != null) {
+            progress.put("engine", task.getEngine());
+        }
+        if (status == TaskStatus.COMPLETED) {
+            progress.put("outputFileName", task.getOutputFileName());
+            progress.put("outputSize", task.getOutputSize());
+        } else if (status == TaskStatus.ERROR) {
+            progress.put("error", task.getError());
+        }
+        progress.put("finished", status.isFinished());
+        return progress;
+    }
+
+    public int getTaskCount() {
+        return tasks.size();
     }
-    
-    public void setCompleted(String taskId, String result) {
-        taskStatus.put(taskId, "completed:" + result);
+
+    private void update(String taskId, Consumer<ConversionTask> change) {
+        ConversionTask task = tasks.get(taskId);
+        if (task == null) {
+            logger.warn("Update of unknown task {}", taskId);
+            return;
+        }
+        change.accept(task);
+        progressBroadcaster.publish(topic(taskId), null);
+    }
+
+    private void finish(String taskId, Consumer<ConversionTask> change) {
+        ConversionTask task = tasks.get(taskId);
+        if (task == null || task.getStatus().isFinished()) {
+            logger.warn("Finish of unknown or finished task {}", taskId);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        task.setEndTime(new Date(now));
+        change.accept(task);
+        task.setExpiresAt(now + ttlMs);
+        finished.add(task);
+        progressBroadcaster.publish(topic(taskId), null);
+        purge();
+    }
+
+    /**
+     * Drops expired tasks, and the oldest finished ones while there are too many tasks.
+     */
+    private void purge() {
+        long now = System.currentTimeMillis();
+        // Purges take turns, so the head checked is the head removed; finishing tasks still append freely
+        synchronized (finished) {
+            for (ConversionTask head; (head = finished.peek()) != null; ) {
+                if (head.getExpiresAt() > now && tasks.size() < maxTasks) {
+                    break;
+                }
+                finished.poll();
+                tasks.remove(head.getId(), head);
+            }
+        }
+    }
+
+    private static String topic(String taskId) {
+        return "task:" + taskId;
     }
 }
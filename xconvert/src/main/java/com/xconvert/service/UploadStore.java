@@ -0,0 +1,214 @@
+package com.xconvert.service;
+
+import com.xconvert.util.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed store for uploaded files.
+ *
+ * Each upload is hashed with SHA-256 while it is written to a temporary file and then stored
+ * under its hex digest alone, so the same bytes uploaded under any file name share one file.
+ * An upload whose bytes are already stored is dropped and resolves to the existing file.
+ * Callers keep the format, which they take from the original file name.
+ *
+ * Stored files are reference counted: every {@link #store} and committed
+ * {@link PendingUpload} takes a reference, every {@link #release} gives one back, and a file
+ * is deleted when its last reference is released.
+ */
+@Service
+public class UploadStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadStore.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Pattern CONTENT_ADDRESS = Pattern.compile("([0-9a-f]{64})(\\..*)?");
+
+    private final Path uploadDirectory;
+    private final Map<String, Integer> references = new ConcurrentHashMap<>();
+
+    public UploadStore() throws IOException {
+        this.uploadDirectory = Paths.get("/mnt/d/Xconvert/uploads").toAbsolutePath().normalize();
+        Files.createDirectories(uploadDirectory);
+    }
+
+    /**
+     * Stores the content of a stream and takes a reference to it.
+     *
+     * @return the name the content is stored under
+     */
+    public String store(InputStream in) throws IOException {
+        try (InputStream source = in; PendingUpload upload = create()) {
+            IOUtils.copy(source, upload, BUFFER_SIZE);
+            return upload.commit();
+        }
+    }
+
+    /**
+     * Opens a stream that stores what is written to it, for content that is being read by
+     * something else, such as a conversion, at the same time. Nothing is stored unless the
+     * stream is committed.
+     */
+    public PendingUpload create() throws IOException {
+        return new PendingUpload(Files.createTempFile(uploadDirectory, "upload-", ".tmp"));
+    }
+
+    /**
+     * Gives back a reference taken by {@link #store} and deletes the file once none are left.
+     */
+    public void release(String name) {
+        references.compute(name, (key, count) -> {
+            if (count != null && count > 1) {
+                return count - 1;
+            }
+            try {
+                Files.deleteIfExists(uploadDirectory.resolve(key));
+            } catch (IOException e) {
+                logger.warn("Could not delete upload {}: {}", key, e.getMessage());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Moves a complete file into the store and takes a reference to it. The file must be on
+     * the same file system as the store, so the move does not copy it.
+     *
+     * @return the name the content is stored under
+     */
+    public String storeFile(Path file) throws IOException {
+        try {
+            return add(file, FileUtils.sha256(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Moves hashed content to its name in the store, or drops it if the same content is
+     * already stored, and takes a reference.
+     */
+    private String add(Path file, String digest) throws IOException {
+        try {
+            // Computed per name, so a concurrent release cannot delete the file in between
+            references.compute(digest, (key, count) -> {
+                Path stored = uploadDirectory.resolve(key);
+                try {
+                    if (Files.exists(stored)) {
+                        logger.info("Upload matches stored file {}", key);
+                    } else {
+                        Files.move(file, stored, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return count == null ? 1 : count + 1;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return digest;
+    }
+
+    /**
+     * Takes a reference to content stored before a restart, such as the uploads of recovered
+     * batch jobs.
+     *
+     * @return false if the content is no longer stored
+     */
+    public boolean retain(String name) {
+        boolean[] stored = new boolean[1];
+        references.compute(name, (key, count) -> {
+            stored[0] = Files.exists(uploadDirectory.resolve(key));
+            if (!stored[0]) {
+                return count;
+            }
+            return count == null ? 1 : count + 1;
+        });
+        return stored[0];
+    }
+
+    /**
+     * Returns the SHA-256 of a stored file's content, which its name is made of, or null if
+     * the name is not one the store gives out. Files stored by earlier versions carry an
+     * extension after the digest.
+     */
+    public static String getDigest(String name) {
+        Matcher matcher = CONTENT_ADDRESS.matcher(name);
+        return matcher.matches() ? matcher.group(1) : null;
+    }
+
+    public Path resolve(String name) {
+        return uploadDirectory.resolve(name);
+    }
+
+    /**
+     * Content being written to a temporary file and hashed, until it is committed to the store.
+     */
+    public class PendingUpload extends OutputStream {
+
+        private final Path temp;
+        private final MessageDigest digest = FileUtils.newSha256();
+        private final OutputStream out;
+        private boolean closed;
+
+        PendingUpload(Path temp) throws IOException {
+            this.temp = temp;
+            this.out = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE), digest);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+        }
+
+        /**
+         * Stores the content written so far and takes a reference to it.
+         *
+         * @return the name the content is stored under
+         */
+        public String commit() throws IOException {
+            out.close();
+            return add(temp, FileUtils.toHex(digest.digest()));
+        }
+
+        /**
+         * Deletes what was written unless it has been committed.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                out.close();
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.xconvert.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reusable RFC 4180 CSV tokenizer.
+ *
+ * Reads records from a {@link Reader} or from an in-memory char/byte buffer and exposes
+ * each field as a view (offset and length) into a shared char array, so no objects are
+ * allocated per record or per field once the internal buffers have grown to size.
+ *
+ * Quoted fields may contain commas, doubled quotes and line breaks. Unquoted fields are
+ * trimmed of surrounding spaces, tabs and carriage returns. Records end at an unquoted
+ * newline; empty lines are skipped.
+ */
+public class CsvTokenizer {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    private static final int QUOTE_IN_QUOTED = 3;
+    private static final int AFTER_QUOTED = 4;
+
+    private final char[] readBuffer;
+    private Reader reader;
+    private char[] buffer;
+    private int position;
+    private int limit;
+    private boolean atStart;
+
+    private char[] fieldChars = new char[256];
+    private int fieldCharsLength;
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+    private int fieldCount;
+    private long recordCount;
+
+    private CharsetDecoder decoder;
+    private CharBuffer decoded;
+
+    public CsvTokenizer() {
+        this.readBuffer = new char[DEFAULT_BUFFER_SIZE];
+        this.buffer = readBuffer;
+    }
+
+    public CsvTokenizer(Reader reader) {
+        this();
+        reset(reader);
+    }
+
+    /**
+     * Starts tokenizing a new character stream.
+     */
+    public void reset(Reader reader) {
+        this.reader = reader;
+        this.buffer = readBuffer;
+        this.position = 0;
+        this.limit = 0;
+        this.atStart = true;
+        this.recordCount = 0;
+        this.fieldCount = 0;
+    }
+
+    /**
+     * Starts tokenizing characters held in memory. The array is read but never modified.
+     */
+    public void reset(char[] data, int offset, int length) {
+        this.reader = null;
+        this.buffer = data;
+        this.position = offset;
+        this.limit = offset + length;
+        this.atStart = true;
+        this.recordCount = 0;
+        this.fieldCount = 0;
+    }
+
+    /**
+     * Starts tokenizing UTF-8 bytes held in memory, decoding into a reused char buffer.
+     */
+    public void reset(byte[] utf8, int offset, int length) {
+        if (decoder == null) {
+            decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        if (decoded == null || decoded.capacity() < length) {
+            decoded = CharBuffer.allocate(Math.max(length, 256));
+        }
+        decoded.clear();
+        decoder.reset();
+        decoder.decode(ByteBuffer.wrap(utf8, offset, length), decoded, true);
+        decoder.flush(decoded);
+        reset(decoded.array(), 0, decoded.position());
+    }
+
+    /**
+     * Advances to the next non-empty record.
+     *
+     * @return false once the input is exhausted
+     */
+    public boolean next() throws IOException {
+        if (atStart) {
+            atStart = false;
+            // Skip a byte order mark
+            if (position < limit || fill()) {
+                if (buffer[position] == '\uFEFF') {
+                    position++;
+                }
+            }
+        }
+
+        fieldCount = 0;
+        fieldCharsLength = 0;
+        int state = FIELD_START;
+        int fieldStart = 0;
+        int contentEnd = 0;
+        boolean lineHasContent = false;
+
+        while (true) {
+            if (position >= limit && !fill()) {
+                if (!lineHasContent) {
+                    return false;
+                }
+                addField(fieldStart, state == UNQUOTED ? contentEnd : fieldCharsLength);
+                recordCount++;
+                return true;
+            }
+
+            char c = buffer[position++];
+
+            switch (state) {
+                case QUOTED:
+                    if (c == '"') {
+                        state = QUOTE_IN_QUOTED;
+                    } else {
+                        // Copy the run of plain quoted characters in one go
+                        int runStart = position - 1;
+                        while (position < limit && buffer[position] != '"') {
+                            position++;
+                        }
+                        append(buffer, runStart, position - runStart);
+                    }
+                    continue;
+
+                case QUOTE_IN_QUOTED:
+                    if (c == '"') {
+                        // Doubled quote inside a quoted field
+                        append('"');
+                        state = QUOTED;
+                        continue;
+                    }
+                    state = AFTER_QUOTED;
+                    break;
+
+                default:
+                    break;
+            }
+
+            if (c == ',') {
+                lineHasContent = true;
+                addField(fieldStart, state == UNQUOTED ? contentEnd : fieldCharsLength);
+                fieldStart = fieldCharsLength;
+                contentEnd = fieldCharsLength;
+                state = FIELD_START;
+            } else if (c == '\n') {
+                if (!lineHasContent) {
+                    // Skip empty lines
+                    continue;
+                }
+                addField(fieldStart, state == UNQUOTED ? contentEnd : fieldCharsLength);
+                recordCount++;
+                return true;
+            } else if (c == ' ' || c == '\t' || c == '\r') {
+                if (c != '\r') {
+                    lineHasContent = true;
+                }
+                if (state == UNQUOTED) {
+                    append(c);
+                }
+            } else if (c == '"' && state == FIELD_START) {
+                lineHasContent = true;
+                state = QUOTED;
+            } else {
+                lineHasContent = true;
+                if (state == FIELD_START) {
+                    state = UNQUOTED;
+                }
+                if (state == UNQUOTED) {
+                    // Copy the run of plain unquoted characters in one go
+                    int runStart = position - 1;
+                    while (position < limit && isPlain(buffer[position])) {
+                        position++;
+                    }
+                    append(buffer, runStart, position - runStart);
+                    contentEnd = fieldCharsLength;
+                } else {
+                    // Stray characters after a closing quote are kept
+                    append(c);
+                }
+            }
+        }
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Returns the array backing the current record's fields. Valid until the next call to {@link #next()}.
+     */
+    public char[] getBuffer() {
+        return fieldChars;
+    }
+
+    public int getFieldStart(int index) {
+        return fieldStarts[index];
+    }
+
+    public int getFieldLength(int index) {
+        return fieldEnds[index] - fieldStarts[index];
+    }
+
+    /**
+     * Returns a field as a new String. Prefer the buffer views on hot paths.
+     */
+    public String getField(int index) {
+        return new String(fieldChars, fieldStarts[index], fieldEnds[index] - fieldStarts[index]);
+    }
+
+    /**
+     * Returns all fields of the current record as Strings.
+     */
+    public String[] getFields() {
+        String[] fields = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            fields[i] = getField(i);
+        }
+        return fields;
+    }
+
+    /**
+     * Returns the number of records read since the last reset.
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    private static boolean isPlain(char c) {
+        return c != ',' && c != '\n' && c != '\r' && c != '"' && c != ' ' && c != '\t';
+    }
+
+    private boolean fill() throws IOException {
+        if (reader == null) {
+            return false;
+        }
+        int n;
+        do {
+            n = reader.read(buffer, 0, buffer.length);
+        } while (n == 0);
+        if (n < 0) {
+            return false;
+        }
+        position = 0;
+        limit = n;
+        return true;
+    }
+
+    private void append(char c) {
+        if (fieldCharsLength == fieldChars.length) {
+            fieldChars = Arrays.copyOf(fieldChars, fieldChars.length * 2);
+        }
+        fieldChars[fieldCharsLength++] = c;
+    }
+
+    private void append(char[] source, int offset, int length) {
+        if (fieldCharsLength + length > fieldChars.length) {
+            fieldChars = Arrays.copyOf(fieldChars, Math.max(fieldChars.length * 2, fieldCharsLength + length));
+        }
+        System.arraycopy(source, offset, fieldChars, fieldCharsLength, length);
+        fieldCharsLength += length;
+    }
+
+    private void addField(int start, int end) {
+        if (fieldCount == fieldStarts.length) {
+            fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+            fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldCount++;
+    }
+}
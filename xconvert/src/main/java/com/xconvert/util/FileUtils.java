@@ -1,14 +1,27 @@
 package com.xconvert.util;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.input.ProxyInputStream;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.GZIPInputStream;
 
 public class FileUtils {
     
+    private static final int HASH_BUFFER_SIZE = 1024 * 1024;
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    private static final String GZIP_EXTENSION = ".gz";
+    
     public static String getFileExtension(String fileName) {
         return FilenameUtils.getExtension(fileName);
     }
@@ -17,18 +30,112 @@ public class FileUtils {
         return FilenameUtils.getBaseName(fileName);
     }
     
+    /**
+     * Drops a trailing ".gz", so "data.csv.gz" is treated as "data.csv".
+     */
+    public static String stripGzipExtension(String fileName) {
+        if (fileName != null && fileName.toLowerCase().endsWith(GZIP_EXTENSION)) {
+            return fileName.substring(0, fileName.length() - GZIP_EXTENSION.length());
+        }
+        return fileName;
+    }
+    
+    /**
+     * Returns a stream of the uncompressed content: gzip data, recognised by its magic
+     * bytes rather than the file name, is decompressed as it is read. Reading gzip data
+     * fails once more than maxSize bytes have been decompressed, so a small upload cannot
+     * inflate into an unbounded file.
+     */
+    public static InputStream decompressIfGzipped(InputStream in, long maxSize) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, GZIP_BUFFER_SIZE);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        if (first == 0x1f && second == 0x8b) {
+            return limitDecompressed(new GZIPInputStream(buffered, GZIP_BUFFER_SIZE), maxSize);
+        }
+        return buffered;
+    }
+    
+    /**
+     * Fails reading decompressed data with an IOException once more than maxSize bytes
+     * have been read.
+     */
+    public static InputStream limitDecompressed(InputStream in, long maxSize) {
+        return new ProxyInputStream(in) {
+            private long count;
+            
+            @Override
+            protected void afterRead(int n) throws IOException {
+                if (n > 0 && (count += n) > maxSize) {
+                    throw new IOException("Decompressed content is larger than " + maxSize + " bytes");
+                }
+            }
+        };
+    }
+    
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+    
+    /**
+     * Returns the SHA-256 of a file's content as lowercase hexadecimal.
+     */
+    public static String sha256(Path path) throws IOException {
+        MessageDigest digest = newSha256();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return toHex(digest.digest());
+    }
+    
+    /**
+     * Formats a digest as lowercase hexadecimal.
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+    
+    /**
+     * Concatenates the "part-" files of a job output directory into one file, in file name order.
+     */
     public static void mergeFiles(String directory, String outputFile) throws IOException {
+        mergeFiles(directory, outputFile, false);
+    }
+    
+    /**
+     * Concatenates the "part-" files of a job output directory in file name order, optionally
+     * appending to an existing file. Bytes are copied as they are, without re-encoding lines.
+     */
+    public static void mergeFiles(String directory, String outputFile, boolean append) throws IOException {
         File dir = new File(directory);
         File[] files = dir.listFiles((d, name) -> name.startsWith("part-"));
         
         if (files != null && files.length > 0) {
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
+            Arrays.sort(files, Comparator.comparing(File::getName));
+            StandardOpenOption mode = append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING;
+            try (FileChannel out = FileChannel.open(Paths.get(outputFile), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, mode)) {
                 for (File file : files) {
-                    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                        String line;
-                        while ((line = reader.readLine()) != null) {
-                            writer.write(line);
-                            writer.newLine();
+                    try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                        long size = in.size();
+                        long position = 0;
+                        while (position < size) {
+                            position += in.transferTo(position, size - position, out);
                         }
                     }
                 }
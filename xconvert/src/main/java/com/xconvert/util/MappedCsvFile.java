@@ -0,0 +1,410 @@
+package com.xconvert.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A memory-mapped CSV file with a sampled index of record start offsets.
+ *
+ * The index is built by scanning the mapped bytes eight at a time for newlines and quotes
+ * (SWAR: "SIMD within a register"), so only the few bytes around those delimiters are looked
+ * at individually. Records are counted exactly as {@link CsvTokenizer} reads them: line
+ * breaks inside quoted fields do not end a record and empty lines are skipped. The start
+ * offset of every {@code sampleInterval}-th record is kept, so any record can be found by
+ * scanning at most one interval, and chunks can be cut at sampled records without a rescan.
+ *
+ * Record 0 is the header row. Delimiters are ASCII, so scanning UTF-8 bytes is exact.
+ * Mapped memory is released once the instance and its readers are no longer referenced.
+ */
+public class MappedCsvFile {
+
+    public static final int DEFAULT_SAMPLE_INTERVAL = 1024;
+
+    private static final int SEGMENT_SHIFT = 30;
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final long NEWLINES = ONES * '\n';
+    private static final long QUOTES = ONES * '"';
+
+    private final int segmentShift;
+    private final long segmentMask;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+    private final long dataStart;
+    private final int sampleInterval;
+
+    private long[] samples;
+    private int sampleCount;
+    private long recordCount = -1;
+
+    public MappedCsvFile(Path path) throws IOException {
+        this(path, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    public MappedCsvFile(Path path, int sampleInterval) throws IOException {
+        this(path, sampleInterval, SEGMENT_SHIFT);
+    }
+
+    /**
+     * @param segmentShift log2 of the size of each mapped segment; smaller segments let
+     *                     tests cross segment boundaries in small files
+     */
+    MappedCsvFile(Path path, int sampleInterval, int segmentShift) throws IOException {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("Sample interval must be positive: " + sampleInterval);
+        }
+        this.sampleInterval = sampleInterval;
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1L << segmentShift) - 1;
+        long segmentSize = 1L << segmentShift;
+        // The mappings stay valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.size = channel.size();
+            int count = (int) ((size + segmentSize - 1) >>> segmentShift);
+            this.segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = (long) i << segmentShift;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, size - start));
+                // Words are read least significant byte first, so the lowest match is the first in the file
+                segments[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        this.dataStart = hasByteOrderMark() ? 3 : 0;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * Returns the number of records, including the header row.
+     */
+    public long getRecordCount() {
+        buildIndex();
+        return recordCount;
+    }
+
+    /**
+     * Returns the number of sampled records; sample k is record {@code k * sampleInterval}.
+     */
+    public int getSampleCount() {
+        buildIndex();
+        return sampleCount;
+    }
+
+    /**
+     * Returns the byte offset at which record {@code sample * sampleInterval} starts.
+     */
+    public long getSampleOffset(int sample) {
+        buildIndex();
+        if (sample < 0 || sample >= sampleCount) {
+            throw new IndexOutOfBoundsException("Sample " + sample + " of " + sampleCount);
+        }
+        return samples[sample];
+    }
+
+    /**
+     * Returns the byte offset at which a record starts, or the file size for the record
+     * after the last one.
+     */
+    public long getRecordOffset(long record) {
+        buildIndex();
+        if (record < 0 || record > recordCount) {
+            throw new IndexOutOfBoundsException("Record " + record + " of " + recordCount);
+        }
+        if (record == recordCount) {
+            return size;
+        }
+        int sample = (int) (record / sampleInterval);
+        RecordScanner scanner = new RecordScanner(samples[sample]);
+        long offset = -1;
+        for (long skip = record % sampleInterval; skip >= 0; skip--) {
+            offset = scanner.next();
+        }
+        return offset;
+    }
+
+    /**
+     * Splits the data records, which follow the header row, into byte ranges of at least
+     * minSize bytes. Ranges are cut at sampled records, so no part of the file is rescanned.
+     */
+    public List<RecordRange> splitRecords(long minSize) {
+        buildIndex();
+        List<RecordRange> ranges = new ArrayList<>();
+        if (recordCount < 2) {
+            ranges.add(new RecordRange(size, size, 1, 0));
+            return ranges;
+        }
+
+        long rangeStart = getRecordOffset(1);
+        long firstRecord = 1;
+        for (int sample = 1; sample < sampleCount; sample++) {
+            long offset = samples[sample];
+            if (offset - rangeStart >= minSize) {
+                long record = (long) sample * sampleInterval;
+                ranges.add(new RecordRange(rangeStart, offset, firstRecord, record - firstRecord));
+                rangeStart = offset;
+                firstRecord = record;
+            }
+        }
+        ranges.add(new RecordRange(rangeStart, size, firstRecord, recordCount - firstRecord));
+        return ranges;
+    }
+
+    /**
+     * Opens a UTF-8 reader over the bytes in [start, end), decoding straight from mapped memory.
+     */
+    public Reader newReader(long start, long end) {
+        if (start < 0 || end > size || start > end) {
+            throw new IndexOutOfBoundsException("Range " + start + "-" + end + " of " + size);
+        }
+        return new MappedReader(start, end);
+    }
+
+    public Reader newReader() {
+        return newReader(0, size);
+    }
+
+    private synchronized void buildIndex() {
+        if (recordCount >= 0) {
+            return;
+        }
+        long[] offsets = new long[16];
+        int count = 0;
+        long records = 0;
+
+        RecordScanner scanner = new RecordScanner(dataStart);
+        long offset;
+        while ((offset = scanner.next()) >= 0) {
+            if (records % sampleInterval == 0) {
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                // The first record includes the byte order mark, like the tokenizer's input
+                offsets[count++] = records == 0 ? 0 : offset;
+            }
+            records++;
+        }
+
+        samples = offsets;
+        sampleCount = count;
+        recordCount = records;
+    }
+
+    private boolean hasByteOrderMark() {
+        return size >= 3 && byteAt(0) == (byte) 0xEF && byteAt(1) == (byte) 0xBB && byteAt(2) == (byte) 0xBF;
+    }
+
+    private byte byteAt(long offset) {
+        return segments[(int) (offset >>> segmentShift)].get((int) (offset & segmentMask));
+    }
+
+    /**
+     * Returns the offset of the first quote at or after from, or of the first newline too
+     * when newlines is set, or -1 if there is none.
+     */
+    private long find(long from, boolean newlines) {
+        while (from < size) {
+            int segment = (int) (from >>> segmentShift);
+            MappedByteBuffer buffer = segments[segment];
+            long base = (long) segment << segmentShift;
+            int limit = buffer.limit();
+            int i = (int) (from & segmentMask);
+
+            for (; i + 8 <= limit; i += 8) {
+                long word = buffer.getLong(i);
+                long hits = matches(word, QUOTES);
+                if (newlines) {
+                    hits |= matches(word, NEWLINES);
+                }
+                if (hits != 0) {
+                    return base + i + (Long.numberOfTrailingZeros(hits) >>> 3);
+                }
+            }
+            for (; i < limit; i++) {
+                byte b = buffer.get(i);
+                if (b == '"' || (newlines && b == '\n')) {
+                    return base + i;
+                }
+            }
+            from = base + limit;
+        }
+        return -1;
+    }
+
+    /**
+     * Sets the high bit of every byte of word equal to the byte repeated in pattern.
+     * Bytes above a match may be flagged falsely, but the lowest flagged byte is always a match.
+     */
+    private static long matches(long word, long pattern) {
+        long x = word ^ pattern;
+        return (x - ONES) & ~x & HIGHS;
+    }
+
+    /**
+     * Walks record start offsets from a position at which a record (or an empty line) starts.
+     */
+    private class RecordScanner {
+
+        private long position;
+
+        RecordScanner(long position) {
+            this.position = position;
+        }
+
+        /**
+         * Returns the start offset of the next non-empty record, or -1 at the end of the file.
+         */
+        long next() {
+            long lineStart = position;
+            boolean quoted = false;
+            while (true) {
+                long hit = find(position, !quoted);
+                if (hit < 0) {
+                    position = size;
+                    return hasContent(lineStart, size) ? lineStart : -1;
+                }
+                position = hit + 1;
+
+                if (quoted) {
+                    if (position < size && byteAt(position) == '"') {
+                        // Doubled quote inside a quoted field
+                        position++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (byteAt(hit) == '"') {
+                    quoted = isFieldStart(lineStart, hit);
+                } else if (hasContent(lineStart, hit)) {
+                    return lineStart;
+                } else {
+                    // Skip an empty line
+                    lineStart = position;
+                }
+            }
+        }
+
+        /**
+         * Whether a quote opens a quoted field: only blanks may precede it in its field.
+         */
+        private boolean isFieldStart(long lineStart, long quote) {
+            for (long i = quote - 1; i >= lineStart; i--) {
+                byte b = byteAt(i);
+                if (b == ',') {
+                    return true;
+                }
+                if (b != ' ' && b != '\t' && b != '\r') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Whether a line holds anything other than carriage returns.
+         */
+        private boolean hasContent(long lineStart, long lineEnd) {
+            for (long i = lineStart; i < lineEnd; i++) {
+                if (byteAt(i) != '\r') {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Decodes UTF-8 straight from the mapped segments. A character split across two
+     * segments is decoded from a small carry buffer.
+     */
+    private class MappedReader extends Reader {
+
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final ByteBuffer carry = ByteBuffer.allocate(8);
+        private final long end;
+        // Offset of the first byte not yet handed to the decoder
+        private long position;
+        private ByteBuffer window;
+        private boolean flushed;
+
+        MappedReader(long start, long end) {
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read(char[] chars, int offset, int length) {
+            CharBuffer out = CharBuffer.wrap(chars, offset, length);
+            while (out.hasRemaining()) {
+                if (window == null || !window.hasRemaining()) {
+                    if (position >= end) {
+                        if (!flushed) {
+                            decoder.decode(ByteBuffer.allocate(0), out, true);
+                            decoder.flush(out);
+                            flushed = true;
+                        }
+                        break;
+                    }
+                    window = nextWindow();
+                }
+                decoder.decode(window, out, position >= end);
+                if (window.hasRemaining() && out.hasRemaining()) {
+                    // An incomplete character at the end of a segment
+                    carryOver();
+                }
+            }
+            int read = out.position() - offset;
+            return read == 0 && length > 0 ? -1 : read;
+        }
+
+        @Override
+        public void close() {
+            window = null;
+        }
+
+        private ByteBuffer nextWindow() {
+            int segment = (int) (position >>> segmentShift);
+            long base = (long) segment << segmentShift;
+            ByteBuffer slice = segments[segment].duplicate();
+            slice.limit((int) (Math.min(base + slice.limit(), end) - base));
+            slice.position((int) (position - base));
+            position = base + slice.limit();
+            return slice;
+        }
+
+        private void carryOver() {
+            if (window == carry) {
+                carry.compact();
+            } else {
+                carry.clear();
+                carry.put(window);
+            }
+            // A UTF-8 character is at most four bytes long
+            while (carry.position() < 4 && position < end) {
+                carry.put(byteAt(position++));
+            }
+            carry.flip();
+            window = carry;
+        }
+    }
+}
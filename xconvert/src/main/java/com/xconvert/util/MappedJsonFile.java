@@ -0,0 +1,174 @@
+package com.xconvert.util;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A memory-mapped JSON file of records with a sampled index of record start offsets.
+ *
+ * Accepts the record layouts that can be split: an array of objects, or top-level objects
+ * separated by newlines (NDJSON) or commas. Every object at the top level of the array or
+ * stream is a record. The scan tracks strings and escapes, so braces inside string values
+ * never start or end a record, and it keeps the start offset of every
+ * {@code sampleInterval}-th record so that the file can be split without a rescan.
+ */
+public class MappedJsonFile {
+
+    public static final int DEFAULT_SAMPLE_INTERVAL = 1024;
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+    private final MappedByteBuffer[] segments;
+    private final long size;
+    private final int sampleInterval;
+
+    private long[] samples = new long[16];
+    private int sampleCount;
+    private long recordCount;
+
+    public MappedJsonFile(Path path) throws IOException {
+        this(path, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    public MappedJsonFile(Path path, int sampleInterval) throws IOException {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("Sample interval must be positive: " + sampleInterval);
+        }
+        this.sampleInterval = sampleInterval;
+        // The mappings stay valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.size = channel.size();
+            int count = (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+            this.segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = (long) i << SEGMENT_SHIFT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+        }
+        buildIndex();
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Splits the records into byte ranges of at least minSize bytes, cut at sampled records.
+     * A range may also hold the commas, whitespace and closing bracket around its records.
+     */
+    public List<RecordRange> splitRecords(long minSize) {
+        List<RecordRange> ranges = new ArrayList<>();
+        if (recordCount == 0) {
+            ranges.add(new RecordRange(size, size, 1, 0));
+            return ranges;
+        }
+
+        long rangeStart = samples[0];
+        long firstRecord = 1;
+        for (int sample = 1; sample < sampleCount; sample++) {
+            long offset = samples[sample];
+            if (offset - rangeStart >= minSize) {
+                long record = (long) sample * sampleInterval + 1;
+                ranges.add(new RecordRange(rangeStart, offset, firstRecord, record - firstRecord));
+                rangeStart = offset;
+                firstRecord = record;
+            }
+        }
+        ranges.add(new RecordRange(rangeStart, size, firstRecord, recordCount + 1 - firstRecord));
+        return ranges;
+    }
+
+    private void buildIndex() throws IOException {
+        boolean inString = false;
+        boolean escaped = false;
+        boolean started = false;
+        // Depth at which records start: 1 inside a top-level array, 0 for a stream of objects
+        int recordDepth = 0;
+        int depth = 0;
+
+        for (int segment = 0; segment < segments.length; segment++) {
+            MappedByteBuffer buffer = segments[segment];
+            long base = (long) segment << SEGMENT_SHIFT;
+            int limit = buffer.limit();
+
+            for (int i = 0; i < limit; i++) {
+                byte b = buffer.get(i);
+                if (inString) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (b == '\\') {
+                        escaped = true;
+                    } else if (b == '"') {
+                        inString = false;
+                    }
+                    continue;
+                }
+
+                if (!started) {
+                    if (b == '[') {
+                        recordDepth = 1;
+                    } else if (b != '{' && !isSkippable(b, base + i)) {
+                        throw new IOException("Not a JSON array or stream of objects");
+                    }
+                    started = b == '[' || b == '{';
+                }
+
+                switch (b) {
+                    case '"':
+                        inString = true;
+                        break;
+                    case '{':
+                        if (depth == recordDepth) {
+                            addRecord(base + i);
+                        }
+                        depth++;
+                        break;
+                    case '[':
+                        depth++;
+                        break;
+                    case '}':
+                    case ']':
+                        depth--;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        if (inString || depth != 0) {
+            throw new IOException("Unterminated JSON: " + (inString ? "open string" : depth + " open brackets"));
+        }
+    }
+
+    private void addRecord(long offset) {
+        if (recordCount % sampleInterval == 0) {
+            if (sampleCount == samples.length) {
+                samples = Arrays.copyOf(samples, sampleCount * 2);
+            }
+            samples[sampleCount++] = offset;
+        }
+        recordCount++;
+    }
+
+    /**
+     * Whitespace and a leading UTF-8 byte order mark may come before the first value.
+     */
+    private static boolean isSkippable(byte b, long offset) {
+        if (b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+            return true;
+        }
+        return offset < 3 && (b == (byte) 0xEF || b == (byte) 0xBB || b == (byte) 0xBF);
+    }
+}
@@ -0,0 +1,340 @@
+package com.xconvert.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads a multipart/form-data body part by part as it arrives.
+ *
+ * Unlike the container's multipart support, which receives the whole request and spools its
+ * files to disk before the application sees them, each part is handed over as soon as its
+ * headers have arrived and its content is read straight from the request stream. Parts must
+ * be read in order; moving to the next part skips whatever is left of the current one.
+ *
+ * The body is read through one fixed buffer. Content up to a possible boundary is passed on,
+ * and only the few bytes that might start a boundary are held back until more arrive.
+ */
+public class MultipartStreamReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_SIZE = 16 * 1024;
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final InputStream in;
+    // CRLF "--" boundary, which ends every part including the preamble
+    private final byte[] delimiter;
+    private final long maxBytes;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    // Content of the current part is known to end at bodyEnd, at a delimiter if found
+    private int bodyEnd;
+    private boolean delimiterFound;
+    private long bytesRead;
+    private boolean finished;
+    private Part current;
+
+    /**
+     * @param maxBytes the largest body accepted; reading beyond it fails
+     */
+    public MultipartStreamReader(InputStream in, String boundary, long maxBytes) {
+        if (boundary.isEmpty() || boundary.length() > 70) {
+            throw new IllegalArgumentException("Invalid multipart boundary");
+        }
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.maxBytes = maxBytes;
+        // The first boundary has no line break before it; start as if it had, in the preamble
+        System.arraycopy(CRLF, 0, buffer, 0, CRLF.length);
+        limit = CRLF.length;
+    }
+
+    /**
+     * Returns the boundary of a multipart/form-data content type, or null if the content
+     * type is something else.
+     */
+    public static String getBoundary(String contentType) {
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/form-data")) {
+            return null;
+        }
+        String boundary = parseParameters(contentType).get("boundary");
+        return boundary == null || boundary.isEmpty() ? null : boundary;
+    }
+
+    /**
+     * Moves to the next part, skipping the rest of the current one.
+     *
+     * @return the next part, or null after the last one
+     */
+    public Part next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        // Skip the preamble or the rest of the current part
+        while (true) {
+            position = bodyEnd;
+            if (delimiterFound) {
+                break;
+            }
+            if (!fill()) {
+                throw new IOException("Multipart body ended in the middle of a part");
+            }
+            scan();
+        }
+        position += delimiter.length;
+
+        ensure(2);
+        if (buffer[position] == '-' && buffer[position + 1] == '-') {
+            finished = true;
+            current = null;
+            return null;
+        }
+        // The boundary line may end in transport padding
+        String rest = readLine();
+        if (!rest.trim().isEmpty()) {
+            throw new IOException("Malformed multipart boundary line");
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        int headerBytes = 0;
+        for (String line; !(line = readLine()).isEmpty(); ) {
+            headerBytes += line.length();
+            if (headerBytes > MAX_HEADER_SIZE) {
+                throw new IOException("Multipart headers too long");
+            }
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+        }
+        delimiterFound = false;
+        bodyEnd = position;
+        scan();
+        current = new Part(headers);
+        return current;
+    }
+
+    /**
+     * Reads content of the current part, or returns -1 at its end.
+     */
+    private int readBody(byte[] target, int offset, int length) throws IOException {
+        while (position == bodyEnd) {
+            if (delimiterFound) {
+                return -1;
+            }
+            if (!fill()) {
+                throw new IOException("Multipart body ended in the middle of a part");
+            }
+            scan();
+        }
+        int count = Math.min(length, bodyEnd - position);
+        System.arraycopy(buffer, position, target, offset, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Finds where the content in the buffer ends: at the next delimiter, or before the last
+     * bytes if they could be the start of one.
+     */
+    private void scan() {
+        int last = limit - delimiter.length;
+        for (int i = bodyEnd; i <= last; i++) {
+            if (buffer[i] == '\r' && matchesDelimiter(i)) {
+                bodyEnd = i;
+                delimiterFound = true;
+                return;
+            }
+        }
+        bodyEnd = Math.max(bodyEnd, last + 1);
+    }
+
+    private boolean matchesDelimiter(int at) {
+        for (int j = 1; j < delimiter.length; j++) {
+            if (buffer[at + j] != delimiter[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves the unread bytes to the start of the buffer and reads more after them.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            bodyEnd -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            throw new IOException("Multipart line too long");
+        }
+        int count = in.read(buffer, limit, buffer.length - limit);
+        if (count < 0) {
+            return false;
+        }
+        bytesRead += count;
+        if (bytesRead > maxBytes) {
+            throw new IOException("Request body is larger than " + maxBytes + " bytes");
+        }
+        limit += count;
+        return true;
+    }
+
+    private void ensure(int count) throws IOException {
+        while (limit - position < count) {
+            if (!fill()) {
+                throw new IOException("Multipart body ended unexpectedly");
+            }
+        }
+    }
+
+    /**
+     * Reads a header line without its line break.
+     */
+    private String readLine() throws IOException {
+        // Relative to position, which moves when the buffer is filled
+        int scanned = 0;
+        while (true) {
+            for (int i = position + scanned; i + 1 < limit; i++) {
+                if (buffer[i] == '\r' && buffer[i + 1] == '\n') {
+                    // Header values are UTF-8 in browsers' form submissions
+                    String line = new String(buffer, position, i - position, StandardCharsets.UTF_8);
+                    position = i + 2;
+                    return line;
+                }
+            }
+            scanned = Math.max(0, limit - 1 - position);
+            if (!fill()) {
+                throw new IOException("Multipart body ended unexpectedly");
+            }
+        }
+    }
+
+    /**
+     * Splits "value; name=value; name="quoted value"" into its lower-cased parameter names
+     * and values.
+     */
+    private static Map<String, String> parseParameters(String header) {
+        Map<String, String> parameters = new HashMap<>();
+        int i = header.indexOf(';');
+        while (i >= 0 && i < header.length()) {
+            int equals = header.indexOf('=', i + 1);
+            if (equals < 0) {
+                break;
+            }
+            String name = header.substring(i + 1, equals).trim().toLowerCase(Locale.ROOT);
+            int start = equals + 1;
+            String value;
+            if (start < header.length() && header.charAt(start) == '"') {
+                StringBuilder quoted = new StringBuilder();
+                int j = start + 1;
+                for (; j < header.length() && header.charAt(j) != '"'; j++) {
+                    char c = header.charAt(j);
+                    if (c == '\\' && j + 1 < header.length()) {
+                        c = header.charAt(++j);
+                    }
+                    quoted.append(c);
+                }
+                value = quoted.toString();
+                i = header.indexOf(';', j);
+            } else {
+                int end = header.indexOf(';', start);
+                value = header.substring(start, end < 0 ? header.length() : end).trim();
+                i = end;
+            }
+            parameters.put(name, value);
+        }
+        return parameters;
+    }
+
+    /**
+     * One part of the body: a form field or a file.
+     */
+    public class Part {
+
+        private final Map<String, String> headers;
+        private final Map<String, String> disposition;
+        private final InputStream content = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] target, int offset, int length) throws IOException {
+                if (current != Part.this) {
+                    return -1;
+                }
+                if (length == 0) {
+                    return 0;
+                }
+                return readBody(target, offset, length);
+            }
+
+            @Override
+            public void close() {
+                // The request stream stays open for the following parts
+            }
+        };
+
+        Part(Map<String, String> headers) {
+            this.headers = headers;
+            String header = headers.get("content-disposition");
+            this.disposition = header != null ? parseParameters(header) : new HashMap<>();
+        }
+
+        /**
+         * The form field name.
+         */
+        public String getName() {
+            return disposition.get("name");
+        }
+
+        /**
+         * The name of the uploaded file, or null for a plain form field.
+         */
+        public String getFileName() {
+            return disposition.get("filename");
+        }
+
+        public String getContentType() {
+            return headers.get("content-type");
+        }
+
+        /**
+         * The content of the part, read from the request as it arrives. Ends when the reader
+         * moves to the next part.
+         */
+        public InputStream getInputStream() {
+            return content;
+        }
+
+        /**
+         * Reads the content of a form field as UTF-8.
+         *
+         * @throws IOException if it is longer than maxBytes
+         */
+        public String getString(int maxBytes) throws IOException {
+            ByteArrayOutputStream value = new ByteArrayOutputStream();
+            byte[] chunk = new byte[1024];
+            for (int n; (n = content.read(chunk)) >= 0; ) {
+                value.write(chunk, 0, n);
+                if (value.size() > maxBytes) {
+                    throw new IOException("Form field " + getName() + " is longer than " + maxBytes + " bytes");
+                }
+            }
+            return new String(value.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
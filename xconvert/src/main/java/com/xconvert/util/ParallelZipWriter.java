@@ -0,0 +1,416 @@
+package com.xconvert.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a ZIP archive whose entries are deflated on a pool of threads, in the way of pigz.
+ *
+ * Files are read in blocks of 128 KB and every block is deflated by its own task, primed
+ * with the last 32 KB of the block before it so that matches still reach back across
+ * blocks. Blocks other than the last of an entry end with a sync flush, which aligns them
+ * to a byte boundary, so the deflated blocks concatenate into one valid deflate stream.
+ * The caller's thread reads the files, computes their CRCs and writes the finished blocks
+ * in order; it runs at most a fixed number of blocks ahead of the writing.
+ *
+ * Sizes and CRCs of deflated entries follow their data in a data descriptor, so nothing is
+ * buffered beyond the blocks in flight. ZIP64 records are written where sizes, offsets or
+ * the entry count exceed the limits of the original format.
+ */
+public class ParallelZipWriter implements Closeable {
+
+    private static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int ZIP64_END = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int END = 0x06054b50;
+    private static final short ZIP64_EXTRA = 0x0001;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int FLAG_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final long LIMIT = 0xFFFFFFFFL;
+    private static final int ENTRY_LIMIT = 0xFFFF;
+
+    private final OutputStream out;
+    private final ExecutorService pool;
+    private final int level;
+    private final int window;
+    private final int dosTime;
+    private final int dosDate;
+
+    private final Deque<Step> steps = new ArrayDeque<>();
+    private final List<Entry> entries = new ArrayList<>();
+    private final ByteBuffer header = ByteBuffer.allocate(128 + 0xFFFF).order(ByteOrder.LITTLE_ENDIAN);
+    private long written;
+    private boolean finished;
+
+    /**
+     * @param level  deflate level, 0-9 or -1 for the default
+     * @param window how many blocks may be read ahead of the one being written
+     */
+    public ParallelZipWriter(OutputStream out, ExecutorService pool, int level, int window) {
+        this.out = out;
+        this.pool = pool;
+        this.level = level;
+        this.window = Math.max(1, window);
+
+        LocalDateTime now = LocalDateTime.now();
+        this.dosTime = now.getHour() << 11 | now.getMinute() << 5 | now.getSecond() >> 1;
+        this.dosDate = Math.max(0, now.getYear() - 1980) << 9 | now.getMonthValue() << 5 | now.getDayOfMonth();
+    }
+
+    /**
+     * Adds a file as a deflated entry.
+     */
+    public void putDeflated(String name, Path file) throws IOException {
+        long expectedSize = Files.size(file);
+        // Deflate can grow incompressible data slightly, so leave headroom before the limit
+        Entry entry = new Entry(name, DEFLATED, expectedSize + (expectedSize >>> 8) + 1024 >= LIMIT);
+        steps.add(() -> writeLocalHeader(entry));
+
+        CRC32 crc = new CRC32();
+        long size = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] dictionary = null;
+            while (true) {
+                byte[] block = in.readNBytes(BLOCK_SIZE);
+                crc.update(block);
+                size += block.length;
+
+                // A short block is the last; a file that fills its last block ends with an empty one
+                boolean last = block.length < BLOCK_SIZE;
+                byte[] priming = dictionary;
+                Future<byte[]> deflated = pool.submit(() -> deflate(block, priming, last));
+                steps.add(new Step() {
+                    @Override
+                    public void write() throws IOException {
+                        byte[] data = getResult(deflated);
+                        writeBytes(data, 0, data.length);
+                        entry.compressedSize += data.length;
+                    }
+
+                    @Override
+                    public void cancel() {
+                        deflated.cancel(true);
+                    }
+                });
+                drain(window);
+
+                if (last) {
+                    break;
+                }
+                dictionary = Arrays.copyOfRange(block, block.length - DICTIONARY_SIZE, block.length);
+            }
+        }
+
+        entry.crc = crc.getValue();
+        entry.size = size;
+        steps.add(() -> writeDataDescriptor(entry));
+    }
+
+    /**
+     * Adds a file as a stored entry. The file is read once up front for its CRC, which the
+     * local header of a stored entry must carry.
+     */
+    public void putStored(String name, Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long size = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+                size += read;
+            }
+        }
+
+        Entry entry = new Entry(name, STORED, size >= LIMIT);
+        entry.crc = crc.getValue();
+        entry.size = size;
+        entry.compressedSize = size;
+        steps.add(() -> {
+            writeLocalHeader(entry);
+            try (InputStream in = Files.newInputStream(file)) {
+                long copied = 0;
+                int read;
+                while (copied < entry.size && (read = in.read(buffer, 0, (int) Math.min(buffer.length, entry.size - copied))) > 0) {
+                    writeBytes(buffer, 0, read);
+                    copied += read;
+                }
+                if (copied != entry.size) {
+                    throw new IOException("File changed while archiving: " + file);
+                }
+            }
+        });
+        drain(window);
+    }
+
+    /**
+     * Writes the remaining entries and the central directory, leaving the stream open.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        drain(0);
+
+        long directoryOffset = written;
+        for (Entry entry : entries) {
+            writeCentralHeader(entry);
+        }
+        long directorySize = written - directoryOffset;
+        writeEnd(directoryOffset, directorySize);
+        out.flush();
+        finished = true;
+    }
+
+    /**
+     * Cancels blocks still in flight if the archive was not finished, and closes the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            for (Step step : steps) {
+                step.cancel();
+            }
+            steps.clear();
+        }
+        out.close();
+    }
+
+    private void drain(int keep) throws IOException {
+        while (steps.size() > keep) {
+            steps.poll().write();
+        }
+    }
+
+    private byte[] deflate(byte[] block, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(block);
+            if (last) {
+                deflater.finish();
+            }
+
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(block.length / 2 + 64);
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            while (true) {
+                int length = deflater.deflate(buffer, 0, buffer.length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                deflated.write(buffer, 0, length);
+                // A flush is complete once it leaves room in the buffer
+                if (last ? deflater.finished() : length < buffer.length) {
+                    return deflated.toByteArray();
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        entry.offset = written;
+        entries.add(entry);
+
+        boolean deferred = entry.method == DEFLATED;
+        header.clear();
+        header.putInt(LOCAL_HEADER);
+        header.putShort((short) (entry.zip64 ? VERSION_ZIP64 : VERSION));
+        header.putShort((short) entry.flags());
+        header.putShort((short) entry.method);
+        header.putShort((short) dosTime);
+        header.putShort((short) dosDate);
+        header.putInt(deferred ? 0 : (int) entry.crc);
+        if (entry.zip64) {
+            header.putInt((int) LIMIT);
+            header.putInt((int) LIMIT);
+        } else {
+            header.putInt(deferred ? 0 : (int) entry.compressedSize);
+            header.putInt(deferred ? 0 : (int) entry.size);
+        }
+        header.putShort((short) entry.name.length);
+        header.putShort((short) (entry.zip64 ? 20 : 0));
+        header.put(entry.name);
+        if (entry.zip64) {
+            header.putShort(ZIP64_EXTRA);
+            header.putShort((short) 16);
+            header.putLong(deferred ? 0 : entry.size);
+            header.putLong(deferred ? 0 : entry.compressedSize);
+        }
+        writeHeader();
+    }
+
+    private void writeDataDescriptor(Entry entry) throws IOException {
+        header.clear();
+        header.putInt(DATA_DESCRIPTOR);
+        header.putInt((int) entry.crc);
+        if (entry.zip64) {
+            header.putLong(entry.compressedSize);
+            header.putLong(entry.size);
+        } else {
+            if (entry.compressedSize >= LIMIT || entry.size >= LIMIT) {
+                throw new IOException("Entry outgrew its size estimate: " + new String(entry.name, StandardCharsets.UTF_8));
+            }
+            header.putInt((int) entry.compressedSize);
+            header.putInt((int) entry.size);
+        }
+        writeHeader();
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        boolean largeSize = entry.size >= LIMIT;
+        boolean largeCompressed = entry.compressedSize >= LIMIT;
+        boolean largeOffset = entry.offset >= LIMIT;
+        int extraLength = (largeSize ? 8 : 0) + (largeCompressed ? 8 : 0) + (largeOffset ? 8 : 0);
+        int version = entry.zip64 || extraLength > 0 ? VERSION_ZIP64 : VERSION;
+
+        header.clear();
+        header.putInt(CENTRAL_HEADER);
+        header.putShort((short) version);
+        header.putShort((short) version);
+        header.putShort((short) entry.flags());
+        header.putShort((short) entry.method);
+        header.putShort((short) dosTime);
+        header.putShort((short) dosDate);
+        header.putInt((int) entry.crc);
+        header.putInt((int) (largeCompressed ? LIMIT : entry.compressedSize));
+        header.putInt((int) (largeSize ? LIMIT : entry.size));
+        header.putShort((short) entry.name.length);
+        header.putShort((short) (extraLength > 0 ? extraLength + 4 : 0));
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putInt(0);
+        header.putInt((int) (largeOffset ? LIMIT : entry.offset));
+        header.put(entry.name);
+        if (extraLength > 0) {
+            header.putShort(ZIP64_EXTRA);
+            header.putShort((short) extraLength);
+            if (largeSize) {
+                header.putLong(entry.size);
+            }
+            if (largeCompressed) {
+                header.putLong(entry.compressedSize);
+            }
+            if (largeOffset) {
+                header.putLong(entry.offset);
+            }
+        }
+        writeHeader();
+    }
+
+    private void writeEnd(long directoryOffset, long directorySize) throws IOException {
+        int count = entries.size();
+        boolean zip64 = count >= ENTRY_LIMIT || directoryOffset >= LIMIT || directorySize >= LIMIT;
+
+        header.clear();
+        if (zip64) {
+            long zip64EndOffset = written;
+            header.putInt(ZIP64_END);
+            header.putLong(44);
+            header.putShort((short) VERSION_ZIP64);
+            header.putShort((short) VERSION_ZIP64);
+            header.putInt(0);
+            header.putInt(0);
+            header.putLong(count);
+            header.putLong(count);
+            header.putLong(directorySize);
+            header.putLong(directoryOffset);
+
+            header.putInt(ZIP64_LOCATOR);
+            header.putInt(0);
+            header.putLong(zip64EndOffset);
+            header.putInt(1);
+        }
+        header.putInt(END);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putShort((short) Math.min(count, ENTRY_LIMIT));
+        header.putShort((short) Math.min(count, ENTRY_LIMIT));
+        header.putInt((int) Math.min(directorySize, LIMIT));
+        header.putInt((int) Math.min(directoryOffset, LIMIT));
+        header.putShort((short) 0);
+        writeHeader();
+    }
+
+    private void writeHeader() throws IOException {
+        writeBytes(header.array(), 0, header.position());
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        written += length;
+    }
+
+    private static byte[] getResult(Future<byte[]> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while deflating", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error deflating block: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * A write to the archive, queued behind the blocks read before it.
+     */
+    private interface Step {
+        void write() throws IOException;
+
+        default void cancel() {
+        }
+    }
+
+    private static class Entry {
+        final byte[] name;
+        final int method;
+        // Whether the local header reserves ZIP64 sizes
+        final boolean zip64;
+        long crc;
+        long size;
+        long compressedSize;
+        long offset;
+
+        Entry(String name, int method, boolean zip64) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.method = method;
+            this.zip64 = zip64;
+        }
+
+        int flags() {
+            return FLAG_UTF8 | (method == DEFLATED ? FLAG_DESCRIPTOR : 0);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.xconvert.util;
+
+/**
+ * A byte range of a file holding consecutive whole records.
+ */
+public final class RecordRange {
+
+    private final long start;
+    private final long end;
+    private final long firstRecord;
+    private final long recordCount;
+
+    public RecordRange(long start, long end, long firstRecord, long recordCount) {
+        this.start = start;
+        this.end = end;
+        this.firstRecord = firstRecord;
+        this.recordCount = recordCount;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Number of the first record in the range; data records are numbered from 1.
+     */
+    public long getFirstRecord() {
+        return firstRecord;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+}
@@ -24,6 +24,9 @@ document.addEventListener('DOMContentLoaded', function() {
     let batchJobId = null;
     let uploadedFiles = [];
     let pollingInterval = null;
+    let batchEvents = null;
+    // Version of the latest item change seen by polling; only later changes are fetched
+    let statusVersion = 0;
     
     // File format mappings
     const fileExtensionMap = {
@@ -125,6 +128,17 @@ document.addEventListener('DOMContentLoaded', function() {
         });
     }
     
+    // Compresses a file with gzip before upload when the browser can; the server decompresses it
+    function compressForUpload(file) {
+        if (!window.CompressionStream || /\.gz$/i.test(file.name)) {
+            return Promise.resolve({ blob: file, name: file.name });
+        }
+        const compressed = file.stream().pipeThrough(new CompressionStream('gzip'));
+        return new Response(compressed).blob()
+            .then(blob => ({ blob: blob, name: file.name + '.gz' }))
+            .catch(() => ({ blob: file, name: file.name }));
+    }
+    
     function uploadFile(file) {
         if (!batchJobId) {
             alert('Please create a batch job first');
@@ -136,14 +150,16 @@ document.addEventListener('DOMContentLoaded', function() {
         const fileItem = createFileItem(file, fileId, 'pending');
         fileList.appendChild(fileItem);
         
-        // Create form data
-        const formData = new FormData();
-        formData.append('file', file);
-        
-        // Upload file
-        fetch(`${API_BASE_URL}/upload/${batchJobId}`, {
-            method: 'POST',
-            body: formData
+        // Upload file, gzip-compressed when the browser can
+        compressForUpload(file)
+        .then(upload => {
+            const formData = new FormData();
+            formData.append('file', upload.blob, upload.name);
+            
+            return fetch(`${API_BASE_URL}/upload/${batchJobId}`, {
+                method: 'POST',
+                body: formData
+            });
         })
         .then(response => {
             if (!response.ok) {
@@ -256,6 +272,32 @@ document.addEventListener('DOMContentLoaded', function() {
     }
     
     function startPolling() {
+        // Server-sent events push each change; polling is the fallback
+        if (window.EventSource) {
+            batchEvents = new EventSource(`${API_BASE_URL}/events/${batchJobId}`);
+            let received = false;
+            
+            batchEvents.addEventListener('progress', event => {
+                received = true;
+                showBatchStatus(JSON.parse(event.data));
+            });
+            
+            batchEvents.onerror = () => {
+                // The browser reconnects by itself once the stream has worked
+                if (!received) {
+                    batchEvents.close();
+                    batchEvents = null;
+                    startIntervalPolling();
+                }
+            };
+            return;
+        }
+        startIntervalPolling();
+    }
+    
+    function startIntervalPolling() {
+        statusVersion = 0;
+        
         // Update status immediately
         updateBatchStatus();
         
@@ -264,14 +306,50 @@ document.addEventListener('DOMContentLoaded', function() {
     }
     
     function stopPolling() {
+        if (batchEvents) {
+            batchEvents.close();
+            batchEvents = null;
+        }
         if (pollingInterval) {
             clearInterval(pollingInterval);
             pollingInterval = null;
         }
     }
     
+    function showBatchStatus(data) {
+        console.log('Batch status:', data);
+        
+        // Update progress
+        const total = data.totalItems;
+        const completed = data.completedItems + data.failedItems;
+        const percentage = data.percent !== undefined ? data.percent : (total > 0 ? (completed / total) * 100 : 0);
+        
+        totalCount.textContent = total;
+        completedCount.textContent = completed;
+        batchProgressBar.style.width = `${percentage}%`;
+        
+        // Update status of each file
+        updateFileStatuses(data.items);
+        
+        // Check if processing is complete
+        if (data.status === 'completed' || data.status === 'completed_with_errors' || data.status === 'failed') {
+            stopPolling();
+            
+            // Enable download button if there are completed items
+            if (data.completedItems > 0) {
+                downloadBatchBtn.disabled = false;
+            }
+            
+            // Add summary
+            const summary = document.createElement('div');
+            summary.className = 'status-item ' + (data.status === 'failed' ? 'error' : 'success');
+            summary.textContent = `Batch processing ${data.status}: ${data.completedItems} of ${total} files converted successfully.`;
+            processingStatus.appendChild(summary);
+        }
+    }
+    
     function updateBatchStatus() {
-        fetch(`${API_BASE_URL}/status/${batchJobId}`)
+        fetch(`${API_BASE_URL}/status/${batchJobId}?since=${statusVersion}`)
             .then(response => {
                 if (!response.ok) {
                     throw new Error('Failed to get batch status');
@@ -279,35 +357,14 @@ document.addEventListener('DOMContentLoaded', function() {
                 return response.json();
             })
             .then(data => {
-                console.log('Batch status:', data);
-                
-                // Update progress
-                const total = data.totalItems;
-                const completed = data.completedItems + data.failedItems;
-                const percentage = total > 0 ? (completed / total) * 100 : 0;
-                
-                totalCount.textContent = total;
-                completedCount.textContent = completed;
-                batchProgressBar.style.width = `${percentage}%`;
-                
-                // Update status of each file
-                updateFileStatuses(data.items);
-                
-                // Check if processing is complete
-                if (data.status === 'completed' || data.status === 'completed_with_errors' || data.status === 'failed') {
-                    stopPolling();
-                    
-                    // Enable download button if there are completed items
-                    if (data.completedItems > 0) {
-                        downloadBatchBtn.disabled = false;
-                    }
-                    
-                    // Add summary
-                    const summary = document.createElement('div');
-                    summary.className = 'status-item ' + (data.status === 'failed' ? 'error' : 'success');
-                    summary.textContent = `Batch processing ${data.status}: ${data.completedItems} of ${total} files converted successfully.`;
-                    processingStatus.appendChild(summary);
+                statusVersion = data.nextSince;
+                if (data.hasMore) {
+                    // Fetch the remaining changed items before showing the summary
+                    updateFileStatuses(data.items);
+                    updateBatchStatus();
+                    return;
                 }
+                showBatchStatus(data);
             })
             .catch(error => {
                 console.error('Error getting batch status:', error);
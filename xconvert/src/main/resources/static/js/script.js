@@ -86,7 +86,19 @@ document.addEventListener('DOMContentLoaded', function() {
     }
     
     function getFileExtension(filename) {
-        return filename.split('.').pop();
+        // data.csv.gz holds a CSV file
+        return filename.replace(/\.gz$/i, '').split('.').pop();
+    }
+    
+    // Compresses a file with gzip before upload when the browser can; the server decompresses it
+    function compressForUpload(file) {
+        if (!window.CompressionStream || /\.gz$/i.test(file.name)) {
+            return Promise.resolve({ blob: file, name: file.name });
+        }
+        const compressed = file.stream().pipeThrough(new CompressionStream('gzip'));
+        return new Response(compressed).blob()
+            .then(blob => ({ blob: blob, name: file.name + '.gz' }))
+            .catch(() => ({ blob: file, name: file.name }));
     }
     
     function formatFileSize(bytes) {
@@ -99,6 +111,41 @@ document.addEventListener('DOMContentLoaded', function() {
         return parseFloat((bytes / Math.pow(k, i)).toFixed(2)) + ' ' + sizes[i];
     }
     
+    // Follow task progress through server-sent events, falling back to polling
+    function watchTaskStatus(taskId) {
+        if (!window.EventSource) {
+            return pollTaskStatus(taskId);
+        }
+        return new Promise((resolve, reject) => {
+            const events = new EventSource(`${API_BASE_URL}/events/${taskId}`);
+            let received = false;
+            
+            events.addEventListener('progress', event => {
+                received = true;
+                const data = JSON.parse(event.data);
+                console.log('Status event:', data);
+                
+                if (data.status === 'completed') {
+                    events.close();
+                    resolve(data.outputFileName);
+                } else if (data.status === 'error' || data.status === 'unknown') {
+                    events.close();
+                    reject(new Error(data.error || 'Conversion failed'));
+                } else {
+                    progressBar.style.width = `${60 + Math.round(data.percent * 0.4)}%`;
+                }
+            });
+            
+            events.onerror = () => {
+                // The browser reconnects by itself once the stream has worked
+                if (!received) {
+                    events.close();
+                    pollTaskStatus(taskId).then(resolve, reject);
+                }
+            };
+        });
+    }
+    
     // Poll for task status
     function pollTaskStatus(taskId) {
         return new Promise((resolve, reject) => {
@@ -111,12 +158,12 @@ document.addEventListener('DOMContentLoaded', function() {
                         if (data.status === 'completed') {
                             // Conversion completed
                             resolve(data.outputFileName);
-                        } else if (data.status === 'error') {
-                            // Conversion failed
+                        } else if (data.status === 'error' || data.status === 'unknown') {
+                            // Conversion failed, or the task expired
                             reject(new Error(data.error || 'Conversion failed'));
                         } else {
                             // Still processing, update progress
-                            updateProgress(data.status);
+                            updateProgress(data);
                             // Continue polling
                             setTimeout(checkStatus, 2000);
                         }
@@ -133,11 +180,9 @@ document.addEventListener('DOMContentLoaded', function() {
     }
     
     // Update progress based on status
-    function updateProgress(status) {
-        if (status === 'processing') {
-            // Random progress between 60% and 90% to show activity
-            const randomProgress = Math.floor(Math.random() * 30) + 60;
-            progressBar.style.width = `${randomProgress}%`;
+    function updateProgress(data) {
+        if (data.status === 'processing') {
+            progressBar.style.width = `${60 + Math.round(data.percent * 0.4)}%`;
         }
     }
     
@@ -179,23 +224,30 @@ document.addEventListener('DOMContentLoaded', function() {
         convertBtn.disabled = true;
         convertBtn.textContent = 'Processing...';
         
-        // Create form data for file upload
-        const formData = new FormData();
-        formData.append('file', fileInput.files[0]);
-        formData.append('sourceFormat', detectedSourceFormat);
-        formData.append('targetFormat', targetFormat);
-        
         console.log('Uploading file:', fileInput.files[0].name);
         console.log('Source format:', detectedSourceFormat);
         console.log('Target format:', targetFormat);
         
-        // Send upload request
-        fetch(`${API_BASE_URL}/upload`, {
-            method: 'POST',
-            body: formData
+        compressForUpload(fileInput.files[0])
+        .then(upload => {
+            // Create form data for file upload
+            const formData = new FormData();
+            formData.append('file', upload.blob, upload.name);
+            formData.append('sourceFormat', detectedSourceFormat);
+            formData.append('targetFormat', targetFormat);
+            
+            // Send upload request
+            return fetch(`${API_BASE_URL}/upload`, {
+                method: 'POST',
+                body: formData
+            });
         })
         .then(response => {
             console.log('Upload response status:', response.status);
+            if (response.status === 429) {
+                const retryAfter = response.headers.get('Retry-After') || 'a few';
+                throw new Error(`Server is busy converting other files, please try again in ${retryAfter} seconds`);
+            }
             if (!response.ok) {
                 return response.text().then(text => {
                     throw new Error(`File upload failed: ${text}`);
@@ -208,8 +260,8 @@ document.addEventListener('DOMContentLoaded', function() {
             progressBar.style.width = '60%';
             resultMessage.textContent = 'Processing file...';
             
-            // Start polling for status
-            return pollTaskStatus(data.taskId);
+            // Follow the conversion until it finishes
+            return watchTaskStatus(data.taskId);
         })
         .then(outputFileName => {
             console.log('Conversion successful, file name:', outputFileName);
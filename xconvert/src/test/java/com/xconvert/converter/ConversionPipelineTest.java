@@ -0,0 +1,56 @@
+package com.xconvert.converter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConversionPipelineTest {
+
+    private static final String JSON = "[{\"id\":1,\"name\":\"a\"},{\"id\":2},{\"id\":3,\"name\":\"c\",\"email\":\"c@x\"}]";
+
+    @TempDir
+    Path tempDir;
+
+    private final ConversionPipeline pipeline = new ConversionPipeline(new ConverterRegistry(
+            List.of(new CsvFormat(), new JsonFormat(), new XmlFormat(), new TextFormat())));
+
+    @Test
+    public void fileConversionCollectsFieldsOfEveryRecord() throws IOException {
+        Path source = Files.write(tempDir.resolve("in.json"), JSON.getBytes(StandardCharsets.UTF_8));
+        Path target = tempDir.resolve("out.csv");
+
+        assertEquals(3, pipeline.convert(source, "json", target, "csv"));
+        assertEquals("id,name,email\n1,a,\n2,,\n3,c,c@x\n", Files.readString(target));
+    }
+
+    @Test
+    public void streamedConversionTakesHeaderFromFirstRecord() throws IOException {
+        String json = "[{\"id\":1,\"name\":\"a\"},{\"name\":\"b, c\"},{\"id\":3,\"name\":\"d\"}]";
+
+        assertEquals("id,name\n1,a\n,\"b, c\"\n3,d\n", stream(json));
+    }
+
+    @Test
+    public void streamedConversionFailsOnFieldMissingFromFirstRecord() {
+        IOException e = assertThrows(IOException.class, () -> stream(JSON));
+        assertTrue(e.getMessage().contains("Record 3 has the field \"email\""), e.getMessage());
+        assertTrue(e.getMessage().contains("first record"), e.getMessage());
+    }
+
+    private String stream(String json) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pipeline.convert(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), "json", out, "csv");
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,61 @@
+package com.xconvert.converter;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConverterRegistryTest {
+
+    @Test
+    public void asksEachSinkOnceWhenFormatsAreRegistered() {
+        CountingFormat csv = new CountingFormat(new CsvFormat());
+        CountingFormat json = new CountingFormat(new JsonFormat());
+        ConverterRegistry registry = new ConverterRegistry(List.of(csv, json, new XmlFormat(), new TextFormat()));
+        assertEquals(1, csv.sinksOpened);
+        assertEquals(1, json.sinksOpened);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(registry.supportsParts("csv"));
+            assertTrue(registry.supportsParts("JSON"));
+            assertTrue(registry.requiresFieldNames("csv"));
+            assertFalse(registry.requiresFieldNames("json"));
+        }
+        assertEquals(1, csv.sinksOpened);
+        assertEquals(1, json.sinksOpened);
+
+        assertFalse(registry.supportsParts("yaml"));
+        assertFalse(registry.requiresFieldNames(null));
+    }
+
+    private static class CountingFormat implements RecordFormat {
+        private final RecordFormat format;
+        int sinksOpened;
+
+        CountingFormat(RecordFormat format) {
+            this.format = format;
+        }
+
+        @Override
+        public String getName() {
+            return format.getName();
+        }
+
+        @Override
+        public RecordSource openSource(InputStream in) throws IOException {
+            return format.openSource(in);
+        }
+
+        @Override
+        public RecordSink openSink(OutputStream out) throws IOException {
+            sinksOpened++;
+            return format.openSink(out);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.xconvert.converter;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JsonRecordReaderTest {
+
+    @Test
+    public void readsPlainTextAsOneRecord() throws IOException {
+        try (JsonRecordReader reader = reader("\n  just some text \n")) {
+            Record record = new Record();
+            assertTrue(reader.next(record));
+            assertEquals(1, record.size());
+            assertEquals("value", record.getName(0));
+            assertEquals("just some text", record.getValue(0));
+            assertFalse(reader.next(record));
+        }
+    }
+
+    @Test
+    public void refusesPlainTextLongerThanTheLimit() {
+        // Far more than the limit, of which no more than the limit is read
+        long size = 64L * 1024 * 1024;
+        long[] read = new long[1];
+        InputStream text = new InputStream() {
+            @Override
+            public int read() {
+                return read[0] < size ? 'a' + (int) (read[0]++ % 26) : -1;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) {
+                int count = (int) Math.min(length, size - read[0]);
+                if (count <= 0) {
+                    return -1;
+                }
+                for (int i = 0; i < count; i++) {
+                    bytes[offset + i] = (byte) ('a' + (int) (read[0]++ % 26));
+                }
+                return count;
+            }
+        };
+
+        IOException e = assertThrows(IOException.class, () -> new JsonRecordReader(text));
+        assertTrue(e.getMessage().contains("plain text"), e.getMessage());
+        assertTrue(read[0] <= 16 * 1024 * 1024 + 1, "read " + read[0]);
+    }
+
+    @Test
+    public void readsObjectsSeparatedByCommas() throws IOException {
+        try (JsonRecordReader reader = reader("{\"id\":1,\"tags\":[\"a\",\"b\"]},\n{\"id\":2}")) {
+            Record record = new Record();
+            assertTrue(reader.next(record));
+            assertEquals("[\"a\",\"b\"]", record.getValue(1));
+            assertTrue(reader.next(record));
+            assertEquals("2", record.getValue(0));
+            assertFalse(reader.next(record));
+        }
+    }
+
+    private static JsonRecordReader reader(String json) throws IOException {
+        return new JsonRecordReader(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+}
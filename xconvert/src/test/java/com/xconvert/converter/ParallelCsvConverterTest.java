@@ -0,0 +1,84 @@
+package com.xconvert.converter;
+
+import com.xconvert.util.MappedCsvFile;
+import com.xconvert.util.RecordRange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ParallelCsvConverterTest {
+
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    private final ConverterRegistry registry = new ConverterRegistry(
+            List.of(new CsvFormat(), new JsonFormat(), new XmlFormat(), new TextFormat()));
+    private final ConversionPipeline pipeline = new ConversionPipeline(registry);
+    private final ParallelCsvConverter converter = new ParallelCsvConverter(registry, 2);
+
+    @AfterEach
+    public void shutdown() {
+        converter.shutdown();
+    }
+
+    @Test
+    public void matchesStreamingConversionAcrossChunks() throws IOException {
+        // Every record has a quoted line break, so one is next to every split point
+        StringBuilder csv = new StringBuilder("id,name,note,city\n");
+        Random random = new Random(11);
+        String[] notes = {"first line\nsecond line", "\"quoted\", then\nbroken", "\nstarts broken", "ends broken\n",
+                "crlf\r\ninside", "two\n\nbreaks"};
+        String[] cities = {"Berlin", "São Paulo", "Zürich", "", "a, b"};
+        for (int id = 1; csv.length() < 4 * MIN_CHUNK_SIZE + 12345; id++) {
+            String note = notes[random.nextInt(notes.length)];
+            String city = cities[random.nextInt(cities.length)];
+            csv.append(id).append(",name ").append(random.nextInt(100000)).append(",\"")
+                    .append(note.replace("\"", "\"\"")).append("\",")
+                    .append(city.contains(",") ? "\"" + city + "\"" : city).append('\n');
+        }
+        Path source = Files.write(tempDir.resolve("large.csv"), csv.toString().getBytes(StandardCharsets.UTF_8));
+
+        // The converter splits at least this finely
+        List<RecordRange> chunks = new MappedCsvFile(source).splitRecords(Math.max(MIN_CHUNK_SIZE, Files.size(source) / 8));
+        assertTrue(chunks.size() >= 3, "chunks " + chunks.size());
+
+        assertSameOutput(source);
+    }
+
+    @Test
+    public void matchesStreamingConversionOfSmallFiles() throws IOException {
+        assertSameOutput(Files.write(tempDir.resolve("small.csv"),
+                "id,text\n1,\"a\nb\"\n2,plain\n".getBytes(StandardCharsets.UTF_8)));
+        assertSameOutput(Files.write(tempDir.resolve("header.csv"), "id,text\n".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void assertSameOutput(Path source) throws IOException {
+        String name = source.getFileName().toString();
+        int formats = 0;
+        for (String format : registry.getFormatNames()) {
+            if (!converter.supports(format)) {
+                continue;
+            }
+            formats++;
+            Path streamed = tempDir.resolve(name + ".streamed." + format);
+            Path parallel = tempDir.resolve(name + ".parallel." + format);
+            long expected = pipeline.convert(source, "csv", streamed, format);
+            assertEquals(expected, converter.convert(source, parallel, format), format);
+            assertArrayEquals(Files.readAllBytes(streamed), Files.readAllBytes(parallel), name + " to " + format);
+        }
+        assertEquals(4, formats);
+    }
+}
@@ -0,0 +1,178 @@
+package com.xconvert.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BatchJobTest {
+
+    @Test
+    public void countersFollowConcurrentStatusChanges() throws Exception {
+        BatchJob batchJob = new BatchJob("json");
+        List<BatchJobItem> items = addItems(batchJob, 2000);
+        long totalBytes = batchJob.getTotalBytes();
+
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        try {
+            // Reads the counters without the lock while they change
+            Future<?> reader = pool.submit(() -> {
+                while (running.get()) {
+                    int done = batchJob.getCompletedItems() + batchJob.getFailedItems();
+                    assertTrue(done >= 0 && done <= batchJob.getTotalItems(), "done " + done);
+                    long processed = batchJob.getProcessedBytes();
+                    assertTrue(processed >= 0 && processed <= totalBytes, "processed " + processed);
+                    int progress = batchJob.getProgress();
+                    assertTrue(progress >= 0 && progress <= 100, "progress " + progress);
+                }
+                return null;
+            });
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                workers.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = first; i < items.size(); i += threads) {
+                        BatchJobItem item = items.get(i);
+                        batchJob.setItemStatus(item, "processing");
+                        batchJob.setItemStatus(item, item.getFileSize() % 7 == 0 ? "failed" : "completed");
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get(30, TimeUnit.SECONDS);
+            }
+            running.set(false);
+            reader.get(30, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        int failed = 0;
+        for (BatchJobItem item : items) {
+            if ("failed".equals(item.getStatus())) {
+                failed++;
+            }
+        }
+        assertEquals(items.size(), batchJob.getTotalItems());
+        assertEquals(failed, batchJob.getFailedItems());
+        assertEquals(items.size() - failed, batchJob.getCompletedItems());
+        assertEquals(totalBytes, batchJob.getProcessedBytes());
+        assertEquals(100, batchJob.getProgress());
+        assertTrue(batchJob.isCompleted());
+        assertTrue(batchJob.updateStatus());
+        assertEquals("completed_with_errors", batchJob.getStatus());
+        // Only a change is reported, which is what gets journaled
+        assertFalse(batchJob.updateStatus());
+
+        // One version per item added and two per item changed, none given out twice
+        assertEquals(3L * items.size(), batchJob.getVersion());
+        Set<Long> versions = new HashSet<>();
+        for (BatchJobItem item : batchJob.getItemsChangedSince(0, Integer.MAX_VALUE).getItems()) {
+            assertTrue(versions.add(item.getVersion()));
+        }
+        assertEquals(items.size(), versions.size());
+    }
+
+    @Test
+    public void returnsChangedItemsOldestChangeFirst() {
+        BatchJob batchJob = new BatchJob("csv");
+        List<BatchJobItem> items = addItems(batchJob, 10);
+        assertEquals(10, batchJob.getVersion());
+
+        BatchJob.ItemChanges first = batchJob.getItemsChangedSince(0, 4);
+        assertEquals(items.subList(0, 4), first.getItems());
+        BatchJob.ItemChanges second = batchJob.getItemsChangedSince(first.getNextSince(), 4);
+        assertEquals(items.subList(4, 8), second.getItems());
+
+        // A changed item moves behind the others
+        batchJob.setItemStatus(items.get(1), "processing");
+        BatchJob.ItemChanges third = batchJob.getItemsChangedSince(second.getNextSince(), 4);
+        assertEquals(List.of(items.get(8), items.get(9), items.get(1)), third.getItems());
+        assertEquals(11, items.get(1).getVersion());
+        assertEquals(List.of(items.get(1)), batchJob.getItemsChangedSince(10, 100).getItems());
+
+        // Listing everything again shows each item once, at its latest change
+        List<BatchJobItem> all = batchJob.getItemsChangedSince(0, 100).getItems();
+        assertEquals(10, all.size());
+        assertEquals(items.get(1), all.get(9));
+        assertTrue(batchJob.getItemsChangedSince(11, 100).getItems().isEmpty());
+    }
+
+    @Test
+    public void pagesEndWithNextSinceAtTheBatchVersion() {
+        BatchJob batchJob = new BatchJob("xml");
+        List<BatchJobItem> items = addItems(batchJob, 9);
+
+        List<BatchJobItem> seen = new ArrayList<>();
+        long since = 0;
+        int pages = 0;
+        BatchJob.ItemChanges page;
+        do {
+            page = batchJob.getItemsChangedSince(since, 3);
+            seen.addAll(page.getItems());
+            since = page.getNextSince();
+            pages++;
+        } while (page.hasMore());
+
+        // The last page is exactly full, yet no empty page follows it
+        assertEquals(3, pages);
+        assertEquals(items, seen);
+        assertFalse(page.hasMore());
+        assertEquals(9, page.getVersion());
+        assertEquals(9, since);
+
+        BatchJob.ItemChanges partial = batchJob.getItemsChangedSince(6, 5);
+        assertFalse(partial.hasMore());
+        assertEquals(3, partial.getItems().size());
+        assertEquals(9, partial.getNextSince());
+
+        BatchJob.ItemChanges full = batchJob.getItemsChangedSince(0, 4);
+        assertTrue(full.hasMore());
+        assertEquals(items.get(3).getVersion(), full.getNextSince());
+
+        // Nothing new: the client keeps polling from the current version
+        BatchJob.ItemChanges none = batchJob.getItemsChangedSince(9, 3);
+        assertTrue(none.getItems().isEmpty());
+        assertFalse(none.hasMore());
+        assertEquals(9, none.getNextSince());
+
+        // A version from before a restart renumbered the items starts over at the current one
+        BatchJob.ItemChanges ahead = batchJob.getItemsChangedSince(50, 3);
+        assertTrue(ahead.getItems().isEmpty());
+        assertEquals(9, ahead.getNextSince());
+
+        batchJob.setItemStatus(items.get(4), "completed");
+        BatchJob.ItemChanges changed = batchJob.getItemsChangedSince(since, 3);
+        assertEquals(List.of(items.get(4)), changed.getItems());
+        assertEquals(10, changed.getNextSince());
+    }
+
+    private static List<BatchJobItem> addItems(BatchJob batchJob, int count) {
+        List<BatchJobItem> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            BatchJobItem item = new BatchJobItem("file" + i + ".csv", "stored" + i, "csv");
+            item.setFileSize(1 + i * 10L);
+            batchJob.addItem(item);
+            items.add(item);
+        }
+        return items;
+    }
+}
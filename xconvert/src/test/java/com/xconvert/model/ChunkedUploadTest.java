@@ -0,0 +1,111 @@
+package com.xconvert.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChunkedUploadTest {
+
+    @Test
+    public void splitsTheFileIntoChunks() {
+        ChunkedUpload upload = new ChunkedUpload("data.csv", 250, 100);
+        assertEquals(3, upload.getChunkCount());
+        assertEquals(200, upload.getChunkOffset(2));
+        assertEquals(100, upload.getChunkLength(1));
+        assertEquals(50, upload.getChunkLength(2));
+
+        // An empty file is one empty chunk
+        ChunkedUpload empty = new ChunkedUpload("empty.csv", 0, 100);
+        assertEquals(1, empty.getChunkCount());
+        assertEquals(0, empty.getChunkLength(0));
+        assertTrue(empty.beginChunk(0));
+        empty.endChunk(0, true);
+        assertTrue(empty.closeIfComplete());
+    }
+
+    @Test
+    public void countsChunksWrittenCompletely() {
+        ChunkedUpload upload = new ChunkedUpload("data.csv", 250, 100);
+        write(upload, 2, true);
+        write(upload, 0, false);
+        assertEquals(List.of(2), upload.getReceivedChunks());
+        assertEquals(List.of(0, 1), upload.getMissingChunks());
+        assertEquals(50, upload.getReceivedBytes());
+
+        write(upload, 0, true);
+        write(upload, 1, true);
+        assertTrue(upload.isComplete());
+        assertEquals(3, upload.getReceivedChunkCount());
+        assertEquals(250, upload.getReceivedBytes());
+    }
+
+    @Test
+    public void chunkSentAgainIsMissingUntilWrittenCompletely() {
+        ChunkedUpload upload = new ChunkedUpload("data.csv", 250, 100);
+        for (int i = 0; i < upload.getChunkCount(); i++) {
+            write(upload, i, true);
+        }
+        assertTrue(upload.isComplete());
+
+        // While the new copy is written the old one is being overwritten
+        assertTrue(upload.beginChunk(1));
+        assertFalse(upload.isComplete());
+        assertEquals(List.of(1), upload.getMissingChunks());
+        assertEquals(150, upload.getReceivedBytes());
+        assertFalse(upload.closeIfComplete());
+
+        // A copy that fails half way leaves the chunk to be sent once more
+        upload.endChunk(1, false);
+        assertEquals(List.of(1), upload.getMissingChunks());
+        assertEquals(150, upload.getReceivedBytes());
+        assertFalse(upload.closeIfComplete());
+
+        write(upload, 1, true);
+        write(upload, 2, true);
+        assertEquals(List.of(0, 1, 2), upload.getReceivedChunks());
+        assertEquals(250, upload.getReceivedBytes());
+        assertTrue(upload.closeIfComplete());
+    }
+
+    @Test
+    public void oneRequestWritesAChunkAtATime() {
+        ChunkedUpload upload = new ChunkedUpload("data.csv", 200, 100);
+        assertTrue(upload.beginChunk(0));
+        assertFalse(upload.beginChunk(0));
+        assertTrue(upload.beginChunk(1));
+        upload.endChunk(1, true);
+        assertTrue(upload.isWriting());
+
+        upload.endChunk(0, true);
+        assertFalse(upload.isWriting());
+        assertTrue(upload.beginChunk(0));
+        upload.endChunk(0, true);
+        assertEquals(200, upload.getReceivedBytes());
+    }
+
+    @Test
+    public void closesOnlyWhenCompleteAndIdle() {
+        ChunkedUpload upload = new ChunkedUpload("data.csv", 200, 100);
+        write(upload, 0, true);
+        assertFalse(upload.closeIfComplete());
+        assertTrue(upload.beginChunk(1));
+        upload.endChunk(1, true);
+        assertTrue(upload.closeIfComplete());
+        assertFalse(upload.closeIfComplete());
+        assertThrows(IllegalStateException.class, () -> upload.beginChunk(0));
+
+        ChunkedUpload aborted = new ChunkedUpload("data.csv", 200, 100);
+        aborted.close();
+        assertThrows(IllegalStateException.class, () -> aborted.beginChunk(0));
+    }
+
+    private static void write(ChunkedUpload upload, int index, boolean written) {
+        assertTrue(upload.beginChunk(index));
+        upload.endChunk(index, written);
+    }
+}
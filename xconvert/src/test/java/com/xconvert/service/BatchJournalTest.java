@@ -0,0 +1,252 @@
+package com.xconvert.service;
+
+import com.xconvert.model.BatchJob;
+import com.xconvert.model.BatchJobItem;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BatchJournalTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final Map<String, BatchJob> batchJobs = new LinkedHashMap<>();
+
+    @Test
+    public void replaysLoggedChangesAfterRestart() throws IOException {
+        BatchJournal journal = start(1 << 20);
+        BatchJob first = createBatch(journal, "json", 3);
+        BatchJob second = createBatch(journal, "xml", 1);
+        BatchJob removed = createBatch(journal, "csv", 2);
+
+        BatchJobItem item = first.getItems().get(0);
+        item.setStartTime(new Date(1000));
+        first.setItemStatus(item, "processing");
+        journal.itemChanged(first, item);
+        item.setOutputFilename("out.json");
+        item.setEndTime(new Date(2000));
+        first.setItemStatus(item, "completed");
+        journal.itemChanged(first, item);
+
+        BatchJobItem failed = first.getItems().get(2);
+        failed.setErrorMessage("Unsupported conversion: é to ü");
+        first.setItemStatus(failed, "failed");
+        journal.itemChanged(first, failed);
+
+        first.setStatus("processing");
+        journal.batchStatusChanged(first);
+        batchJobs.remove(removed.getId());
+        journal.batchRemoved(removed);
+        journal.shutdown();
+
+        Map<String, BatchJob> recovered = recover(1 << 20);
+        assertEquals(List.of(first.getId(), second.getId()), new ArrayList<>(recovered.keySet()));
+        assertSameState(first, recovered.get(first.getId()));
+        assertSameState(second, recovered.get(second.getId()));
+
+        BatchJob restored = recovered.get(first.getId());
+        assertEquals(1, restored.getCompletedItems());
+        assertEquals(1, restored.getFailedItems());
+        assertEquals("Unsupported conversion: é to ü", restored.getItem(failed.getId()).getErrorMessage());
+    }
+
+    @Test
+    public void compactsIntoSnapshotAndDropsOlderGenerations() throws IOException {
+        // Small enough that the log is compacted whenever it outgrows the snapshot
+        BatchJournal journal = start(256);
+        BatchJob batchJob = createBatch(journal, "json", 20);
+        for (int round = 0; round < 6; round++) {
+            for (BatchJobItem item : batchJob.getItems()) {
+                item.setOutputFilename("out-" + round + "-" + item.getId());
+                batchJob.setItemStatus(item, round % 2 == 0 ? "processing" : "completed");
+                journal.itemChanged(batchJob, item);
+            }
+        }
+        journal.shutdown();
+
+        List<String> files = list();
+        assertEquals(1, count(files, "snapshot-"), files.toString());
+        assertTrue(count(files, "journal-") <= 2, files.toString());
+        assertTrue(generation(files, "snapshot-") > 1, files.toString());
+
+        Map<String, BatchJob> recovered = recover(256);
+        assertEquals(1, recovered.size());
+        assertSameState(batchJob, recovered.get(batchJob.getId()));
+        assertEquals(20, recovered.get(batchJob.getId()).getCompletedItems());
+    }
+
+    @Test
+    public void startsNewGenerationFromRecoveredState() throws IOException {
+        BatchJournal journal = start(1 << 20);
+        BatchJob batchJob = createBatch(journal, "csv", 2);
+        journal.shutdown();
+        long before = generation(list(), "journal-");
+
+        // The restart snapshots the recovered state and deletes the files it replaces
+        batchJobs.clear();
+        batchJobs.putAll(recover(1 << 20));
+        BatchJournal restarted = new BatchJournal(tempDir, true, false, 1 << 20);
+        restarted.recover();
+        restarted.start(batchJobs::values);
+        BatchJob recovered = batchJobs.get(batchJob.getId());
+        BatchJobItem item = recovered.getItems().get(1);
+        recovered.setItemStatus(item, "failed");
+        restarted.itemChanged(recovered, item);
+        restarted.shutdown();
+
+        List<String> files = list();
+        assertEquals(List.of("journal-" + (before + 1) + ".log", "snapshot-" + (before + 1) + ".dat"), files);
+        BatchJob again = recover(1 << 20).get(batchJob.getId());
+        assertSameState(recovered, again);
+        assertEquals("failed", again.getItem(item.getId()).getStatus());
+    }
+
+    @Test
+    public void ignoresRecordTornAtEndOfLog() throws IOException {
+        BatchJournal journal = start(1 << 20);
+        BatchJob batchJob = createBatch(journal, "json", 2);
+        journal.shutdown();
+
+        // A crash in the middle of a record: its length and part of its checksum
+        Path log = tempDir.resolve(lastFile(list(), "journal-"));
+        Files.write(log, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+        Map<String, BatchJob> recovered = recover(1 << 20);
+        assertSameState(batchJob, recovered.get(batchJob.getId()));
+
+        // A damaged record, here the second item's, ends the replay of its log without failing recovery
+        byte[] bytes = Files.readAllBytes(log);
+        bytes[bytes.length - 10] ^= 0x55;
+        Files.write(log, bytes);
+        recovered = recover(1 << 20);
+        assertNotNull(recovered.get(batchJob.getId()));
+        assertEquals(1, recovered.get(batchJob.getId()).getTotalItems());
+    }
+
+    @Test
+    public void recordsNothingWhenDisabled() throws IOException {
+        BatchJournal journal = new BatchJournal(tempDir.resolve("disabled"), false, false, 1 << 20);
+        assertTrue(journal.recover().isEmpty());
+        journal.start(batchJobs::values);
+        BatchJob batchJob = new BatchJob("json");
+        journal.batchCreated(batchJob);
+        journal.shutdown();
+        assertTrue(Files.notExists(tempDir.resolve("disabled")));
+        assertNull(recover(1 << 20).get(batchJob.getId()));
+    }
+
+    private BatchJournal start(long compactBytes) throws IOException {
+        BatchJournal journal = new BatchJournal(tempDir, true, false, compactBytes);
+        assertTrue(journal.recover().isEmpty());
+        journal.start(batchJobs::values);
+        return journal;
+    }
+
+    private Map<String, BatchJob> recover(long compactBytes) throws IOException {
+        Collection<BatchJob> recovered = new BatchJournal(tempDir, true, false, compactBytes).recover();
+        Map<String, BatchJob> byId = new LinkedHashMap<>();
+        for (BatchJob batchJob : recovered) {
+            byId.put(batchJob.getId(), batchJob);
+        }
+        return byId;
+    }
+
+    private BatchJob createBatch(BatchJournal journal, String targetFormat, int items) {
+        BatchJob batchJob = new BatchJob(targetFormat);
+        batchJobs.put(batchJob.getId(), batchJob);
+        journal.batchCreated(batchJob);
+        for (int i = 0; i < items; i++) {
+            BatchJobItem item = new BatchJobItem("file" + i + ".csv", "stored" + i, "csv");
+            item.setFileSize(100 + i);
+            batchJob.addItem(item);
+            journal.itemAdded(batchJob, item);
+        }
+        return batchJob;
+    }
+
+    private static void assertSameState(BatchJob expected, BatchJob actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getTargetFormat(), actual.getTargetFormat());
+        assertEquals(expected.getCreationTime(), actual.getCreationTime());
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertEquals(expected.getTotalBytes(), actual.getTotalBytes());
+        List<BatchJobItem> expectedItems = expected.getItems();
+        List<BatchJobItem> actualItems = actual.getItems();
+        assertEquals(expectedItems.size(), actualItems.size());
+        for (int i = 0; i < expectedItems.size(); i++) {
+            BatchJobItem want = expectedItems.get(i);
+            BatchJobItem got = actualItems.get(i);
+            assertEquals(want.getId(), got.getId());
+            assertEquals(want.getOriginalFilename(), got.getOriginalFilename());
+            assertEquals(want.getStoredFilename(), got.getStoredFilename());
+            assertEquals(want.getSourceFormat(), got.getSourceFormat());
+            assertEquals(want.getFileSize(), got.getFileSize());
+            assertEquals(want.getStatus(), got.getStatus());
+            assertEquals(want.getOutputFilename(), got.getOutputFilename());
+            assertEquals(want.getErrorMessage(), got.getErrorMessage());
+            assertEquals(want.getStartTime(), got.getStartTime());
+            assertEquals(want.getEndTime(), got.getEndTime());
+        }
+    }
+
+    private List<String> list() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(tempDir)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    names.add(file.getFileName().toString());
+                }
+            }
+        }
+        names.sort(null);
+        return names;
+    }
+
+    private static int count(List<String> files, String prefix) {
+        int count = 0;
+        for (String file : files) {
+            if (file.startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long generation(List<String> files, String prefix) {
+        String last = lastFile(files, prefix);
+        return Long.parseLong(last.substring(prefix.length(), last.indexOf('.')));
+    }
+
+    private static String lastFile(List<String> files, String prefix) {
+        String last = null;
+        long generation = -1;
+        for (String file : files) {
+            if (file.startsWith(prefix)) {
+                long current = Long.parseLong(file.substring(prefix.length(), file.indexOf('.')));
+                if (current > generation) {
+                    generation = current;
+                    last = file;
+                }
+            }
+        }
+        assertNotNull(last, prefix);
+        return last;
+    }
+}
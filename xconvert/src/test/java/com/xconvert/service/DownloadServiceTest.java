@@ -0,0 +1,212 @@
+package com.xconvert.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DownloadServiceTest {
+
+    private static final String CONTENT_TYPE = "text/csv";
+
+    @TempDir
+    Path tempDir;
+
+    private DownloadService downloadService;
+    private Path file;
+    private byte[] content;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        // Without gzip the compressed file cache is never used
+        downloadService = new DownloadService(null, false, 0);
+        StringBuilder csv = new StringBuilder("id,name\n");
+        for (int i = 0; csv.length() < 1000; i++) {
+            csv.append(i).append(",name ").append(i).append('\n');
+        }
+        csv.setLength(1000);
+        content = csv.toString().getBytes(StandardCharsets.US_ASCII);
+        file = Files.write(tempDir.resolve("out.csv"), content);
+    }
+
+    @Test
+    public void parsesSingleAndOpenRanges() {
+        assertRanges(DownloadService.parseRanges("bytes=0-99", 1000), 0, 100);
+        assertRanges(DownloadService.parseRanges("bytes=990-", 1000), 990, 1000);
+        // The last position is clamped to the end of the file
+        assertRanges(DownloadService.parseRanges("bytes=900-5000", 1000), 900, 1000);
+        assertRanges(DownloadService.parseRanges("bytes= 10-19 ", 1000), 10, 20);
+    }
+
+    @Test
+    public void parsesSuffixRanges() {
+        assertRanges(DownloadService.parseRanges("bytes=-100", 1000), 900, 1000);
+        // A suffix longer than the file is the whole file
+        assertRanges(DownloadService.parseRanges("bytes=-5000", 1000), 0, 1000);
+        assertRanges(DownloadService.parseRanges("bytes=-0", 1000));
+    }
+
+    @Test
+    public void sortsAndMergesOverlappingAndAdjacentRanges() {
+        assertRanges(DownloadService.parseRanges("bytes=500-599,0-99,100-199,550-700", 1000), 0, 200, 500, 701);
+        assertRanges(DownloadService.parseRanges("bytes=-100,0-9,950-", 1000), 0, 10, 900, 1000);
+        assertRanges(DownloadService.parseRanges("bytes=0-0,2-2", 1000), 0, 1, 2, 3);
+    }
+
+    @Test
+    public void dropsRangesOutsideTheFile() {
+        assertRanges(DownloadService.parseRanges("bytes=1000-1100", 1000));
+        assertRanges(DownloadService.parseRanges("bytes=1000-,0-4", 1000), 0, 5);
+    }
+
+    @Test
+    public void ignoresMalformedHeaders() {
+        assertNull(DownloadService.parseRanges("items=0-99", 1000));
+        assertNull(DownloadService.parseRanges("bytes=5-1", 1000));
+        assertNull(DownloadService.parseRanges("bytes=a-b", 1000));
+        assertNull(DownloadService.parseRanges("bytes=100", 1000));
+        String[] specs = new String[17];
+        Arrays.fill(specs, "0-1");
+        assertNull(DownloadService.parseRanges("bytes=" + String.join(",", specs), 1000));
+    }
+
+    @Test
+    public void answersUnsatisfiableRangesWith416() throws IOException {
+        MockHttpServletRequest request = request();
+        request.addHeader(HttpHeaders.RANGE, "bytes=2000-3000");
+        MockHttpServletResponse response = send(request);
+
+        assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatus());
+        assertEquals("bytes */1000", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void sendsSingleRangeAsPartialContent() throws IOException {
+        MockHttpServletRequest request = request();
+        request.addHeader(HttpHeaders.RANGE, "bytes=-10");
+        MockHttpServletResponse response = send(request);
+
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+        assertEquals("bytes 990-999/1000", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(Arrays.copyOfRange(content, 990, 1000), response.getContentAsByteArray());
+    }
+
+    @Test
+    public void ifNoneMatchTakesPrecedenceOverIfModifiedSince() throws IOException {
+        MockHttpServletResponse first = send(request());
+        String etag = first.getHeader(HttpHeaders.ETAG);
+        String lastModified = first.getHeader(HttpHeaders.LAST_MODIFIED);
+
+        // A date that would answer 304 on its own does not count when the ETag differs
+        MockHttpServletRequest request = request();
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\"");
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+        MockHttpServletResponse response = send(request);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertArrayEquals(content, response.getContentAsByteArray());
+
+        // A matching ETag answers 304 even with a date the file was modified after
+        request = request();
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\", W/" + etag);
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, "Thu, 01 Jan 1970 00:00:00 GMT");
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, send(request).getStatus());
+
+        request = request();
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, send(request).getStatus());
+    }
+
+    @Test
+    public void ifNoneMatchIsCheckedBeforeRanges() throws IOException {
+        String etag = send(request()).getHeader(HttpHeaders.ETAG);
+
+        MockHttpServletRequest request = request();
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        request.addHeader(HttpHeaders.IF_RANGE, etag);
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-9");
+        MockHttpServletResponse response = send(request);
+
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void ifRangeAppliesTheRangeOnlyWhileTheFileIsUnchanged() throws IOException {
+        MockHttpServletResponse first = send(request());
+        String etag = first.getHeader(HttpHeaders.ETAG);
+        String lastModified = first.getHeader(HttpHeaders.LAST_MODIFIED);
+
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, sendRange(etag).getStatus());
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, sendRange(lastModified).getStatus());
+
+        // A changed ETag, a weak ETag or another date sends the whole file
+        for (String ifRange : List.of("\"changed\"", "W/" + etag, "Thu, 01 Jan 1970 00:00:00 GMT", "not a date")) {
+            MockHttpServletResponse response = sendRange(ifRange);
+            assertEquals(HttpServletResponse.SC_OK, response.getStatus(), ifRange);
+            assertNull(response.getHeader(HttpHeaders.CONTENT_RANGE), ifRange);
+            assertArrayEquals(content, response.getContentAsByteArray(), ifRange);
+        }
+    }
+
+    @Test
+    public void usesTheHashRecordedWhenTheFileWasWritten() throws IOException {
+        downloadService.putHash(file, "written");
+        assertEquals("\"written\"", send(request()).getHeader(HttpHeaders.ETAG));
+
+        // Hard links, such as results linked from the conversion cache, share the hash
+        Path link = tempDir.resolve("link.csv");
+        try {
+            Files.createLink(link, file);
+        } catch (UnsupportedOperationException | IOException e) {
+            return;
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        downloadService.send(link, CONTENT_TYPE, "link.csv", request(), response);
+        assertEquals("\"written\"", response.getHeader(HttpHeaders.ETAG));
+
+        // A changed file is hashed again
+        Files.write(file, "id\n1\n".getBytes(StandardCharsets.US_ASCII));
+        String etag = send(request()).getHeader(HttpHeaders.ETAG);
+        assertTrue(etag.startsWith("\"") && etag.length() == 66, etag);
+    }
+
+    private MockHttpServletResponse sendRange(String ifRange) throws IOException {
+        MockHttpServletRequest request = request();
+        request.addHeader(HttpHeaders.IF_RANGE, ifRange);
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-9");
+        return send(request);
+    }
+
+    private MockHttpServletResponse send(MockHttpServletRequest request) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        downloadService.send(file, CONTENT_TYPE, "out.csv", request, response);
+        return response;
+    }
+
+    private static MockHttpServletRequest request() {
+        return new MockHttpServletRequest("GET", "/api/download/out.csv");
+    }
+
+    private static void assertRanges(List<long[]> ranges, long... bounds) {
+        assertEquals(bounds.length / 2, ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            assertArrayEquals(new long[]{bounds[2 * i], bounds[2 * i + 1]}, ranges.get(i));
+        }
+    }
+}
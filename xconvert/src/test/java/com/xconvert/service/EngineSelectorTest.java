@@ -0,0 +1,93 @@
+package com.xconvert.service;
+
+import com.xconvert.model.ConversionEngine;
+import com.xconvert.model.EngineDecision;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class EngineSelectorTest {
+
+    private static final long SIZE = 1024L * 1024 * 1024;
+    private static final Set<ConversionEngine> BOTH = EnumSet.of(ConversionEngine.STREAMING, ConversionEngine.HADOOP);
+
+    private final EngineSelector selector = new EngineSelector();
+    private long now = 1_000_000;
+
+    @BeforeEach
+    public void setUp() {
+        // Hadoop is by far the faster engine for a large file
+        ReflectionTestUtils.setField(selector, "streamingStartupMs", 20);
+        ReflectionTestUtils.setField(selector, "streamingMbPerSecond", 1);
+        ReflectionTestUtils.setField(selector, "hadoopStartupMs", 100);
+        ReflectionTestUtils.setField(selector, "hadoopMbPerSecond", 1000);
+        ReflectionTestUtils.setField(selector, "parallelStartupMs", 50);
+        ReflectionTestUtils.setField(selector, "parallelMbPerSecond", 500);
+        ReflectionTestUtils.setField(selector, "clock", (LongSupplier) () -> now);
+    }
+
+    @Test
+    public void failingEngineBacksOffLongerAfterEachFailure() {
+        assertEquals(ConversionEngine.HADOOP, run(BOTH, false));
+        assertEquals(ConversionEngine.STREAMING, run(BOTH, true));
+
+        now += 60_001;
+        assertEquals(ConversionEngine.HADOOP, run(BOTH, false));
+        now += 60_001;
+        assertEquals(ConversionEngine.STREAMING, run(BOTH, true));
+        now += 60_000;
+        assertEquals(ConversionEngine.HADOOP, run(BOTH, true));
+
+        // A success starts the backoff over
+        assertEquals(ConversionEngine.HADOOP, run(BOTH, false));
+        now += 60_001;
+        assertEquals(ConversionEngine.HADOOP, run(BOTH, true));
+    }
+
+    @Test
+    public void reportsFailuresInSnapshot() {
+        run(BOTH, false);
+        now += 15_000;
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> models = (List<Map<String, Object>>) selector.getSnapshot().get("models");
+        Map<String, Object> hadoop = models.stream()
+                .filter(model -> model.get("engine") == ConversionEngine.HADOOP)
+                .findFirst().orElseThrow();
+        assertEquals(1, hadoop.get("failures"));
+        assertEquals(45_000L, hadoop.get("backoffMs"));
+    }
+
+    @Test
+    public void streamingFailuresAreNotHeldAgainstIt() {
+        // Hadoop's startup makes streaming the faster engine for a small file
+        assertEquals(ConversionEngine.STREAMING, run(BOTH, 1024, false));
+        assertEquals(ConversionEngine.STREAMING, run(BOTH, 1024, true));
+    }
+
+    @Test
+    public void picksAnEngineEvenWhenEveryCandidateBacksOff() {
+        Set<ConversionEngine> hadoop = EnumSet.of(ConversionEngine.HADOOP);
+        assertEquals(ConversionEngine.HADOOP, run(hadoop, false));
+        assertEquals(ConversionEngine.HADOOP, run(hadoop, true));
+    }
+
+    private ConversionEngine run(Set<ConversionEngine> candidates, boolean succeeded) {
+        return run(candidates, SIZE, succeeded);
+    }
+
+    private ConversionEngine run(Set<ConversionEngine> candidates, long size, boolean succeeded) {
+        EngineDecision decision = selector.select("data.csv", "csv", "json", size, candidates);
+        // Runs take as long as expected, so successes leave the estimates where they are
+        selector.complete(decision, decision.getExpectedMs(), succeeded);
+        return decision.getEngine();
+    }
+}
@@ -0,0 +1,124 @@
+package com.xconvert.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ProgressBroadcasterTest {
+
+    // Long enough that only publishing sends events
+    private final ProgressBroadcaster broadcaster = new ProgressBroadcaster(60_000, 60_000, 2);
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private final Function<Set<String>, Map<String, Object>> state = changed -> {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("changed", changed == null ? "all" : new TreeSet<>(changed));
+        event.put("finished", finished.get());
+        return event;
+    };
+
+    @AfterEach
+    public void shutdown() {
+        broadcaster.shutdown();
+    }
+
+    @Test
+    public void slowSubscriberDoesNotHoldUpOthers() throws InterruptedException {
+        RecordingEmitter slow = new RecordingEmitter();
+        slow.gate = new CountDownLatch(1);
+        RecordingEmitter fast = new RecordingEmitter();
+        broadcaster.subscribe("batch", state, slow);
+        broadcaster.subscribe("batch", state, fast);
+        assertEquals("all", next(fast).get("changed"));
+
+        // Every change reaches the fast subscriber while the slow one is stuck in its first send
+        Set<String> published = new TreeSet<>();
+        for (int i = 0; i < 20; i++) {
+            broadcaster.publish("batch", "item" + i);
+            published.add("item" + i);
+        }
+        Set<Object> seen = new HashSet<>();
+        while (!seen.containsAll(published)) {
+            seen.addAll((Set<?>) next(fast).get("changed"));
+        }
+
+        // The events the slow subscriber could not take arrive as one with all their changes
+        slow.gate.countDown();
+        assertEquals("all", next(slow).get("changed"));
+        assertEquals(published, next(slow).get("changed"));
+        assertNull(slow.events.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void finishedTopicEndsItsStreams() throws InterruptedException {
+        RecordingEmitter emitter = new RecordingEmitter();
+        broadcaster.subscribe("task", state, emitter);
+        assertEquals(false, next(emitter).get("finished"));
+
+        finished.set(true);
+        broadcaster.publish("task", null);
+        assertEquals(true, next(emitter).get("finished"));
+        assertTrue(emitter.completed.await(5, TimeUnit.SECONDS));
+
+        // A late subscriber gets the final state and its stream ends
+        RecordingEmitter late = new RecordingEmitter();
+        broadcaster.subscribe("task", state, late);
+        assertEquals(true, next(late).get("finished"));
+        assertTrue(late.completed.await(5, TimeUnit.SECONDS));
+    }
+
+    private static Map<String, Object> next(RecordingEmitter emitter) throws InterruptedException {
+        Map<String, Object> event = emitter.events.poll(5, TimeUnit.SECONDS);
+        assertNotNull(event);
+        return event;
+    }
+
+    /**
+     * Records the events sent to it; with a gate, sends block until it opens, like a client
+     * that stopped reading.
+     */
+    private static class RecordingEmitter extends SseEmitter {
+        final BlockingQueue<Map<String, Object>> events = new LinkedBlockingQueue<>();
+        final CountDownLatch completed = new CountDownLatch(1);
+        volatile CountDownLatch gate;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void send(SseEventBuilder builder) {
+            CountDownLatch waitFor = gate;
+            if (waitFor != null) {
+                try {
+                    waitFor.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            for (DataWithMediaType data : builder.build()) {
+                if (data.getData() instanceof Map) {
+                    events.add((Map<String, Object>) data.getData());
+                }
+            }
+        }
+
+        @Override
+        public void complete() {
+            completed.countDown();
+        }
+    }
+}
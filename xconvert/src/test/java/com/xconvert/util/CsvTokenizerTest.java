@@ -0,0 +1,50 @@
+package com.xconvert.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CsvTokenizerTest {
+
+    @Test
+    public void trimsUnquotedFieldsAndSkipsEmptyLines() throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(new StringReader("name, age \r\n\r\nAlice,30\n"));
+
+        assertTrue(tokenizer.next());
+        assertArrayEquals(new String[] {"name", "age"}, tokenizer.getFields());
+        assertTrue(tokenizer.next());
+        assertArrayEquals(new String[] {"Alice", "30"}, tokenizer.getFields());
+        assertFalse(tokenizer.next());
+        assertEquals(2, tokenizer.getRecordCount());
+    }
+
+    @Test
+    public void handlesQuotedFieldsWithCommasQuotesAndNewlines() throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(new StringReader("\"Smith, J\",\"say \"\"hi\"\"\",\"two\nlines\"\n"));
+
+        assertTrue(tokenizer.next());
+        assertArrayEquals(new String[] {"Smith, J", "say \"hi\"", "two\nlines"}, tokenizer.getFields());
+        assertFalse(tokenizer.next());
+    }
+
+    @Test
+    public void readsLastRecordWithoutTrailingNewlineFromBytes() throws IOException {
+        byte[] data = "a,,c\nx,y".getBytes(StandardCharsets.UTF_8);
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        tokenizer.reset(data, 0, data.length);
+
+        assertTrue(tokenizer.next());
+        assertArrayEquals(new String[] {"a", "", "c"}, tokenizer.getFields());
+        assertTrue(tokenizer.next());
+        assertEquals(2, tokenizer.getFieldCount());
+        assertEquals("y", new String(tokenizer.getBuffer(), tokenizer.getFieldStart(1), tokenizer.getFieldLength(1)));
+        assertFalse(tokenizer.next());
+    }
+}
@@ -0,0 +1,169 @@
+package com.xconvert.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MappedCsvFileTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void quotedNewlinesStraddlingWordAndSegmentBoundaries() throws IOException {
+        // Move the quoted line break across every byte of 8-byte words and 8 to 32-byte segments
+        for (int padding = 0; padding < 40; padding++) {
+            String csv = "id,text\n" + "x".repeat(padding) + ",\"one\ntwo\"\n2,\"a \"\"b\"\"\nc\"\n3,plain\n";
+            for (int shift = 3; shift <= 5; shift++) {
+                MappedCsvFile file = write(csv, 1, shift);
+                assertEquals(4, file.getRecordCount(), "padding " + padding + ", segment shift " + shift);
+                assertEquals(8, file.getRecordOffset(1));
+                assertEquals(csv.indexOf("2,\""), file.getRecordOffset(2));
+                assertEquals(csv.indexOf("3,plain"), file.getRecordOffset(3));
+                assertMatchesTokenizer(csv, file);
+            }
+        }
+    }
+
+    @Test
+    public void handlesCrlfLineEndings() throws IOException {
+        String csv = "a,b\r\n1,2\r\n\r\n3,\"x\r\ny\"\r\n4,5\r\n";
+        MappedCsvFile file = write(csv, 1, 30);
+
+        assertEquals(4, file.getRecordCount());
+        assertEquals(5, file.getRecordOffset(1));
+        // The empty line belongs to no record
+        assertEquals(12, file.getRecordOffset(2));
+        assertEquals(csv.indexOf("4,5"), file.getRecordOffset(3));
+        assertMatchesTokenizer(csv, file);
+        assertMatchesTokenizer(csv, write(csv, 2, 3));
+    }
+
+    @Test
+    public void countsLastRecordWithoutTrailingNewline() throws IOException {
+        String csv = "a,b\n1,2\n3,\"4\"";
+        MappedCsvFile file = write(csv, 1, 30);
+
+        assertEquals(3, file.getRecordCount());
+        assertEquals(8, file.getRecordOffset(2));
+        assertEquals(csv.length(), file.getRecordOffset(3));
+        assertMatchesTokenizer(csv, file);
+
+        // A trailing line of carriage returns only is not a record
+        assertEquals(2, write("a,b\n1,2\n\r", 1, 30).getRecordCount());
+    }
+
+    @Test
+    public void indexMatchesTokenizerOnRandomInput() throws IOException {
+        Random random = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            String csv = randomCsv(random, 1 + random.nextInt(300));
+            int sampleInterval = 1 + random.nextInt(8);
+            assertMatchesTokenizer(csv, write(csv, sampleInterval, 30));
+            assertMatchesTokenizer(csv, write(csv, sampleInterval, 3 + random.nextInt(4)));
+        }
+    }
+
+    @Test
+    public void splitsDataRecordsAtSampledRecords() throws IOException {
+        StringBuilder csv = new StringBuilder("id,name\n");
+        for (int i = 1; i <= 100; i++) {
+            csv.append(i).append(",\"name\n").append(i).append("\"\n");
+        }
+        MappedCsvFile file = write(csv.toString(), 10, 6);
+
+        List<RecordRange> ranges = file.splitRecords(100);
+        assertTrue(ranges.size() > 1);
+        long next = file.getRecordOffset(1);
+        long record = 1;
+        for (RecordRange range : ranges) {
+            assertEquals(next, range.getStart());
+            assertEquals(record, range.getFirstRecord());
+            assertEquals(file.getRecordOffset(record), range.getStart());
+            next = range.getEnd();
+            record += range.getRecordCount();
+        }
+        assertEquals(file.size(), next);
+        assertEquals(file.getRecordCount(), record);
+    }
+
+    private MappedCsvFile write(String csv, int sampleInterval, int segmentShift) throws IOException {
+        Path path = Files.createTempFile(tempDir, "data", ".csv");
+        Files.write(path, csv.getBytes(StandardCharsets.UTF_8));
+        return new MappedCsvFile(path, sampleInterval, segmentShift);
+    }
+
+    /**
+     * Checks that the index finds exactly the records the tokenizer reads: each indexed byte
+     * range must tokenize to one record, the same one the tokenizer reads from the whole file.
+     */
+    private static void assertMatchesTokenizer(String csv, MappedCsvFile file) throws IOException {
+        byte[] data = csv.getBytes(StandardCharsets.UTF_8);
+        List<String[]> expected = new ArrayList<>();
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        tokenizer.reset(data, 0, data.length);
+        while (tokenizer.next()) {
+            expected.add(tokenizer.getFields());
+        }
+
+        assertEquals(expected.size(), file.getRecordCount());
+        for (int record = 0; record < expected.size(); record++) {
+            int start = (int) file.getRecordOffset(record);
+            int end = (int) file.getRecordOffset(record + 1);
+            tokenizer.reset(data, start, end - start);
+            assertTrue(tokenizer.next(), "record " + record + " at " + start);
+            assertArrayEquals(expected.get(record), tokenizer.getFields());
+            assertFalse(tokenizer.next(), "record " + record + " ends at " + end);
+        }
+        // Sample 0 is the start of the file, before any byte order mark or empty lines
+        assertEquals(0, file.getSampleOffset(0));
+        for (int sample = 1; sample < file.getSampleCount(); sample++) {
+            assertEquals(file.getRecordOffset((long) sample * file.getSampleInterval()), file.getSampleOffset(sample));
+        }
+
+        // The reader decodes characters split across segments
+        StringWriter text = new StringWriter();
+        try (Reader reader = file.newReader()) {
+            reader.transferTo(text);
+        }
+        assertEquals(csv, text.toString());
+    }
+
+    private static String randomCsv(Random random, int records) {
+        String[] fields = {"plain", "", " padded ", "\"a,b\"", "\"line\nbreak\"", "\"crlf\r\nbreak\"",
+                "\"say \"\"hi\"\"\"", " \"blank before\"", "café", "\"日本\n語\"", "\"\""};
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < records; i++) {
+            int count = 1 + random.nextInt(4);
+            for (int j = 0; j < count; j++) {
+                if (j > 0) {
+                    csv.append(',');
+                }
+                csv.append(fields[random.nextInt(fields.length)]);
+            }
+            csv.append(random.nextBoolean() ? "\n" : "\r\n");
+            if (random.nextInt(10) == 0) {
+                csv.append(random.nextBoolean() ? "\n" : "\r\n");
+            }
+        }
+        if (random.nextBoolean()) {
+            // No line break after the last record
+            csv.setLength(csv.length() - (csv.toString().endsWith("\r\n") ? 2 : 1));
+        }
+        return csv.toString();
+    }
+}
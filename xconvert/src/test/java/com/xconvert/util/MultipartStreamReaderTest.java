@@ -0,0 +1,157 @@
+package com.xconvert.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MultipartStreamReaderTest {
+
+    private static final String BOUNDARY = "----FormBoundary7MA4YWxk";
+
+    @Test
+    public void findsDelimitersSplitAcrossReads() throws IOException {
+        // Content with line breaks and partial delimiters that must be passed on as they are
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(3);
+        while (text.length() < 200 * 1024) {
+            text.append(random.nextInt(1000)).append(",\r\n--").append(BOUNDARY, 0, random.nextInt(BOUNDARY.length()));
+        }
+        text.append("\r\n-");
+        byte[] content = text.toString().getBytes(StandardCharsets.US_ASCII);
+        byte[] body = body(content);
+
+        // A few bytes per read puts every position of the delimiters at the end of a read
+        for (int seed = 0; seed < 3; seed++) {
+            MultipartStreamReader reader = new MultipartStreamReader(new TrickleInputStream(body, seed), BOUNDARY, body.length);
+            MultipartStreamReader.Part file = reader.next();
+            assertEquals("file", file.getName());
+            assertEquals("data.csv", file.getFileName());
+            assertEquals("text/csv", file.getContentType());
+            assertArrayEquals(content, file.getInputStream().readAllBytes());
+            assertField(reader.next(), "targetFormat", "json");
+            assertNull(reader.next());
+            assertNull(reader.next());
+        }
+
+        // The same body read all at once
+        MultipartStreamReader reader = new MultipartStreamReader(new ByteArrayInputStream(body), BOUNDARY, body.length);
+        assertArrayEquals(content, reader.next().getInputStream().readAllBytes());
+        assertField(reader.next(), "targetFormat", "json");
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void readsFieldAfterSkippedFilePart() throws IOException {
+        byte[] body = body(new byte[100 * 1024]);
+        MultipartStreamReader reader = new MultipartStreamReader(new TrickleInputStream(body, 1), BOUNDARY, body.length);
+
+        MultipartStreamReader.Part file = reader.next();
+        assertTrue(file.getInputStream().read(new byte[3]) > 0);
+        // Moving on skips the rest of the file, after which its content has ended
+        assertField(reader.next(), "targetFormat", "json");
+        assertEquals(-1, file.getInputStream().read());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void failsOnTruncatedBody() throws IOException {
+        byte[] body = body("id,name\n1,a\n2,b\n3,c\n".repeat(100).getBytes(StandardCharsets.US_ASCII));
+
+        // Within the file content
+        byte[] inFile = Arrays.copyOf(body, body.length / 2);
+        MultipartStreamReader reader = new MultipartStreamReader(new ByteArrayInputStream(inFile), BOUNDARY, body.length);
+        InputStream file = reader.next().getInputStream();
+        IOException e = assertThrows(IOException.class, file::readAllBytes);
+        assertEquals("Multipart body ended in the middle of a part", e.getMessage());
+
+        // Within the headers of the field
+        byte[] inHeaders = Arrays.copyOf(body, body.length - "\r\n\r\njson\r\n--".length() - BOUNDARY.length() - 4);
+        MultipartStreamReader headers = new MultipartStreamReader(new ByteArrayInputStream(inHeaders), BOUNDARY, body.length);
+        headers.next();
+        assertThrows(IOException.class, headers::next);
+
+        // Before the closing delimiter
+        byte[] unclosed = Arrays.copyOf(body, body.length - ("\r\n--" + BOUNDARY + "--\r\n").length());
+        MultipartStreamReader last = new MultipartStreamReader(new ByteArrayInputStream(unclosed), BOUNDARY, body.length);
+        last.next();
+        MultipartStreamReader.Part field = last.next();
+        assertThrows(IOException.class, () -> field.getString(100));
+    }
+
+    @Test
+    public void failsOnHeaderLineLongerThanTheBuffer() throws IOException {
+        char[] name = new char[70 * 1024];
+        Arrays.fill(name, 'a');
+        byte[] body = ("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"" + new String(name) + "\"\r\n\r\nx\r\n--"
+                + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+
+        MultipartStreamReader reader = new MultipartStreamReader(new ByteArrayInputStream(body), BOUNDARY, body.length);
+        IOException e = assertThrows(IOException.class, reader::next);
+        assertEquals("Multipart line too long", e.getMessage());
+    }
+
+    @Test
+    public void failsOnBodyLargerThanTheLimit() throws IOException {
+        byte[] body = body(new byte[10000]);
+        MultipartStreamReader reader = new MultipartStreamReader(new ByteArrayInputStream(body), BOUNDARY, 5000);
+        IOException e = assertThrows(IOException.class, () -> reader.next().getInputStream().readAllBytes());
+        assertTrue(e.getMessage().startsWith("Request body is larger than 5000 bytes"), e.getMessage());
+    }
+
+    @Test
+    public void readsBoundaryOfFormDataContentType() {
+        assertEquals(BOUNDARY, MultipartStreamReader.getBoundary("multipart/form-data; boundary=" + BOUNDARY));
+        assertEquals("a b;c", MultipartStreamReader.getBoundary("Multipart/Form-Data; charset=UTF-8; boundary=\"a b;c\""));
+        assertNull(MultipartStreamReader.getBoundary("multipart/form-data"));
+        assertNull(MultipartStreamReader.getBoundary("application/json; boundary=x"));
+        assertNull(MultipartStreamReader.getBoundary(null));
+    }
+
+    private static void assertField(MultipartStreamReader.Part part, String name, String value) throws IOException {
+        assertEquals(name, part.getName());
+        assertNull(part.getFileName());
+        assertEquals(value, part.getString(100));
+    }
+
+    private static byte[] body(byte[] content) {
+        byte[] head = ("preamble\r\n--" + BOUNDARY + "  \r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"data.csv\"\r\n"
+                + "Content-Type: text/csv\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] tail = ("\r\n--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"targetFormat\"\r\n\r\n"
+                + "json\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] body = Arrays.copyOf(head, head.length + content.length + tail.length);
+        System.arraycopy(content, 0, body, head.length, content.length);
+        System.arraycopy(tail, 0, body, head.length + content.length, tail.length);
+        return body;
+    }
+
+    /**
+     * Returns one to three bytes per read, like a slow connection.
+     */
+    private static class TrickleInputStream extends ByteArrayInputStream {
+
+        private final Random random;
+
+        TrickleInputStream(byte[] bytes, long seed) {
+            super(bytes);
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public synchronized int read(byte[] target, int offset, int length) {
+            return super.read(target, offset, Math.min(length, 1 + random.nextInt(3)));
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.xconvert.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ParallelZipWriterTest {
+
+    private static final int BLOCK_SIZE = 128 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void roundTripsDeflatedAndStoredEntries() throws IOException {
+        Random random = new Random(7);
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        contents.put("empty.csv", new byte[0]);
+        contents.put("one.json", new byte[] {'x'});
+        contents.put("block-minus-one.xml", text(random, BLOCK_SIZE - 1));
+        // A file that fills its last block is followed by an empty final block
+        contents.put("one-block.csv", text(random, BLOCK_SIZE));
+        contents.put("three-blocks.csv", text(random, 3 * BLOCK_SIZE));
+        contents.put("random.bin", bytes(random, 2 * BLOCK_SIZE + 17));
+        contents.put("données/ünïcode.txt", text(random, 5000));
+
+        Path archive = tempDir.resolve("archive.zip");
+        try (ParallelZipWriter zip = new ParallelZipWriter(Files.newOutputStream(archive), pool, 6, 3)) {
+            for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+                zip.putDeflated(content.getKey(), write(content.getValue()));
+            }
+            byte[] stored = text(random, BLOCK_SIZE + 3);
+            zip.putStored("stored.csv", write(stored));
+            zip.finish();
+            contents.put("stored.csv", stored);
+        }
+
+        // Read through the central directory
+        try (ZipFile zipFile = new ZipFile(archive.toFile(), StandardCharsets.UTF_8)) {
+            assertEquals(contents.size(), zipFile.size());
+            for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+                ZipEntry entry = zipFile.getEntry(content.getKey());
+                assertNotNull(entry, content.getKey());
+                assertEquals(content.getValue().length, entry.getSize());
+                assertEquals(crc(content.getValue()), entry.getCrc());
+                assertEquals("stored.csv".equals(content.getKey()) ? ZipEntry.STORED : ZipEntry.DEFLATED,
+                        entry.getMethod());
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    assertArrayEquals(content.getValue(), in.readAllBytes(), content.getKey());
+                }
+            }
+        }
+
+        // Read front to back, relying on the local headers and data descriptors
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(archive), StandardCharsets.UTF_8)) {
+            int count = 0;
+            for (ZipEntry entry; (entry = in.getNextEntry()) != null; count++) {
+                assertArrayEquals(contents.get(entry.getName()), in.readAllBytes(), entry.getName());
+            }
+            assertEquals(contents.size(), count);
+        }
+    }
+
+    @Test
+    public void writesZip64EndRecordsBeyond65535Entries() throws IOException {
+        Path empty = write(new byte[0]);
+        Path small = write("a,b\n1,2\n".getBytes(StandardCharsets.UTF_8));
+        int count = 0xFFFF + 2;
+
+        Path archive = tempDir.resolve("many.zip");
+        try (ParallelZipWriter zip = new ParallelZipWriter(Files.newOutputStream(archive), pool, 1, 8)) {
+            for (int i = 0; i < count - 1; i++) {
+                zip.putStored("entry-" + i, empty);
+            }
+            zip.putDeflated("last.csv", small);
+            zip.finish();
+        }
+
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+            assertEquals(count, zipFile.size());
+            try (InputStream in = zipFile.getInputStream(zipFile.getEntry("last.csv"))) {
+                assertArrayEquals(Files.readAllBytes(small), in.readAllBytes());
+            }
+            assertNotNull(zipFile.getEntry("entry-" + 0xFFFF));
+            assertNull(zipFile.getEntry("entry-" + count));
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            for (int i = 0; i < count - 1; i++) {
+                assertEquals("entry-" + i, entries.nextElement().getName());
+            }
+            assertEquals("last.csv", entries.nextElement().getName());
+            assertFalse(entries.hasMoreElements());
+        }
+        // The 16-bit entry count of the end record is saturated, so the ZIP64 record was read
+        assertEquals(0xFFFF, readUnsignedShort(archive, Files.size(archive) - 22 + 10));
+    }
+
+    @Test
+    public void closingAnUnfinishedArchiveClosesTheStream() throws IOException {
+        boolean[] closed = new boolean[1];
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        try (ParallelZipWriter zip = new ParallelZipWriter(out, pool, 6, 4)) {
+            zip.putDeflated("big.csv", write(text(new Random(1), 4 * BLOCK_SIZE)));
+        }
+        assertTrue(closed[0]);
+    }
+
+    private Path write(byte[] content) throws IOException {
+        // Entry names are independent of the file names, which may not be encodable here
+        return Files.write(Files.createTempFile(tempDir, "entry", ".tmp"), content);
+    }
+
+    private static byte[] text(Random random, int length) {
+        // Repetitive enough to deflate well, with matches across block boundaries
+        String[] words = {"alpha", "beta", "gamma", "delta", "1234", "\"quoted, text\"", "\n"};
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            text.append(words[random.nextInt(words.length)]).append(',');
+        }
+        text.setLength(length);
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] bytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static long crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    private static int readUnsignedShort(Path file, long offset) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        return (bytes[(int) offset] & 0xff) | (bytes[(int) offset + 1] & 0xff) << 8;
+    }
+}